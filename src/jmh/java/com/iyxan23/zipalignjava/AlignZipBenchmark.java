@@ -0,0 +1,75 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aligns a whole zip per invocation, through {@link ZipAlign#alignZip(RandomAccessFile, java.io.OutputStream)} into a
+ * file and through the streaming {@link ZipAlign#alignZip(InputStream, java.io.OutputStream, int, int)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlignZipBenchmark {
+    @Param({"TINY_STORED", "HUGE_STORED", "SO_PADDING", "ALIGNED"})
+    public SyntheticArchives.Shape shape;
+
+    private Path input;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException, InvalidZipException {
+        input = Files.createTempFile("zipalign-jmh-" + shape + "-", ".zip");
+        output = Files.createTempFile("zipalign-jmh-" + shape + "-aligned-", ".zip");
+
+        SyntheticArchives.generate(shape, input);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void alignRandomAccessFile() throws IOException, InvalidZipException {
+        try (RandomAccessFile in = new RandomAccessFile(input.toFile(), "r");
+             FileOutputStream out = new FileOutputStream(output.toFile())) {
+            ZipAlign.alignZip(in, out);
+        }
+    }
+
+    @Benchmark
+    public void alignInputStream() throws IOException, InvalidZipException {
+        try (InputStream in = new FileInputStream(input.toFile())) {
+            ZipAlign.alignZip(in, new SyntheticArchives.NullOutputStream(), 4, 16384);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the EOCD record and parses the central directory, the part of every alignment and check that doesn't depend
+ * on the size of the entries. LONG_COMMENT has a single small central directory behind the longest possible comment,
+ * isolating the EOCD lookup; TINY_STORED is dominated by parsing 20000 entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CentralDirectoryBenchmark {
+    @Param({"TINY_STORED", "SO_PADDING", "LONG_COMMENT"})
+    public SyntheticArchives.Shape shape;
+
+    private Path input;
+    private FileChannel channel;
+    private AlignBuffers buffers;
+    private final AlignmentPolicy policy = AlignmentPolicy.standard(4, 16384);
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException, InvalidZipException {
+        input = Files.createTempFile("zipalign-jmh-" + shape + "-", ".zip");
+        SyntheticArchives.generate(shape, input);
+
+        channel = FileChannel.open(input, StandardOpenOption.READ);
+        buffers = new AlignBuffers(ZipAligner.DEFAULT_BUFFER_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(input);
+    }
+
+    @Benchmark
+    public CentralDirectory readCentralDirectory() throws IOException, InvalidZipException {
+        return CentralDirectory.read(channel, buffers);
+    }
+
+    @Benchmark
+    public AlignmentPlan analyze() throws IOException, InvalidZipException {
+        return ZipAlign.analyze(channel, 4, 16384, policy, false, buffers);
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aligns a small split APK by running the command line in a new JVM per invocation, the way build tools run it for
+ * every zip. What's measured is the wall time of the whole process: starting the JVM, loading the classes and aligning
+ * the zip, with and without the class data sharing archive that the build makes next to the jar.<br/>
+ * <br/>
+ * The jmh task passes the path of the jar in the <code>zipalign.jar</code> system property. The archive is only used
+ * by the JVM that made it, which is the one that runs the build and this benchmark; with <code>-Xshare:on</code> the
+ * JVM refuses to start rather than silently running without it. JVMs older than 13 can't make the archive, the runs
+ * with it are skipped when it's not there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 40)
+@Fork(1)
+public class StartupBenchmark {
+    @Param({"false", "true"})
+    public boolean sharedArchive;
+
+    private Path input;
+    private Path output;
+    // where the output of the command line goes, it's only read when it fails
+    private Path log;
+    // null when the runs are skipped
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException, InvalidZipException {
+        String jar = System.getProperty("zipalign.jar");
+        if (jar == null) throw new IllegalStateException("the path of the jar is given in the zipalign.jar property");
+
+        Path archive = Paths.get(jar.replaceFirst("\\.jar$", ".jsa"));
+        if (sharedArchive && !Files.isRegularFile(archive)) {
+            System.err.println("Skipping sharedArchive=true: " + (javaVersion() < 13
+                    ? "Java " + javaVersion() + " can't make a class data sharing archive, it takes Java 13+"
+                    : "the class data sharing archive doesn't exist: " + archive));
+            return;
+        }
+
+        input = Files.createTempFile("zipalign-jmh-startup-", ".zip");
+        output = Files.createTempFile("zipalign-jmh-startup-aligned-", ".zip");
+        log = Files.createTempFile("zipalign-jmh-startup-", ".log");
+
+        SyntheticArchives.generate(SyntheticArchives.Shape.SPLIT_APK, input);
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+        if (sharedArchive) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:on");
+        }
+
+        command.add("-jar");
+        command.add(jar);
+        command.add(input.toString());
+        command.add(output.toString());
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteOutput() throws IOException {
+        // the command line refuses to overwrite its output
+        if (output != null) Files.deleteIfExists(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        if (command == null) return;
+
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(log);
+    }
+
+    @Benchmark
+    public int alignInNewJvm() throws IOException, InterruptedException {
+        if (command == null) return 0;
+
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+
+        int exitCode = process.waitFor();
+        if (exitCode != 0)
+            throw new IllegalStateException("the command line exited with " + exitCode + ": " + command + "\n"
+                    + new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+
+        return exitCode;
+    }
+
+    /**
+     * @return The feature version of the JVM that runs the benchmark, e.g. 8 for 1.8
+     */
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+}
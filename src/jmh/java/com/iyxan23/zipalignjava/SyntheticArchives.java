@@ -0,0 +1,166 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the zips that the benchmarks run against. Every shape is generated from a fixed seed, so the same shape
+ * always ends up being the same bytes.
+ */
+class SyntheticArchives {
+    enum Shape {
+        // 20000 stored entries of 1 to 512 bytes, a central directory heavy zip
+        TINY_STORED,
+        // 4 stored entries of 64 MiB, dominated by copying unchanged ranges
+        HUGE_STORED,
+        // 400 stored .so files of 8 to 128 KiB that all need to be padded to 16 KiB boundaries
+        SO_PADDING,
+        // TINY_STORED that is already aligned, nothing needs to be padded
+        ALIGNED,
+        // 16 small entries followed by a 65535 bytes long comment, the worst case of the EOCD lookup
+        LONG_COMMENT,
+        // a small split APK: a manifest, 2 .so files of 24 KiB and 60 resources of up to 4 KiB, about 170 KiB
+        SPLIT_APK
+    }
+
+    private static final long SEED = 0x5a495041L;
+
+    /**
+     * Generates a zip of the given shape into the given file.
+     */
+    static void generate(Shape shape, Path file) throws IOException, InvalidZipException {
+        Random random = new Random(SEED);
+
+        switch (shape) {
+            case TINY_STORED:
+                try (ZipOutputStream zip = open(file)) {
+                    for (int i = 0; i < 20000; i++) {
+                        byte[] data = randomBytes(random, 1 + random.nextInt(512));
+                        putStored(zip, String.format("res/raw/file_%05d.bin", i), data);
+                    }
+                }
+                break;
+
+            case HUGE_STORED:
+                byte[] block = randomBytes(random, 1024 * 1024);
+
+                try (ZipOutputStream zip = open(file)) {
+                    for (int i = 0; i < 4; i++) {
+                        putStoredRepeated(zip, "assets/huge_" + i + ".bin", block, 64);
+                    }
+                }
+                break;
+
+            case SO_PADDING:
+                try (ZipOutputStream zip = open(file)) {
+                    putStored(zip, "AndroidManifest.xml", randomBytes(random, 3));
+
+                    for (int i = 0; i < 400; i++) {
+                        int size = 8 * 1024 + random.nextInt(120 * 1024);
+                        putStored(zip, String.format("lib/arm64-v8a/lib%03d.so", i), randomBytes(random, size));
+                    }
+                }
+                break;
+
+            case ALIGNED:
+                Path unaligned = Files.createTempFile("zipalign-jmh-", ".zip");
+
+                try {
+                    generate(Shape.TINY_STORED, unaligned);
+
+                    try (RandomAccessFile in = new RandomAccessFile(unaligned.toFile(), "r");
+                         FileOutputStream out = new FileOutputStream(file.toFile())) {
+                        ZipAlign.alignZip(in, out);
+                    }
+                } finally {
+                    Files.delete(unaligned);
+                }
+                break;
+
+            case LONG_COMMENT:
+                try (ZipOutputStream zip = open(file)) {
+                    for (int i = 0; i < 16; i++) {
+                        putStored(zip, "file_" + i + ".bin", randomBytes(random, 1 + random.nextInt(512)));
+                    }
+
+                    char[] comment = new char[0xffff];
+                    Arrays.fill(comment, 'z');
+                    zip.setComment(new String(comment));
+                }
+                break;
+
+            case SPLIT_APK:
+                try (ZipOutputStream zip = open(file)) {
+                    putStored(zip, "AndroidManifest.xml", randomBytes(random, 1 + random.nextInt(2048)));
+                    putStored(zip, "lib/arm64-v8a/libmain.so", randomBytes(random, 24 * 1024));
+                    putStored(zip, "lib/arm64-v8a/libutil.so", randomBytes(random, 24 * 1024));
+
+                    for (int i = 0; i < 60; i++) {
+                        byte[] data = randomBytes(random, 1 + random.nextInt(4096));
+                        putStored(zip, String.format("res/drawable/image_%02d.png", i), data);
+                    }
+                }
+                break;
+        }
+    }
+
+    private static ZipOutputStream open(Path file) throws IOException {
+        return new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1024 * 1024));
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void putStored(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        putStoredRepeated(zip, name, data, 1);
+    }
+
+    /**
+     * Puts a stored entry whose data is the given block repeated {@code times} times.
+     */
+    private static void putStoredRepeated(ZipOutputStream zip, String name, byte[] block, int times)
+            throws IOException {
+
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < times; i++) crc.update(block);
+
+        // stored entries need their sizes and crc before they're written
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize((long) block.length * times);
+        entry.setCompressedSize((long) block.length * times);
+        entry.setCrc(crc.getValue());
+
+        zip.putNextEntry(entry);
+        for (int i = 0; i < times; i++) zip.write(block);
+        zip.closeEntry();
+    }
+
+    /**
+     * An output stream that discards everything, for benchmarks that shouldn't measure the writes.
+     */
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) { }
+
+        @Override
+        public void write(byte[] b, int off, int len) { }
+    }
+}
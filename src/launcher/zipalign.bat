@@ -0,0 +1,16 @@
+@echo off
+rem Runs the command line of zipalign-java with the class data sharing archive that cdsDistribution made next to the jar,
+rem see the zipalign launcher next to this one.
+setlocal
+
+set "DIR=%~dp0"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+
+if exist "%DIR%@ARCHIVE@" (
+    "%JAVA%" -XX:+IgnoreUnrecognizedVMOptions -XX:+AutoCreateSharedArchive "-XX:SharedArchiveFile=%DIR%@ARCHIVE@" -Xlog:cds=off -Xlog:cds+dynamic=off -jar "%DIR%@JAR@" %*
+) else (
+    "%JAVA%" -jar "%DIR%@JAR@" %*
+)
+
+exit /b %ERRORLEVEL%
@@ -0,0 +1,51 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+/**
+ * Scratch buffers that are reused across alignments, so that aligning many zips in a row doesn't allocate the same
+ * buffers over and over again. An instance must only be used by one thread at a time, {@link ZipAligner} keeps one per
+ * thread.
+ */
+class AlignBuffers {
+    private final int outputSize;
+
+    // the counters of the alignment that's currently using these buffers
+    final StatsRecorder stats = new StatsRecorder();
+
+    // shared by the EOCD lookup and the local file header probing, they never run at the same time
+    private byte[] block;
+    private byte[] output;
+    // read through while the block and the output are in use
+    private byte[] verificationBlock;
+
+    AlignBuffers(int outputSize) {
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * @return A buffer that is at least {@code minSize} bytes long, its contents are undefined
+     */
+    byte[] block(int minSize) {
+        if (block == null || block.length < minSize) block = new byte[minSize];
+        return block;
+    }
+
+    /**
+     * @return The buffer where writes to the output are coalesced in
+     */
+    byte[] output() {
+        if (output == null) output = new byte[outputSize];
+        return output;
+    }
+
+    /**
+     * @return The buffer that stored entries are read through to have their CRC-32s verified
+     */
+    byte[] verificationBlock() {
+        if (verificationBlock == null) verificationBlock = new byte[CrcVerifier.BLOCK_SIZE];
+        return verificationBlock;
+    }
+}
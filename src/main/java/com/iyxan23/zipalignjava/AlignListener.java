@@ -0,0 +1,40 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+/**
+ * Gets told about the progress of every alignment made by a {@link ZipAligner}, set with
+ * {@link ZipAligner.Builder#listener(AlignListener)}. It is called from the thread that aligns the zip, so it must be
+ * thread-safe when the aligner is shared between threads.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     ZipAligner aligner = new ZipAligner.Builder()
+ *             .listener(new AlignListener() {
+ *                 &#64;Override
+ *                 public void onAligned(AlignStats stats) {
+ *                     System.out.println(stats.toJson());
+ *                 }
+ *             })
+ *             .build();
+ * </pre>
+ */
+public interface AlignListener {
+    /**
+     * Called whenever a phase of an alignment is done. Does nothing by default.
+     *
+     * @param phase The phase that is done
+     * @param nanos How long it took in nanoseconds
+     */
+    default void onPhase(AlignStats.Phase phase, long nanos) {
+    }
+
+    /**
+     * Called once the aligned zip is written.
+     *
+     * @param stats What the alignment did
+     */
+    void onAligned(AlignStats stats);
+}
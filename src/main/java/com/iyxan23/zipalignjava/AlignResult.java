@@ -0,0 +1,79 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of aligning a single zip of a batch, a failure of one zip does not abort the rest of the batch.
+ *
+ * @see ZipAlign#alignAll(java.util.Map, int, int, int)
+ */
+public class AlignResult {
+    private final Path input;
+    private final Path output;
+    private final Exception failure;
+    private final long elapsedNanos;
+
+    AlignResult(Path input, Path output, Exception failure, long elapsedNanos) {
+        this.input = input;
+        this.output = output;
+        this.failure = failure;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * @return Whether the zip got aligned and written to the output
+     */
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+     * @return Why the alignment failed, usually an {@link java.io.IOException} or an {@link InvalidZipException}; null
+     * when it succeeded
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return Every stored entry whose data doesn't match its CRC-32 when the aligner verifies them, in the order of
+     * where they are in the file; empty when they all match or when the alignment failed for another reason
+     *
+     * @see ZipAligner.Builder#verifyCrc(boolean)
+     */
+    public List<CrcMismatchException.Entry> getCrcMismatches() {
+        if (failure instanceof CrcMismatchException) return ((CrcMismatchException) failure).getMismatches();
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return How long it took to align this zip in milliseconds, not including the time it spent waiting in the queue
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignResult{" +
+                "input=" + input +
+                ", output=" + output +
+                ", failure=" + failure +
+                ", elapsedMillis=" + getElapsedMillis() +
+                '}';
+    }
+}
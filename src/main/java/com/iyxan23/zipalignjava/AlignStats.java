@@ -0,0 +1,183 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+/**
+ * What a single alignment did and how long each of its phases took, handed to
+ * {@link AlignListener#onAligned(AlignStats)} once the aligned zip is written.<br/>
+ * <br/>
+ * The counts of entries are made while analyzing the zip, so they stay 0 when an existing {@link AlignmentPlan} is
+ * applied, and when the zip is streamed only its local file headers are counted as scanned. Read, seek and write calls
+ * are the calls made on the underlying channels and streams: a transfer straight from the input into the output
+ * counts as a single write.
+ */
+public class AlignStats {
+    /**
+     * The phases of an alignment, in the order they run.
+     */
+    public enum Phase {
+        /** Reading the end of the zip and looking for its end-of-central-directory record */
+        EOCD_SCAN("eocdScan"),
+        /** Reading the central directory and parsing its entries */
+        CENTRAL_DIRECTORY_PARSE("centralDirectoryParse"),
+        /** Reading the local file headers of the entries that need to be aligned */
+        LOCAL_HEADER_PROBE("localHeaderProbe"),
+        /** Writing the aligned zip */
+        STREAMING("streaming");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The name of this phase in {@link AlignStats#toJson()}
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final long archiveSize;
+    private final long entriesScanned;
+    private final long storedEntriesAligned;
+    private final long soEntriesAligned;
+    private final long paddingBytes;
+    private final long bytesCopied;
+    private final long readCalls;
+    private final long seekCalls;
+    private final long writeCalls;
+    private final long[] phaseNanos;
+    private final long totalNanos;
+
+    AlignStats(long archiveSize, long entriesScanned, long storedEntriesAligned, long soEntriesAligned,
+               long paddingBytes, long bytesCopied, long readCalls, long seekCalls, long writeCalls, long[] phaseNanos,
+               long totalNanos) {
+        this.archiveSize = archiveSize;
+        this.entriesScanned = entriesScanned;
+        this.storedEntriesAligned = storedEntriesAligned;
+        this.soEntriesAligned = soEntriesAligned;
+        this.paddingBytes = paddingBytes;
+        this.bytesCopied = bytesCopied;
+        this.readCalls = readCalls;
+        this.seekCalls = seekCalls;
+        this.writeCalls = writeCalls;
+        this.phaseNanos = phaseNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return The size of the zip that got aligned in bytes
+     */
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+
+    /**
+     * @return The amount of entries in the central directory, or of local file headers when the zip is streamed
+     */
+    public long getEntriesScanned() {
+        return entriesScanned;
+    }
+
+    /**
+     * @return The amount of uncompressed entries that got padded to the regular alignment
+     */
+    public long getStoredEntriesAligned() {
+        return storedEntriesAligned;
+    }
+
+    /**
+     * @return The amount of .so files that got padded to the .so file alignment
+     */
+    public long getSoEntriesAligned() {
+        return soEntriesAligned;
+    }
+
+    /**
+     * @return The amount of null bytes inserted into extra fields
+     */
+    public long getPaddingBytes() {
+        return paddingBytes;
+    }
+
+    /**
+     * @return The amount of bytes that are copied from the input as is, patched fields and padding aside
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getReadCalls() {
+        return readCalls;
+    }
+
+    public long getSeekCalls() {
+        return seekCalls;
+    }
+
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    /**
+     * @return How long the given phase took in nanoseconds, 0 when it didn't run
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return How long the whole alignment took in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return These stats as a single line JSON object, e.g.
+     * <pre>
+     *     {"archiveSize":5834477,"entriesScanned":120,"storedEntriesAligned":3,"soEntriesAligned":2,...,
+     *      "phaseNanos":{"eocdScan":41200,"centralDirectoryParse":180300,...},"totalNanos":5302100}
+     * </pre>
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(384)
+                .append("{\"archiveSize\":").append(archiveSize)
+                .append(",\"entriesScanned\":").append(entriesScanned)
+                .append(",\"storedEntriesAligned\":").append(storedEntriesAligned)
+                .append(",\"soEntriesAligned\":").append(soEntriesAligned)
+                .append(",\"paddingBytes\":").append(paddingBytes)
+                .append(",\"bytesCopied\":").append(bytesCopied)
+                .append(",\"readCalls\":").append(readCalls)
+                .append(",\"seekCalls\":").append(seekCalls)
+                .append(",\"writeCalls\":").append(writeCalls)
+                .append(",\"phaseNanos\":{");
+
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() != 0) json.append(',');
+            json.append('"').append(phase.key).append("\":").append(phaseNanos[phase.ordinal()]);
+        }
+
+        return json.append("},\"totalNanos\":").append(totalNanos).append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "AlignStats{" +
+                "archiveSize=" + archiveSize +
+                ", entriesScanned=" + entriesScanned +
+                ", storedEntriesAligned=" + storedEntriesAligned +
+                ", soEntriesAligned=" + soEntriesAligned +
+                ", paddingBytes=" + paddingBytes +
+                ", bytesCopied=" + bytesCopied +
+                ", readCalls=" + readCalls +
+                ", seekCalls=" + seekCalls +
+                ", writeCalls=" + writeCalls +
+                ", totalNanos=" + totalNanos +
+                '}';
+    }
+}
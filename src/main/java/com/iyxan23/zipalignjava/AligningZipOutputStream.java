@@ -0,0 +1,365 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip that is already aligned, for when the zip is being made in the first place: a drop-in replacement for
+ * {@link java.util.zip.ZipOutputStream} that saves reading and writing the whole zip a second time just to align it.
+ * The extra field of every local file header is padded as it is written, with the same rules as
+ * {@link ZipAlign#alignZip(java.io.RandomAccessFile, OutputStream, int, int)}: .so files are aligned to the .so file
+ * alignment, the rest of uncompressed entries to the regular alignment.<br/>
+ * <br/>
+ * Like with {@link java.util.zip.ZipOutputStream}, the size and the CRC-32 of a {@link ZipEntry#STORED} entry must be
+ * set before it is put, while {@link ZipEntry#DEFLATED} entries are compressed as they're written and followed by a
+ * data descriptor. Zip64 is not supported: the zip must stay under 4GiB and 65535 entries.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     try (AligningZipOutputStream zipOut = new AligningZipOutputStream(out, 4, 16384)) {
+ *         ZipEntry entry = new ZipEntry("lib/arm64-v8a/libfoo.so");
+ *         entry.setMethod(ZipEntry.STORED);
+ *         entry.setSize(lib.length);
+ *         entry.setCrc(crc);
+ *
+ *         zipOut.putNextEntry(entry);
+ *         zipOut.write(lib);
+ *         zipOut.closeEntry();
+ *     }
+ * </pre>
+ */
+public class AligningZipOutputStream extends OutputStream {
+    private final CoalescingOutput out;
+    private final OutputStream rawOut;
+    private final AlignmentPolicy policy;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] deflated = new byte[8192];
+    private final CRC32 crc = new CRC32();
+
+    private final HashSet<String> names = new HashSet<>();
+    private ByteBuffer centralDir = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private int entryCount;
+    private byte[] comment = new byte[0];
+
+    // the amount of bytes written so far, where the next local file header starts
+    private long written;
+
+    // the entry that is currently being written, null when there's none
+    private ZipEntry current;
+    private byte[] currentName;
+    private long currentOffset;
+    private int currentDosDateTime;
+    private long currentDataStart;
+    private long currentSize;
+
+    private boolean finished;
+
+    /**
+     * Writes a zip with 4 byte alignment and 16384-byte (16KiB) .so file alignment.
+     *
+     * @param out Where the zip is going to be written to
+     */
+    public AligningZipOutputStream(OutputStream out) {
+        this(out, 4, 16384);
+    }
+
+    /**
+     * @param out Where the zip is going to be written to
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB)
+     *                        to support Android 15+; set to 0 to disable.
+     */
+    public AligningZipOutputStream(OutputStream out, int alignment, int soFileAlignment) {
+        if (alignment < 1) throw new IllegalArgumentException("alignment must be at least 1: " + alignment);
+        if (soFileAlignment < 0)
+            throw new IllegalArgumentException("soFileAlignment must not be negative: " + soFileAlignment);
+
+        this.rawOut = out;
+        this.out = new CoalescingOutput(out, new byte[ZipAligner.DEFAULT_BUFFER_SIZE], new StatsRecorder(), null);
+        this.policy = AlignmentPolicy.standard(alignment, soFileAlignment);
+    }
+
+    /**
+     * @param out Where the zip is going to be written to
+     * @param policy Decides what the data of every entry is aligned to
+     */
+    public AligningZipOutputStream(OutputStream out, AlignmentPolicy policy) {
+        if (policy == null) throw new NullPointerException("policy must not be null");
+
+        this.rawOut = out;
+        this.out = new CoalescingOutput(out, new byte[ZipAligner.DEFAULT_BUFFER_SIZE], new StatsRecorder(), null);
+        this.policy = policy;
+    }
+
+    /**
+     * @param comment The comment of the zip, written at its very end
+     */
+    public void setComment(String comment) {
+        byte[] bytes = comment == null ? new byte[0] : comment.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) throw new IllegalArgumentException("Zip comment is too long");
+
+        this.comment = bytes;
+    }
+
+    /**
+     * @param level The compression level of the deflated entries that are put next, from 0 to 9
+     */
+    public void setLevel(int level) {
+        deflater.setLevel(level);
+    }
+
+    /**
+     * Starts writing a new entry, closing the current one if there's any. Its local file header is written right
+     * away, padded for its data to be aligned.
+     *
+     * @param entry The entry, deflated unless its method is set to {@link ZipEntry#STORED}
+     *
+     * @throws ZipException Will be thrown when the entry is a duplicate, or is stored without its size and CRC-32
+     */
+    public void putNextEntry(ZipEntry entry) throws IOException {
+        ensureOpen();
+        if (current != null) closeEntry();
+
+        int method = entry.getMethod() == -1 ? ZipEntry.DEFLATED : entry.getMethod();
+
+        if (method == ZipEntry.STORED && (entry.getSize() == -1 || entry.getCrc() == -1))
+            throw new ZipException("STORED entry " + entry.getName() + " is missing its size or CRC-32");
+
+        if (!names.add(entry.getName())) throw new ZipException("duplicate entry: " + entry.getName());
+
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] extra = entry.getExtra() == null ? new byte[0] : entry.getExtra();
+
+        if (name.length > 0xffff) throw new ZipException("Entry name is too long: " + entry.getName());
+
+        int padding = 0;
+        int required = policy.requiredAlignment(name, 0, name.length, method);
+        if (required != 0) padding = ZipAlign.padding(written + 30 + name.length + extra.length, required);
+
+        if (extra.length + padding > 0xffff)
+            throw new ZipException("extra field of " + entry.getName() + " is too large to be padded with "
+                    + padding + " bytes");
+
+        if (written + 30 + name.length + extra.length + padding >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new ZipException("entry " + entry.getName() + " would be located past 4GiB");
+
+        entry.setMethod(method);
+        current = entry;
+        currentName = name;
+        currentOffset = written;
+        currentDosDateTime = ZipUpdate.NewEntry.dosDateTime(entry.getTime() == -1
+                ? System.currentTimeMillis() : entry.getTime());
+
+        out.writeLittleEndian(0x04034b50, 4);
+        out.writeLittleEndian(method == ZipEntry.STORED ? 10 : 20, 2); // version needed to extract
+        out.writeLittleEndian(flags(method), 2);
+        out.writeLittleEndian(method, 2);
+        out.writeLittleEndian(currentDosDateTime, 4);
+
+        if (method == ZipEntry.STORED) {
+            out.writeLittleEndian(entry.getCrc(), 4);
+            out.writeLittleEndian(entry.getSize(), 4);
+            out.writeLittleEndian(entry.getSize(), 4);
+        } else {
+            // they're in the data descriptor
+            out.writeZeros(12);
+        }
+
+        out.writeLittleEndian(name.length, 2);
+        out.writeLittleEndian(extra.length + padding, 2);
+        out.write(name, 0, name.length);
+        out.write(extra, 0, extra.length);
+        out.writeZeros(padding);
+
+        written += 30 + name.length + extra.length + padding;
+        currentDataStart = written;
+        currentSize = 0;
+
+        crc.reset();
+        deflater.reset();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (current == null) throw new ZipException("no current entry");
+        if (length == 0) return;
+
+        crc.update(bytes, offset, length);
+        currentSize += length;
+
+        if (current.getMethod() == ZipEntry.STORED) {
+            out.write(bytes, offset, length);
+            written += length;
+            return;
+        }
+
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) deflate();
+    }
+
+    /**
+     * Finishes writing the current entry, along with its data descriptor when it is deflated.
+     *
+     * @throws ZipException Will be thrown when a stored entry doesn't match its size or CRC-32
+     */
+    public void closeEntry() throws IOException {
+        ensureOpen();
+        if (current == null) return;
+
+        ZipEntry entry = current;
+        long compressedSize;
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+            if (currentSize != entry.getSize())
+                throw new ZipException("invalid entry size (expected " + entry.getSize() + " but got " + currentSize
+                        + " bytes)");
+
+            if (crc.getValue() != entry.getCrc())
+                throw new ZipException("invalid entry crc-32 (expected 0x" + Long.toHexString(entry.getCrc())
+                        + " but got 0x" + Long.toHexString(crc.getValue()) + ")");
+
+            compressedSize = currentSize;
+        } else {
+            deflater.finish();
+            while (!deflater.finished()) deflate();
+
+            compressedSize = written - currentDataStart;
+
+            entry.setSize(currentSize);
+            entry.setCompressedSize(compressedSize);
+            entry.setCrc(crc.getValue());
+
+            out.writeLittleEndian(0x08074b50, 4);
+            out.writeLittleEndian(entry.getCrc(), 4);
+            out.writeLittleEndian(compressedSize, 4);
+            out.writeLittleEndian(currentSize, 4);
+            written += 16;
+        }
+
+        if (currentSize >= CentralDirectory.ZIP64_MAGIC_VALUE || written >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new ZipException("entry " + entry.getName() + " ends past 4GiB");
+
+        putCentralDirEntry(entry, compressedSize);
+        current = null;
+    }
+
+    /**
+     * Writes the central directory and the end-of-central-directory record, without closing the underlying output.
+     */
+    public void finish() throws IOException {
+        ensureOpen();
+        if (current != null) closeEntry();
+
+        if (entryCount > 0xffff) throw new ZipException("Too many entries for a zip without Zip64: " + entryCount);
+        if (written + centralDir.position() >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new ZipException("central directory would end past 4GiB");
+
+        out.write(centralDir.array(), 0, centralDir.position());
+
+        out.writeLittleEndian(0x06054b50, 4);
+        out.writeZeros(4); // the number of this disk, and of the disk where the central directory starts
+        out.writeLittleEndian(entryCount, 2);
+        out.writeLittleEndian(entryCount, 2);
+        out.writeLittleEndian(centralDir.position(), 4);
+        out.writeLittleEndian(written, 4);
+        out.writeLittleEndian(comment.length, 2);
+        out.write(comment, 0, comment.length);
+
+        out.finish();
+        finished = true;
+        deflater.end();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished) finish();
+        } finally {
+            deflater.end();
+            rawOut.close();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int count = deflater.deflate(deflated, 0, deflated.length);
+        if (count == 0) return;
+
+        out.write(deflated, 0, count);
+        written += count;
+    }
+
+    private void putCentralDirEntry(ZipEntry entry, long compressedSize) {
+        byte[] extra = entry.getExtra() == null ? new byte[0] : entry.getExtra();
+        byte[] entryComment = entry.getComment() == null ? new byte[0]
+                : entry.getComment().getBytes(StandardCharsets.UTF_8);
+        int length = 46 + currentName.length + extra.length + Math.min(entryComment.length, 0xffff);
+
+        if (centralDir.remaining() < length) {
+            int position = centralDir.position();
+            byte[] grown = Arrays.copyOf(centralDir.array(), Math.max(centralDir.capacity() * 2, position + length));
+
+            centralDir = ByteBuffer.wrap(grown).order(ByteOrder.LITTLE_ENDIAN);
+            centralDir.position(position);
+        }
+
+        int method = entry.getMethod();
+
+        centralDir.putInt(0x02014b50);
+        centralDir.putShort((short) 20); // version made by: MS-DOS, 2.0
+        centralDir.putShort((short) (method == ZipEntry.STORED ? 10 : 20));
+        centralDir.putShort((short) flags(method));
+        centralDir.putShort((short) method);
+        centralDir.putInt(currentDosDateTime);
+        centralDir.putInt((int) entry.getCrc());
+        centralDir.putInt((int) compressedSize);
+        centralDir.putInt((int) currentSize);
+        centralDir.putShort((short) currentName.length);
+        centralDir.putShort((short) extra.length);
+        centralDir.putShort((short) Math.min(entryComment.length, 0xffff));
+        centralDir.putShort((short) 0); // disk number start
+        centralDir.putShort((short) 0); // internal file attributes
+        centralDir.putInt(0); // external file attributes
+        centralDir.putInt((int) currentOffset);
+        centralDir.put(currentName);
+        centralDir.put(extra);
+        centralDir.put(entryComment, 0, Math.min(entryComment.length, 0xffff));
+
+        entryCount++;
+    }
+
+    /**
+     * @return The general purpose bit flag: the filename is UTF-8, and deflated entries have a data descriptor
+     */
+    private static int flags(int method) {
+        return method == ZipEntry.STORED ? 0x0800 : 0x0808;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) throw new IOException("Stream is already finished");
+    }
+}
@@ -0,0 +1,104 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The Android alignment extra field (0xD935) that apksigner pads local file headers with, in place of raw null bytes:
+ * <pre>
+ *     header id   2 bytes   0xD935
+ *     data size   2 bytes   2 + the amount of padding
+ *     alignment   2 bytes   the alignment that the data of the entry is aligned to
+ *     padding     n bytes   null bytes
+ * </pre>
+ * Unlike raw null bytes, it is a well-formed extra field, so it can be told apart from the rest of the extra field and
+ * replaced when the zip gets aligned again.
+ */
+class AlignmentExtraField {
+    static final int HEADER_ID = 0xd935;
+    // the header id, the data size and the alignment
+    static final int MIN_LENGTH = 6;
+
+    /**
+     * @param dataPos Where the data of the entry would start without the field
+     * @param alignment The alignment that the data is required to be aligned to
+     * @return The length of the field that aligns the data, at least {@link #MIN_LENGTH}
+     *
+     * @throws IllegalArgumentException Will be thrown when the alignment doesn't fit in the 2 bytes of the field
+     */
+    static int length(long dataPos, int alignment) {
+        if (alignment > 0xffff)
+            throw new IllegalArgumentException("alignments larger than 65535 can't be written in an alignment extra "
+                    + "field: " + alignment);
+
+        return MIN_LENGTH + ZipAlign.padding(dataPos + MIN_LENGTH, alignment);
+    }
+
+    /**
+     * Writes an alignment field of the given length.
+     */
+    static void write(ZipSink out, int length, int alignment) throws IOException {
+        out.writeLittleEndian(HEADER_ID, 2);
+        out.writeLittleEndian(length - 4, 2);
+        out.writeLittleEndian(alignment, 2);
+        out.writeZeros(length - MIN_LENGTH);
+    }
+
+    /**
+     * Writes an alignment field of the given length into the given bytes.
+     */
+    static void write(byte[] bytes, int offset, int length, int alignment) {
+        putU16(bytes, offset, HEADER_ID);
+        putU16(bytes, offset + 2, length - 4);
+        putU16(bytes, offset + 4, alignment);
+        Arrays.fill(bytes, offset + MIN_LENGTH, offset + length, (byte) 0);
+    }
+
+    /**
+     * Finds where the padding at the end of an extra field starts: the trailing alignment fields and null bytes that
+     * come after the last of the other fields.
+     *
+     * @param extraField The bytes holding the extra field
+     * @param start Where the extra field starts in them
+     * @param length The length of the extra field
+     * @return The offset of the padding relative to the start of the extra field, or the length of the extra field if
+     * it doesn't end with padding
+     */
+    static int paddingStart(byte[] extraField, int start, int length) {
+        int position = 0;
+        // where the trailing run of alignment fields starts, -1 if the last field isn't one
+        int alignmentFieldsStart = -1;
+
+        while (position + 4 <= length) {
+            int id = u16(extraField, start + position);
+            int size = u16(extraField, start + position + 2);
+
+            // padding made out of null bytes looks like an empty field with an id of 0
+            if ((id == 0 && size == 0) || position + 4 + size > length) break;
+
+            if (id != HEADER_ID) alignmentFieldsStart = -1;
+            else if (alignmentFieldsStart == -1) alignmentFieldsStart = position;
+
+            position += 4 + size;
+        }
+
+        for (int i = position; i < length; i++) {
+            if (extraField[start + i] != 0) return length;
+        }
+
+        return alignmentFieldsStart != -1 ? alignmentFieldsStart : position;
+    }
+
+    private static int u16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static void putU16(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+}
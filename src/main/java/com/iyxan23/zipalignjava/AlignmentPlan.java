@@ -0,0 +1,490 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of analyzing a zip: where padding needs to be inserted and which offsets are going to be shifted because
+ * of it. Both are sorted by their positions in the file.<br/>
+ * <br/>
+ * Only the alignments are stored, packed into primitive arrays, so a plan takes memory in proportion to the amount of
+ * local file headers that get padded rather than to the amount of entries. The local file header offsets in the
+ * central directory are shifted on the fly as it is copied, by the padding of every alignment before them (see
+ * {@link #getShiftedPosition(long)}); only the offsets in the Zip64 EOCD record and locator, and the EOCD record are
+ * kept as {@link FileOffsetShift}s.<br/>
+ * <br/>
+ * A plan can be applied to the zip it was made from any number of times without analyzing it again, and can be
+ * serialized with {@link #writeTo(OutputStream)} to be cached. It carries a fingerprint of the central directory of
+ * the zip, applying it to a zip whose central directory is different is rejected.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     AlignmentPlan plan = ZipAlign.analyze(zipIn, 4, 16384);
+ *
+ *     ZipAlign.apply(plan, zipIn, firstOut);
+ *     ZipAlign.apply(plan, zipIn, secondOut);
+ * </pre>
+ *
+ * @see ZipAlign#analyze(java.nio.channels.SeekableByteChannel, int, int)
+ * @see ZipAlign#apply(AlignmentPlan, java.nio.channels.SeekableByteChannel, java.nio.channels.WritableByteChannel)
+ */
+public class AlignmentPlan {
+    // "ZAPL"
+    private static final int MAGIC = 0x5a41504c;
+    private static final int VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    final int alignment;
+    final int soFileAlignment;
+
+    final long fileLength;
+    final long eocdPosition;
+    final long centralDirOffset;
+    final long centralDirSize;
+
+    final AlignmentTable alignments;
+    // the shifted offsets in the records after the central directory
+    final List<FileOffsetShift> shifts;
+
+    // the total amount of bytes that are going to be inserted, minus the ones that are going to be removed
+    final long shiftAmount;
+
+    // null when the plan is only used internally and never handed out
+    final byte[] fingerprint;
+
+    AlignmentPlan(int alignment, int soFileAlignment, long fileLength, long eocdPosition, long centralDirOffset,
+                  long centralDirSize, AlignmentTable alignments, List<FileOffsetShift> shifts, long shiftAmount,
+                  byte[] fingerprint) {
+        this.alignment = alignment;
+        this.soFileAlignment = soFileAlignment;
+        this.fileLength = fileLength;
+        this.eocdPosition = eocdPosition;
+        this.centralDirOffset = centralDirOffset;
+        this.centralDirSize = centralDirSize;
+        this.alignments = alignments;
+        this.shifts = Collections.unmodifiableList(shifts);
+        this.shiftAmount = shiftAmount;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return A copy of this plan that carries the given fingerprint
+     */
+    AlignmentPlan withFingerprint(byte[] fingerprint) {
+        return new AlignmentPlan(alignment, soFileAlignment, fileLength, eocdPosition, centralDirOffset, centralDirSize,
+                alignments, shifts, shiftAmount, fingerprint);
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    public int getSoFileAlignment() {
+        return soFileAlignment;
+    }
+
+    /**
+     * @return The length of the zip that this plan was made from
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * @return The length of the zip once this plan is applied
+     */
+    public long getAlignedLength() {
+        return fileLength + shiftAmount;
+    }
+
+    /**
+     * @return The total amount of padding that is going to be inserted, minus the existing padding that is going to
+     * be removed; negative when the aligned zip is going to be smaller
+     */
+    public long getShiftAmount() {
+        return shiftAmount;
+    }
+
+    /**
+     * @return Whether the zip is already aligned, applying this plan would only copy it
+     */
+    public boolean isAligned() {
+        return alignments.size() == 0;
+    }
+
+    /**
+     * @return Every local file header that is going to be padded, in the order of where they are in the file. The
+     * list is a read-only view, its elements are made as they're asked for.
+     */
+    public List<Alignment> getAlignments() {
+        return new AbstractList<Alignment>() {
+            @Override
+            public Alignment get(int index) {
+                return alignments.get(index);
+            }
+
+            @Override
+            public int size() {
+                return alignments.size();
+            }
+        };
+    }
+
+    /**
+     * @return The offsets in the Zip64 EOCD record and locator, and the EOCD record that are going to be shifted by
+     * the padding. The local file header offsets in the central directory aren't listed, they're shifted by
+     * {@link #getShiftedPosition(long)}.
+     */
+    public List<FileOffsetShift> getShifts() {
+        return shifts;
+    }
+
+    /**
+     * @param position A position in the zip that this plan was made from, outside of the extra fields that get padded,
+     *                 e.g. the offset of a local file header
+     * @return Where the byte at the given position ends up once this plan is applied
+     */
+    public long getShiftedPosition(long position) {
+        return position + alignments.shiftAt(position);
+    }
+
+    /**
+     * @return The SHA-256 hash of the central directory (and everything after it) of the zip that this plan was made
+     * from, alongside its length
+     */
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    /**
+     * Serializes this plan into a compact binary form, that can be read back with {@link #readFrom(InputStream)}.
+     * Positions are stored as variable-length deltas from the previous one, most alignments take 6 to 8 bytes.
+     *
+     * @param out Where the plan is going to be written to, it is not closed
+     *
+     * @throws IOException Will be thrown on IO errors
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+
+        writeVarLong(data, alignment);
+        writeVarLong(data, soFileAlignment);
+        writeVarLong(data, fileLength);
+        writeVarLong(data, eocdPosition);
+        writeVarLong(data, centralDirOffset);
+        writeVarLong(data, centralDirSize);
+        data.write(fingerprint);
+
+        writeVarLong(data, alignments.size());
+        long position = 0;
+
+        for (int i = 0; i < alignments.size(); i++) {
+            writeVarLong(data, alignments.extraFieldLenOffset(i) - position);
+            writeVarLong(data, alignments.padding(i));
+            writeVarLong(data, alignments.extraFieldLenValue(i) & 0xffff);
+            writeVarLong(data, alignments.extraFieldExtensionOffset(i));
+            writeVarLong(data, alignments.removedLength(i));
+            writeVarLong(data, alignments.fieldAlignment(i));
+
+            position = alignments.extraFieldLenOffset(i);
+        }
+
+        writeVarLong(data, shifts.size());
+        position = 0;
+
+        for (FileOffsetShift shift : shifts) {
+            writeVarLong(data, shift.position - position);
+            data.writeByte(shift.width);
+            writeVarLong(data, shift.shiftedFileOffset);
+
+            position = shift.position + shift.width;
+        }
+
+        data.flush();
+    }
+
+    /**
+     * @return This plan serialized with {@link #writeTo(OutputStream)}
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a plan that was serialized with {@link #writeTo(OutputStream)}.
+     *
+     * @param in Where the plan is going to be read from, only the bytes of the plan are read and it is not closed
+     * @return The plan
+     *
+     * @throws IOException Will be thrown on IO errors, or when the plan is malformed
+     */
+    public static AlignmentPlan readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC) throw new IOException("Not an alignment plan");
+
+        int version = data.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported alignment plan version " + version);
+
+        int alignment = readVarInt(data);
+        int soFileAlignment = readVarInt(data);
+        long fileLength = readVarLong(data);
+        long eocdPosition = readVarLong(data);
+        long centralDirOffset = readVarLong(data);
+        long centralDirSize = readVarLong(data);
+
+        byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        data.readFully(fingerprint);
+
+        if (alignment < 1 || eocdPosition >= fileLength || centralDirOffset > eocdPosition)
+            throw new IOException("Malformed alignment plan");
+
+        int alignmentCount = readVarInt(data);
+        AlignmentTable alignments = new AlignmentTable(Math.min(alignmentCount, 4096));
+
+        long position = 0;
+
+        for (int i = 0; i < alignmentCount; i++) {
+            long extraFieldLenOffset = position + readVarLong(data);
+            int alignAmount = readVarInt(data);
+            int extraFieldLenValue = readVarInt(data);
+            int extraFieldExtensionOffset = readVarInt(data);
+            int removedLength = readVarInt(data);
+            int fieldAlignment = readVarInt(data);
+
+            if ((alignAmount == 0 && removedLength == 0) || extraFieldLenValue > 0xffff
+                    || extraFieldLenOffset < position || (i > 0 && extraFieldLenOffset == position)
+                    || removedLength > 0xffff || fieldAlignment > 0xffff
+                    || (fieldAlignment != 0 && alignAmount < AlignmentExtraField.MIN_LENGTH)
+                    || extraFieldLenOffset + 2 + extraFieldExtensionOffset + removedLength > centralDirOffset)
+                throw new IOException("Malformed alignment plan: alignment " + i);
+
+            alignments.add(alignAmount, extraFieldLenOffset, (short) extraFieldLenValue, extraFieldExtensionOffset,
+                    removedLength, fieldAlignment);
+
+            position = extraFieldLenOffset;
+        }
+
+        int shiftCount = readVarInt(data);
+        ArrayList<FileOffsetShift> shifts = new ArrayList<>(Math.min(shiftCount, 4));
+        long centralDirEnd = centralDirOffset + centralDirSize;
+        position = 0;
+
+        for (int i = 0; i < shiftCount; i++) {
+            long shiftPosition = position + readVarLong(data);
+            int width = data.readUnsignedByte();
+            long shiftedFileOffset = readVarLong(data);
+
+            // the offsets of the central directory entries aren't listed, they're worked out from the alignments
+            if ((width != 4 && width != 8) || shiftPosition < position || shiftPosition < centralDirEnd
+                    || shiftPosition + width > fileLength)
+                throw new IOException("Malformed alignment plan: shift " + i);
+
+            shifts.add(new FileOffsetShift(shiftPosition, width, shiftedFileOffset));
+
+            position = shiftPosition + width;
+        }
+
+        return new AlignmentPlan(alignment, soFileAlignment, fileLength, eocdPosition, centralDirOffset,
+                centralDirSize, alignments, shifts, alignments.totalShift(), fingerprint);
+    }
+
+    /**
+     * Reads a plan that was serialized with {@link #toByteArray()}.
+     *
+     * @throws IOException Will be thrown when the plan is malformed
+     */
+    public static AlignmentPlan fromByteArray(byte[] bytes) throws IOException {
+        return readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) throw new EOFException("Reached EOF when reading the alignment plan");
+
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("Malformed alignment plan: negative value");
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed alignment plan: variable-length value is too long");
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) throw new IOException("Malformed alignment plan: " + value + " is too large");
+
+        return (int) value;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignmentPlan{" +
+                "alignment=" + alignment +
+                ", soFileAlignment=" + soFileAlignment +
+                ", fileLength=" + fileLength +
+                ", shiftAmount=" + shiftAmount +
+                ", alignments=" + alignments.size() +
+                ", shifts=" + shifts.size() +
+                '}';
+    }
+
+    /**
+     * Padding that is going to be inserted at the end of the extra field of a local file header, either as null bytes
+     * or as an alignment extra field (0xD935). The existing padding at the end of the extra field may be removed first.
+     */
+    public static class Alignment {
+        final int alignAmount;
+        final long extraFieldLenOffset;
+        final short extraFieldLenValue;
+        final int extraFieldExtensionOffset;
+
+        // the amount of existing padding that is removed from where the padding is inserted
+        final int removedLength;
+        // the alignment written in the alignment extra field that is inserted, 0 to insert null bytes instead
+        final int fieldAlignment;
+
+        Alignment(int alignAmount, long extraFieldLenOffset, short extraFieldLenValue, int extraFieldExtensionOffset,
+                  int removedLength, int fieldAlignment) {
+            this.alignAmount = alignAmount;
+            this.extraFieldLenOffset = extraFieldLenOffset;
+            this.extraFieldLenValue = extraFieldLenValue;
+            this.extraFieldExtensionOffset = extraFieldExtensionOffset;
+            this.removedLength = removedLength;
+            this.fieldAlignment = fieldAlignment;
+        }
+
+        /**
+         * @return The position of the local file header in the original file
+         */
+        public long getLocalHeaderOffset() {
+            return extraFieldLenOffset - 28;
+        }
+
+        /**
+         * @return The amount of bytes that are going to be inserted, including the header of the alignment extra
+         * field when there's one
+         */
+        public int getPadding() {
+            return alignAmount;
+        }
+
+        /**
+         * @return The amount of existing padding that is going to be removed, 0 unless the aligner is set to use
+         * {@link ZipAligner.Builder#alignmentExtraField(boolean) alignment extra fields}
+         */
+        public int getRemovedLength() {
+            return removedLength;
+        }
+
+        /**
+         * @return The alignment written in the inserted alignment extra field (0xD935), or 0 when null bytes are
+         * inserted instead
+         */
+        public int getFieldAlignment() {
+            return fieldAlignment;
+        }
+
+        /**
+         * @return The position in the original file where the padding of this alignment is inserted at
+         */
+        public long paddingOffset() {
+            return extraFieldLenOffset + 2 + extraFieldExtensionOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "Alignment{" +
+                    "alignAmount=" + alignAmount +
+                    ", extraFieldLenOffset=" + extraFieldLenOffset +
+                    ", extraFieldLenValue=" + extraFieldLenValue +
+                    ", extraFieldExtensionOffset=" + extraFieldExtensionOffset +
+                    ", removedLength=" + removedLength +
+                    ", fieldAlignment=" + fieldAlignment +
+                    '}';
+        }
+    }
+
+    /**
+     * An offset field that is going to be overwritten with its shifted value.
+     */
+    public static class FileOffsetShift {
+        final long position;
+        // the size of the field in bytes, 4 or 8 (for Zip64 fields)
+        final int width;
+        final long shiftedFileOffset;
+
+        FileOffsetShift(long position, int width, long shiftedFileOffset) {
+            this.position = position;
+            this.width = width;
+            this.shiftedFileOffset = shiftedFileOffset;
+        }
+
+        /**
+         * @return The position of the field in the original file
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return The size of the field in bytes, 4 or 8 (for Zip64 fields)
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        public long getShiftedFileOffset() {
+            return shiftedFileOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "FileOffsetShift{" +
+                    "position=" + position +
+                    ", width=" + width +
+                    ", shiftedFileOffset=" + shiftedFileOffset +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,127 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.ArrayList;
+
+/**
+ * Decides what the data of every entry is aligned to, from its name as it is stored in the zip and its compression
+ * method. Names are handed over as the bytes of the central directory or the local file header they're read from,
+ * without being decoded.<br/>
+ * <br/>
+ * Policies made with {@link AlignmentPolicy.Builder} have rules of glob patterns, prefixes and suffixes that are
+ * compiled into a single automaton once, and every name is matched against all of them in one pass over its bytes.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     AlignmentPolicy policy = new AlignmentPolicy.Builder()
+ *             .glob("lib/**&#47;*.so", 16384)
+ *             .glob("resources.arsc", 4)
+ *             .glob("assets/textures/**", 64)
+ *             .storedAlignment(4)
+ *             .build();
+ *
+ *     ZipAligner aligner = new ZipAligner.Builder()
+ *             .policy(policy)
+ *             .build();
+ * </pre>
+ *
+ * A policy is used by many threads at once when its aligner is.
+ */
+public interface AlignmentPolicy {
+    /**
+     * @param name The bytes that hold the name of the entry, they must not be modified
+     * @param start Where the name starts in the given bytes
+     * @param length The length of the name in bytes
+     * @param compressionMethod The compression method of the entry, 0 means it is stored without compression
+     * @return The alignment that the data of the entry is required to be aligned to, or 0 if it doesn't need to be
+     */
+    int requiredAlignment(byte[] name, int start, int length, int compressionMethod);
+
+    /**
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB)
+     *                        to support Android 15+; set to 0 to disable.
+     * @return The policy of zipalign: files whose names end with ".so" are aligned to the .so file alignment, the
+     * rest of uncompressed entries to the regular alignment
+     */
+    static AlignmentPolicy standard(int alignment, int soFileAlignment) {
+        if (alignment < 0) throw new IllegalArgumentException("alignment must not be negative: " + alignment);
+        if (soFileAlignment < 0)
+            throw new IllegalArgumentException("soFileAlignment must not be negative: " + soFileAlignment);
+
+        return new StandardAlignmentPolicy(alignment, soFileAlignment);
+    }
+
+    /**
+     * Builds a policy out of rules that are tried in the order they're added, the first one whose pattern matches the
+     * name of an entry decides its alignment whether or not the entry is compressed. Entries that no rule matches are
+     * aligned to the {@link #storedAlignment(int) stored alignment} when they're uncompressed. Defaults to no rules
+     * and 4-byte alignment of stored entries.<br/>
+     * <br/>
+     * In glob patterns, <code>*</code> matches any amount of characters except for <code>/</code>, <code>**</code>
+     * matches any amount of characters including <code>/</code>, <code>**&#47;</code> matches any amount of whole
+     * directories including none, <code>?</code> matches a single character except for <code>/</code> and
+     * <code>\</code> escapes the character after it. Patterns are matched against the whole name.
+     */
+    class Builder {
+        private final ArrayList<String> patterns = new ArrayList<>();
+        private final ArrayList<Integer> alignments = new ArrayList<>();
+        private int storedAlignment = 4;
+
+        /**
+         * @param pattern The glob pattern that the names of entries are matched against, e.g. "lib/**&#47;*.so"
+         * @param alignment Alignment in bytes for the entries that match, 0 to not align them
+         */
+        public Builder glob(String pattern, int alignment) {
+            if (pattern.isEmpty()) throw new IllegalArgumentException("pattern must not be empty");
+            if (alignment < 0) throw new IllegalArgumentException("alignment must not be negative: " + alignment);
+
+            patterns.add(pattern);
+            alignments.add(alignment);
+            return this;
+        }
+
+        /**
+         * @param prefix The text that the names of the entries start with, e.g. "assets/"
+         * @param alignment Alignment in bytes for the entries that match, 0 to not align them
+         */
+        public Builder prefix(String prefix, int alignment) {
+            return glob(GlobAutomaton.escape(prefix) + "**", alignment);
+        }
+
+        /**
+         * @param suffix The text that the names of the entries end with, e.g. ".so"
+         * @param alignment Alignment in bytes for the entries that match, 0 to not align them
+         */
+        public Builder suffix(String suffix, int alignment) {
+            return glob("**" + GlobAutomaton.escape(suffix), alignment);
+        }
+
+        /**
+         * @param storedAlignment Alignment in bytes for the uncompressed entries that no rule matches, 0 to not align
+         *                        them
+         */
+        public Builder storedAlignment(int storedAlignment) {
+            if (storedAlignment < 0)
+                throw new IllegalArgumentException("storedAlignment must not be negative: " + storedAlignment);
+
+            this.storedAlignment = storedAlignment;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException Will be thrown when a pattern ends with a lone <code>\</code>, or when
+         *                                  the patterns together are too complex to be compiled
+         */
+        public AlignmentPolicy build() {
+            int[] ruleAlignments = new int[alignments.size()];
+            for (int i = 0; i < ruleAlignments.length; i++) ruleAlignments[i] = alignments.get(i);
+
+            return new RuleAlignmentPolicy(new ArrayList<>(patterns), ruleAlignments, storedAlignment,
+                    GlobAutomaton.compile(patterns));
+        }
+    }
+}
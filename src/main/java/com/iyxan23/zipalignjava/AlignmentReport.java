@@ -0,0 +1,132 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of checking whether a zip is aligned, contains every entry that is required to be aligned (uncompressed
+ * entries and .so files) in the order of where they are in the file.
+ *
+ * @see ZipAlign#check(java.io.RandomAccessFile)
+ * @see ZipAlign#check(java.io.RandomAccessFile, int, int, boolean)
+ */
+public class AlignmentReport {
+    private final List<Entry> entries;
+    private final List<Entry> violations;
+    private final boolean stoppedEarly;
+
+    AlignmentReport(List<Entry> entries, boolean stoppedEarly) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.stoppedEarly = stoppedEarly;
+
+        ArrayList<Entry> violations = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!entry.isAligned()) violations.add(entry);
+        }
+
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * @return Whether every checked entry is aligned
+     */
+    public boolean isAligned() {
+        return violations.isEmpty();
+    }
+
+    /**
+     * @return Every checked entry, in the order of where they are in the file
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The checked entries that are not aligned
+     */
+    public List<Entry> getViolations() {
+        return violations;
+    }
+
+    /**
+     * @return Whether the check stopped at the first violation, leaving the entries after it unchecked
+     */
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignmentReport{" +
+                "entries=" + entries.size() +
+                ", violations=" + violations +
+                ", stoppedEarly=" + stoppedEarly +
+                '}';
+    }
+
+    /**
+     * An entry that is required to be aligned.
+     */
+    public static class Entry {
+        private final String name;
+        private final long localHeaderOffset;
+        private final long dataOffset;
+        private final int requiredAlignment;
+
+        Entry(String name, long localHeaderOffset, long dataOffset, int requiredAlignment) {
+            this.name = name;
+            this.localHeaderOffset = localHeaderOffset;
+            this.dataOffset = dataOffset;
+            this.requiredAlignment = requiredAlignment;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * @return The offset of where the data of this entry starts
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        /**
+         * @return The boundary in bytes that the data of this entry is required to be aligned to
+         */
+        public int getRequiredAlignment() {
+            return requiredAlignment;
+        }
+
+        /**
+         * @return How many bytes the data of this entry is past its required boundary, 0 when aligned
+         */
+        public int getMisalignment() {
+            return (int) (dataOffset % requiredAlignment);
+        }
+
+        public boolean isAligned() {
+            return getMisalignment() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", localHeaderOffset=" + localHeaderOffset +
+                    ", dataOffset=" + dataOffset +
+                    ", requiredAlignment=" + requiredAlignment +
+                    ", misalignment=" + getMisalignment() +
+                    '}';
+        }
+    }
+}
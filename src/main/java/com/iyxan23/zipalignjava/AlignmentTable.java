@@ -0,0 +1,160 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.Arrays;
+
+/**
+ * The alignments of an {@link AlignmentPlan} packed into parallel primitive arrays, sorted by the positions of their
+ * local file headers. Alongside every alignment, the total amount of bytes shifted up to and including it is kept, so
+ * that the shift of any position in the zip is found with a binary search instead of being stored for every entry.
+ * A table takes about 34 bytes per alignment, no matter how many entries the zip has.
+ */
+class AlignmentTable {
+    private int size;
+
+    private long[] extraFieldLenOffsets;
+    private int[] paddings;
+    private short[] extraFieldLenValues;
+    private int[] extraFieldExtensionOffsets;
+    private int[] removedLengths;
+    private int[] fieldAlignments;
+
+    // the amount of bytes shifted by every alignment up to and including the one at the same index
+    private long[] shiftsAfter;
+
+    AlignmentTable() {
+        this(16);
+    }
+
+    AlignmentTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+
+        extraFieldLenOffsets = new long[capacity];
+        paddings = new int[capacity];
+        extraFieldLenValues = new short[capacity];
+        extraFieldExtensionOffsets = new int[capacity];
+        removedLengths = new int[capacity];
+        fieldAlignments = new int[capacity];
+        shiftsAfter = new long[capacity];
+    }
+
+    /**
+     * Adds an alignment after the last one, see {@link AlignmentPlan.Alignment} for what each value means.
+     */
+    void add(int padding, long extraFieldLenOffset, short extraFieldLenValue, int extraFieldExtensionOffset,
+             int removedLength, int fieldAlignment) {
+
+        if (size == paddings.length) grow();
+
+        extraFieldLenOffsets[size] = extraFieldLenOffset;
+        paddings[size] = padding;
+        extraFieldLenValues[size] = extraFieldLenValue;
+        extraFieldExtensionOffsets[size] = extraFieldExtensionOffset;
+        removedLengths[size] = removedLength;
+        fieldAlignments[size] = fieldAlignment;
+        shiftsAfter[size] = totalShift() + padding - removedLength;
+
+        size++;
+    }
+
+    private void grow() {
+        int capacity = paddings.length + (paddings.length >> 1) + 1;
+
+        extraFieldLenOffsets = Arrays.copyOf(extraFieldLenOffsets, capacity);
+        paddings = Arrays.copyOf(paddings, capacity);
+        extraFieldLenValues = Arrays.copyOf(extraFieldLenValues, capacity);
+        extraFieldExtensionOffsets = Arrays.copyOf(extraFieldExtensionOffsets, capacity);
+        removedLengths = Arrays.copyOf(removedLengths, capacity);
+        fieldAlignments = Arrays.copyOf(fieldAlignments, capacity);
+        shiftsAfter = Arrays.copyOf(shiftsAfter, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long extraFieldLenOffset(int index) {
+        return extraFieldLenOffsets[index];
+    }
+
+    int padding(int index) {
+        return paddings[index];
+    }
+
+    short extraFieldLenValue(int index) {
+        return extraFieldLenValues[index];
+    }
+
+    int extraFieldExtensionOffset(int index) {
+        return extraFieldExtensionOffsets[index];
+    }
+
+    int removedLength(int index) {
+        return removedLengths[index];
+    }
+
+    int fieldAlignment(int index) {
+        return fieldAlignments[index];
+    }
+
+    /**
+     * @return The position in the original file where the padding of the alignment is inserted at
+     */
+    long paddingOffset(int index) {
+        return extraFieldLenOffsets[index] + 2 + extraFieldExtensionOffsets[index];
+    }
+
+    /**
+     * @return The position in the original file right after the existing padding that the alignment replaces, where
+     * copying the file resumes
+     */
+    long paddingEnd(int index) {
+        return paddingOffset(index) + removedLengths[index];
+    }
+
+    /**
+     * @return The amount of bytes that everything after the alignment is shifted by on its own, may be negative
+     */
+    int shift(int index) {
+        return paddings[index] - removedLengths[index];
+    }
+
+    /**
+     * @return The amount of bytes shifted by every alignment, may be negative
+     */
+    long totalShift() {
+        return size == 0 ? 0 : shiftsAfter[size - 1];
+    }
+
+    /**
+     * @return The index of the first alignment whose extra field length is at or after the given position, or
+     * {@link #size()} if there is none
+     */
+    int indexAt(long position) {
+        int index = Arrays.binarySearch(extraFieldLenOffsets, 0, size, position);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * @return The amount of bytes that the byte at the given position is shifted by: the shifts of every alignment
+     * before it. Positions between the extra field length of a padded local file header and the end of its padding
+     * aren't shifted by a single amount, and shouldn't be asked for.
+     */
+    long shiftAt(long position) {
+        int index = indexAt(position);
+        return index == 0 ? 0 : shiftsAfter[index - 1];
+    }
+
+    /**
+     * @return The alignment at the given index as an object
+     */
+    AlignmentPlan.Alignment get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return new AlignmentPlan.Alignment(paddings[index], extraFieldLenOffsets[index], extraFieldLenValues[index],
+                extraFieldExtensionOffsets[index], removedLengths[index], fieldAlignments[index]);
+    }
+}
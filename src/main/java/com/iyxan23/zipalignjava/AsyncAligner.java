@@ -0,0 +1,585 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Aligns a zip file into another with {@link AsynchronousFileChannel}s, without a thread being held for the whole
+ * alignment. The zip is analyzed by a task on the executor first, with blocking reads of its central directory, its
+ * local file headers and the records after its central directory (which are patched in memory). Everything before
+ * the central directory is then copied in chunks, a few of them being read or written at a time; every chunk is
+ * refilled and sent again from the completion of its write.<br/>
+ * <br/>
+ * When the aligner verifies stored entries, they're checksummed from every read as it completes. The checksums are
+ * combined once the last chunk is written, anything that the reads didn't cover is then read again through a blocking
+ * channel of its own.<br/>
+ * <br/>
+ * Only a few of the alignments on the shared pool run at a time, the rest wait for their turn in the order they were
+ * started. Each one holds the central directory of its zip in memory until it is done, starting all of them at once
+ * would hold all of them. Alignments on an executor of the caller all start right away, it's up to the caller to
+ * bound them.<br/>
+ * Cancelling the future stops issuing reads and writes, closes both channels and deletes the output.
+ */
+class AsyncAligner {
+    // how many chunks are being read or written at the same time, and how large each of them is
+    private static final int IN_FLIGHT = 4;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // how many alignments on the shared pool run at the same time
+    private static final int MAX_RUNNING = 16;
+
+    private static final ArrayDeque<AsyncAligner> waiting = new ArrayDeque<>();
+    private static int running;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static ExecutorService defaultExecutor;
+
+    private final ZipAligner aligner;
+    private final Path input;
+    private final Path output;
+    private final ExecutorService executor;
+
+    // whether this alignment runs on the shared pool and waits for its turn there
+    private final boolean queued;
+
+    private final CompletableFuture<AlignResult> result = new CompletableFuture<>();
+
+    // only the stats and the block of the analysis are used, the stats are only touched while holding the lock of
+    // this aligner once the copying starts
+    private final AlignBuffers buffers = new AlignBuffers(0);
+    private long started;
+
+    private AsynchronousFileChannel in;
+    private AsynchronousFileChannel out;
+    private boolean outputOpened;
+
+    // checksums the stored entries as they're read, what the reads didn't cover is read again through a channel of
+    // its own once the copy is done; both are null when they aren't verified
+    private CrcVerifier verifier;
+    private FileChannel verified;
+
+    private Pieces pieces;
+    private byte[] tail;
+    private long tailPosition;
+
+    // where the next chunk is filled from
+    private int pieceIndex;
+    private long pieceOffset;
+    private int literalOffset;
+    private long outputPosition;
+    private boolean tailTaken;
+
+    // the chunks that haven't run out of pieces yet
+    private int activeChunks;
+
+    private AsyncAligner(ZipAligner aligner, Path input, Path output, ExecutorService executor) {
+        this.aligner = aligner;
+        this.input = input;
+        this.output = output;
+        this.executor = executor != null ? executor : defaultExecutor();
+        this.queued = executor == null;
+    }
+
+    /**
+     * Starts aligning the given zip into the given output, creating the parent directories of the output when needed.
+     * The output is overwritten, and deleted when the alignment fails or is cancelled.
+     *
+     * @param executor Where the analysis and the completions of the reads and writes run, null for a shared pool of
+     *                 as many daemon threads as there are processors, where only {@link #MAX_RUNNING} alignments run
+     *                 at a time
+     * @return The result of the alignment, which is completed with a failure rather than exceptionally
+     */
+    static CompletableFuture<AlignResult> align(ZipAligner aligner, Path input, Path output,
+                                                ExecutorService executor) {
+        final AsyncAligner task = new AsyncAligner(aligner, input, output, executor);
+
+        task.result.whenComplete(new BiConsumer<AlignResult, Throwable>() {
+            @Override
+            public void accept(AlignResult result, Throwable failure) {
+                if (task.result.isCancelled()) task.cleanUp();
+
+                if (task.queued) finished(task);
+            }
+        });
+
+        if (!task.queued) {
+            task.start();
+            return task.result;
+        }
+
+        synchronized (AsyncAligner.class) {
+            if (running == MAX_RUNNING) {
+                waiting.add(task);
+                return task.result;
+            }
+
+            running++;
+        }
+
+        task.start();
+        return task.result;
+    }
+
+    /**
+     * Lets the next alignment that is waiting on the shared pool run in place of the given one, which is done.
+     */
+    private static void finished(AsyncAligner task) {
+        AsyncAligner next;
+
+        synchronized (AsyncAligner.class) {
+            // one that got cancelled while waiting never ran
+            if (waiting.remove(task)) return;
+
+            next = waiting.poll();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+
+        next.start();
+    }
+
+    private void start() {
+        started = System.nanoTime();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    analyze();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(e);
+        }
+    }
+
+    private static synchronized ExecutorService defaultExecutor() {
+        if (defaultExecutor == null) {
+            // nothing that runs on it waits for anything else that runs on it, so it never runs out of threads
+            defaultExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "zipalign-async-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+
+        return defaultExecutor;
+    }
+
+    private void analyze() {
+        if (result.isDone()) return;
+
+        StatsRecorder stats = buffers.stats;
+        stats.reset(aligner.getListener());
+
+        try {
+            if (input.toAbsolutePath().normalize().equals(output.toAbsolutePath().normalize()))
+                throw new IOException("Output is the same file as the input: " + input);
+
+            AlignmentPlan plan;
+            FileChannel file = FileChannel.open(input, StandardOpenOption.READ);
+            try {
+                ZipIndex index = ZipIndex.read(file, buffers);
+                plan = ZipAlign.analyze(index, aligner.getAlignment(), aligner.getSoFileAlignment(),
+                        aligner.getPolicy(), aligner.usesAlignmentExtraField(), buffers);
+
+                tail = PlanExecutor.readPatchedTail(plan, file, stats);
+                verifier = aligner.verifier(index, buffers);
+            } finally {
+                // kept open for the verification, closed once the copy is done
+                if (verifier == null) file.close();
+            }
+
+            synchronized (this) {
+                if (verifier != null) verified = file;
+
+                // a cancellation that came before this didn't get to close it
+                if (result.isDone()) {
+                    if (verified != null) verified.close();
+                    return;
+                }
+            }
+
+            stats.archiveSize = plan.fileLength;
+            stats.bytesCopied += tail.length;
+            tailPosition = plan.getShiftedPosition(plan.centralDirOffset);
+
+            pieces = new Pieces(stats);
+            PlanExecutor.applyEntries(plan, null, pieces);
+
+            Path parent = output.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+
+            int chunkSize = (int) Math.max(1, Math.min(CHUNK_SIZE, tailPosition));
+            int chunks = (int) Math.min(IN_FLIGHT, tailPosition / chunkSize + 1);
+
+            synchronized (this) {
+                if (result.isDone()) return;
+
+                in = AsynchronousFileChannel.open(input, EnumSet.of(StandardOpenOption.READ), executor);
+
+                outputOpened = true;
+                out = AsynchronousFileChannel.open(output, EnumSet.of(StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), executor);
+
+                stats.startPhase();
+                activeChunks = chunks;
+            }
+
+            for (int i = 0; i < chunks; i++) next(new Chunk(chunkSize));
+        } catch (IOException | InvalidZipException | RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Refills the given chunk and sends it, or retires it when there's nothing left.
+     */
+    private void next(Chunk chunk) {
+        if (result.isDone()) return;
+
+        if (!fill(chunk)) {
+            retire();
+            return;
+        }
+
+        if (chunk.reads.isEmpty()) {
+            write(chunk);
+            return;
+        }
+
+        // the last read to complete refills the chunk, which could happen before all of them are sent
+        for (Read read : chunk.reads.toArray(new Read[0])) read(chunk, read);
+    }
+
+    /**
+     * Fills the given chunk with the pieces after the last chunk that was filled, or with the patched tail once every
+     * piece has been taken.
+     *
+     * @return Whether there was anything left to fill the chunk with
+     */
+    private synchronized boolean fill(Chunk chunk) {
+        ByteBuffer buffer = chunk.buffer;
+        buffer.clear();
+        chunk.reads.clear();
+        chunk.position = outputPosition;
+
+        while (buffer.hasRemaining() && pieceIndex < pieces.size) {
+            long source = pieces.sources[pieceIndex];
+            long length = pieces.lengths[pieceIndex];
+            int count = (int) Math.min(length - pieceOffset, buffer.remaining());
+
+            if (source >= 0) {
+                ByteBuffer slice = buffer.duplicate();
+                slice.limit(buffer.position() + count);
+                chunk.reads.add(new Read(slice, source + pieceOffset, buffer.position()));
+
+                buffer.position(buffer.position() + count);
+            } else if (source == Pieces.LITERAL) {
+                buffer.put(pieces.literals, literalOffset + (int) pieceOffset, count);
+            } else {
+                Arrays.fill(buffer.array(), buffer.position(), buffer.position() + count, (byte) 0);
+                buffer.position(buffer.position() + count);
+            }
+
+            pieceOffset += count;
+
+            if (pieceOffset == length) {
+                if (source == Pieces.LITERAL) literalOffset += (int) length;
+
+                pieceIndex++;
+                pieceOffset = 0;
+            }
+        }
+
+        outputPosition += buffer.position();
+
+        if (buffer.position() == 0) {
+            // every piece has been taken, the first chunk to run out of them writes the tail
+            if (tailTaken || tail.length == 0) return false;
+
+            tailTaken = true;
+            chunk.writing = ByteBuffer.wrap(tail);
+            chunk.position = tailPosition;
+
+            return true;
+        }
+
+        buffer.flip();
+        chunk.writing = buffer;
+        chunk.pendingReads = chunk.reads.size();
+
+        return true;
+    }
+
+    private void read(final Chunk chunk, final Read read) {
+        synchronized (this) {
+            if (result.isDone()) return;
+            buffers.stats.readCalls++;
+        }
+
+        in.read(read.buffer, read.position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count == -1) {
+                    fail(new EOFException("Reached the end of " + input + " at " + read.position
+                            + ", it got shorter while being aligned"));
+                    return;
+                }
+
+                read.position += count;
+
+                if (read.buffer.hasRemaining()) {
+                    read(chunk, read);
+                    return;
+                }
+
+                if (verifier != null) {
+                    ByteBuffer bytes = read.buffer.duplicate();
+                    bytes.position(read.offset);
+
+                    try {
+                        verifier.update(read.position - bytes.remaining(), bytes);
+                    } catch (IOException | RuntimeException e) {
+                        fail(e);
+                        return;
+                    }
+                }
+
+                if (readDone(chunk)) write(chunk);
+            }
+
+            @Override
+            public void failed(Throwable failure, Void attachment) {
+                fail(failure);
+            }
+        });
+    }
+
+    /**
+     * @return Whether every read of the chunk is done
+     */
+    private synchronized boolean readDone(Chunk chunk) {
+        return --chunk.pendingReads == 0;
+    }
+
+    private void write(final Chunk chunk) {
+        synchronized (this) {
+            if (result.isDone()) return;
+            buffers.stats.writeCalls++;
+        }
+
+        out.write(chunk.writing, chunk.position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                chunk.position += count;
+
+                if (chunk.writing.hasRemaining()) {
+                    write(chunk);
+                } else {
+                    next(chunk);
+                }
+            }
+
+            @Override
+            public void failed(Throwable failure, Void attachment) {
+                fail(failure);
+            }
+        });
+    }
+
+    /**
+     * Retires a chunk that ran out of pieces, the alignment is done once every one of them is retired and the stored
+     * entries are verified.
+     */
+    private void retire() {
+        AlignStats stats;
+
+        synchronized (this) {
+            if (--activeChunks != 0 || result.isDone()) return;
+
+            try {
+                in.close();
+                out.close();
+
+                if (verifier != null) verifier.finish();
+                if (verified != null) verified.close();
+            } catch (IOException | InvalidZipException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+
+            buffers.stats.endPhase(AlignStats.Phase.STREAMING);
+            stats = buffers.stats.finish();
+        }
+
+        if (aligner.getListener() != null) aligner.getListener().onAligned(stats);
+        result.complete(new AlignResult(input, output, null, System.nanoTime() - started));
+    }
+
+    private void fail(Throwable failure) {
+        if (result.isDone()) return;
+
+        cleanUp();
+
+        if (failure instanceof Exception) {
+            result.complete(new AlignResult(input, output, (Exception) failure, System.nanoTime() - started));
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Closes both channels, and deletes the output if it has been opened.
+     */
+    private synchronized void cleanUp() {
+        try {
+            if (in != null) in.close();
+            if (out != null) out.close();
+            if (verified != null) verified.close();
+            if (outputOpened) Files.deleteIfExists(output);
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * A buffer that goes through being filled, being read into and being written, over and over again.
+     */
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final ArrayList<Read> reads = new ArrayList<>();
+        int pendingReads;
+
+        // the buffer that is being written, and where its remaining bytes go in the output
+        ByteBuffer writing;
+        long position;
+
+        Chunk(int size) {
+            this.buffer = ByteBuffer.allocate(size);
+        }
+    }
+
+    /**
+     * A part of a chunk that is read from the zip.
+     */
+    private static class Read {
+        final ByteBuffer buffer;
+        long position;
+
+        // where the part starts in the buffer of its chunk
+        final int offset;
+
+        Read(ByteBuffer buffer, long position, int offset) {
+            this.buffer = buffer;
+            this.position = position;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * The aligned version of everything before the central directory as a list of pieces, recorded from a plan being
+     * applied: ranges copied from the zip, patched fields and padding.
+     */
+    private static class Pieces implements ZipSink {
+        static final long LITERAL = -1;
+        static final long ZEROS = -2;
+
+        private final StatsRecorder stats;
+
+        int size;
+        // where every piece is copied from in the zip, or LITERAL or ZEROS
+        long[] sources = new long[16];
+        long[] lengths = new long[16];
+
+        // the bytes of the literal pieces one after another
+        byte[] literals = new byte[64];
+        private int literalsLength;
+
+        Pieces(StatsRecorder stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void copy(SeekableByteChannel src, long position, long count) {
+            if (count == 0) return;
+            stats.bytesCopied += count;
+
+            // ranges that continue the previous one are merged into it
+            if (size != 0 && sources[size - 1] >= 0 && sources[size - 1] + lengths[size - 1] == position) {
+                lengths[size - 1] += count;
+            } else {
+                add(position, count);
+            }
+        }
+
+        @Override
+        public void writeLittleEndian(long value, int width) {
+            if (literalsLength + width > literals.length)
+                literals = Arrays.copyOf(literals, Math.max(literals.length * 2, literalsLength + width));
+
+            for (int i = 0; i < width; i++) {
+                literals[literalsLength++] = (byte) (value >>> (i * 8));
+            }
+
+            if (size != 0 && sources[size - 1] == LITERAL) {
+                lengths[size - 1] += width;
+            } else {
+                add(LITERAL, width);
+            }
+        }
+
+        @Override
+        public void writeZeros(int amount) {
+            if (amount == 0) return;
+            stats.paddingBytes += amount;
+
+            if (size != 0 && sources[size - 1] == ZEROS) {
+                lengths[size - 1] += amount;
+            } else {
+                add(ZEROS, amount);
+            }
+        }
+
+        @Override
+        public void finish() { }
+
+        private void add(long source, long length) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+
+            sources[size] = source;
+            lengths[size] = length;
+            size++;
+        }
+    }
+}
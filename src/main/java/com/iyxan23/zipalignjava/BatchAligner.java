@@ -0,0 +1,151 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aligns many zips concurrently on a bounded executor. The largest zips are started first so that a big zip doesn't
+ * end up being the only one running at the end of the batch. Virtual threads are used when the JVM has them (Java 21+),
+ * otherwise daemon platform threads.
+ */
+class BatchAligner {
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Aligns every input into its output, creating the parent directories of the outputs when needed. Outputs are
+     * overwritten, and deleted when their alignment fails.
+     *
+     * @return The result of every job, in the iteration order of the given map
+     */
+    static List<AlignResult> alignAll(Map<Path, Path> jobs, final ZipAligner aligner, int parallelism)
+            throws InterruptedException {
+
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+
+        final Path[] inputs = jobs.keySet().toArray(new Path[0]);
+        final Path[] outputs = new Path[inputs.length];
+        final long[] sizes = new long[inputs.length];
+        Integer[] order = new Integer[inputs.length];
+
+        for (int i = 0; i < inputs.length; i++) {
+            outputs[i] = jobs.get(inputs[i]);
+            order[i] = i;
+
+            try {
+                sizes[i] = Files.size(inputs[i]);
+            } catch (IOException e) {
+                // it'll fail as soon as it is started anyway
+                sizes[i] = -1;
+            }
+        }
+
+        // largest first
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(sizes[b], sizes[a]);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, inputs.length)), threadFactory());
+
+        try {
+            // the executor's queue is FIFO, submitting in this order starts the largest zips first
+            ArrayList<Future<AlignResult>> futures = new ArrayList<>(inputs.length);
+            for (int i = 0; i < inputs.length; i++) futures.add(null);
+
+            for (final int i : order) {
+                futures.set(i, executor.submit(new Callable<AlignResult>() {
+                    @Override
+                    public AlignResult call() {
+                        return align(aligner, inputs[i], outputs[i]);
+                    }
+                }));
+            }
+
+            ArrayList<AlignResult> results = new ArrayList<>(inputs.length);
+            for (Future<AlignResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // align() catches everything it expects, anything else is a bug
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static AlignResult align(ZipAligner aligner, Path input, Path output) {
+        long start = System.nanoTime();
+
+        try {
+            if (input.toAbsolutePath().normalize().equals(output.toAbsolutePath().normalize()))
+                throw new IOException("Output is the same file as the input: " + input);
+
+            Path parent = output.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+
+            try (RandomAccessFile in = new RandomAccessFile(input.toFile(), "r")) {
+                // a FileOutputStream lets unchanged ranges be transferred without passing through the heap
+                try (FileOutputStream out = new FileOutputStream(output.toFile())) {
+                    aligner.alignZip(in, out);
+                } catch (IOException | InvalidZipException | RuntimeException e) {
+                    // don't leave a half-written zip behind
+                    Files.deleteIfExists(output);
+                    throw e;
+                }
+            }
+        } catch (IOException | InvalidZipException | RuntimeException e) {
+            return new AlignResult(input, output, e, System.nanoTime() - start);
+        }
+
+        return new AlignResult(input, output, null, System.nanoTime() - start);
+    }
+
+    /**
+     * @return A factory of virtual threads when they are available (Java 21+), otherwise a factory of daemon threads
+     */
+    private static ThreadFactory threadFactory() {
+        try {
+            // Thread.ofVirtual().factory(), looked up reflectively to stay compatible with older JVMs
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ignored) { }
+
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "zipalign-batch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
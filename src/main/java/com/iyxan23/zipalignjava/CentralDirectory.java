@@ -0,0 +1,494 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The central directory of a zip, located from its end-of-central-directory record (or its Zip64 counterpart) and
+ * loaded with a single bulk read. Entries are parsed in memory, filenames are only decoded when asked for.
+ */
+class CentralDirectory {
+    // Maximum size of an EOCD record
+    private static final int maxEOCDLookup = 0xffff + 22;
+
+    // the value of a field that is stored in the Zip64 record or extra field instead
+    static final long ZIP64_MAGIC_VALUE = 0xffffffffL;
+
+    public final long fileLength;
+    public final long eocdPosition;
+    public final long offset;
+    public final long size;
+    public final int totalEntries;
+
+    // the central directory offset as written in the (non-Zip64) EOCD record
+    public final long eocdCentralDirOffset;
+
+    // -1 when the zip doesn't have a Zip64 end-of-central-directory record
+    public final long zip64EocdPosition;
+    public final long zip64LocatorPosition;
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final UnsignedByteBufferWrapper bufferUw;
+
+    // where each entry starts in the central directory
+    private final int[] entryStarts;
+
+    // the local file header offset of each entry, and where it is stored in the central directory: either in the
+    // entry itself (4 bytes) or in its Zip64 extended information extra field (8 bytes)
+    private final long[] localHeaderOffsets;
+    private final int[] localHeaderOffsetFieldStarts;
+
+    private CentralDirectory(long fileLength, long eocdPosition, long offset, long size, int totalEntries,
+                             long eocdCentralDirOffset, long zip64EocdPosition, long zip64LocatorPosition,
+                             byte[] data, int[] entryStarts, long[] localHeaderOffsets,
+                             int[] localHeaderOffsetFieldStarts) {
+        this.fileLength = fileLength;
+        this.eocdPosition = eocdPosition;
+        this.offset = offset;
+        this.size = size;
+        this.totalEntries = totalEntries;
+        this.eocdCentralDirOffset = eocdCentralDirOffset;
+        this.zip64EocdPosition = zip64EocdPosition;
+        this.zip64LocatorPosition = zip64LocatorPosition;
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        this.bufferUw = new UnsignedByteBufferWrapper(buffer);
+        this.entryStarts = entryStarts;
+        this.localHeaderOffsets = localHeaderOffsets;
+        this.localHeaderOffsetFieldStarts = localHeaderOffsetFieldStarts;
+    }
+
+    /**
+     * Finds and loads the central directory of the given zip.
+     *
+     * @param file The zip file, only read through positional reads
+     * @param buffers Where the scratch buffer for the EOCD lookup is taken from
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    static CentralDirectory read(SeekableByteChannel file, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
+
+        StatsRecorder stats = buffers.stats;
+        stats.startPhase();
+
+        // find the end of central directory
+        int readAmount;
+        final long fileLength = file.size();
+        stats.archiveSize = fileLength;
+
+        if (fileLength > maxEOCDLookup) {
+            readAmount = maxEOCDLookup;
+        } else {
+            readAmount = (int) fileLength;
+        }
+
+        // find the signature
+        byte[] eocdBuf = buffers.block(readAmount);
+        ChannelCopier.readFully(file, ByteBuffer.wrap(eocdBuf, 0, readAmount), fileLength - readAmount, stats);
+
+        long eocdPosition = -1;
+
+        // scan backwards for EOCD signature
+        for (int i = readAmount - 4; i >= 0; i--) {
+            if ((eocdBuf[i]     & 0xFF) == 0x50 &&
+                (eocdBuf[i + 1] & 0xFF) == 0x4B &&
+                (eocdBuf[i + 2] & 0xFF) == 0x05 &&
+                (eocdBuf[i + 3] & 0xFF) == 0x06) {
+
+                eocdPosition = fileLength - readAmount + i;
+                break;
+            }
+        }
+
+        if (eocdPosition == -1)
+            throw new InvalidZipException("No end-of-central-directory found");
+
+        if (eocdPosition + 22 > fileLength)
+            throw new InvalidZipException("End-of-central-directory record at " + eocdPosition + " is truncated");
+
+        // skip disk fields, we're keeping the total entries (2B), central dir size (4B), and the offset (4B)
+        ByteBuffer eocdBuffer = ByteBuffer.wrap(eocdBuf, (int) (eocdPosition + 10 - (fileLength - readAmount)), 10)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        UnsignedByteBufferWrapper eocdBufferUw = new UnsignedByteBufferWrapper(eocdBuffer);
+
+        // read em
+        long totalEntries = eocdBufferUw.getUShort();
+        long centralDirSize = eocdBufferUw.getUInt();
+        long centralDirOffset = eocdBufferUw.getUInt();
+        final long eocdCentralDirOffset = centralDirOffset;
+
+        // a Zip64 end-of-central-directory locator right before the EOCD record points to the Zip64 EOCD record, which
+        // holds the 64-bit versions of the fields above
+        long zip64EocdPosition = -1;
+        long zip64LocatorPosition = -1;
+        long centralDirEnd = eocdPosition;
+
+        if (eocdPosition >= 20) {
+            ByteBuffer locator = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            ChannelCopier.readFully(file, locator, eocdPosition - 20, stats);
+
+            if (locator.getInt(0) == 0x07064b50) {
+                zip64LocatorPosition = eocdPosition - 20;
+                zip64EocdPosition = locator.getLong(8);
+
+                if (zip64EocdPosition < 0 || zip64EocdPosition + 56 > zip64LocatorPosition)
+                    throw new InvalidZipException("Zip64 end-of-central-directory locator at " + zip64LocatorPosition
+                            + " points outside of the file: " + zip64EocdPosition);
+
+                ByteBuffer zip64Eocd = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+                ChannelCopier.readFully(file, zip64Eocd, zip64EocdPosition, stats);
+
+                if (zip64Eocd.getInt(0) != 0x06064b50)
+                    throw new InvalidZipException("assumed Zip64 end-of-central-directory record at "
+                            + zip64EocdPosition + " doesn't start with a signature");
+
+                totalEntries = zip64Eocd.getLong(32);
+                centralDirSize = zip64Eocd.getLong(40);
+                centralDirOffset = zip64Eocd.getLong(48);
+                centralDirEnd = zip64EocdPosition;
+            }
+        }
+
+        stats.endPhase(AlignStats.Phase.EOCD_SCAN);
+        stats.startPhase();
+
+        if (totalEntries < 0 || totalEntries > Integer.MAX_VALUE)
+            throw new InvalidZipException("Too many central directory entries: " + totalEntries);
+
+        // load the whole central directory in one go, then parse it in memory
+        if (centralDirSize < 0 || centralDirSize > Integer.MAX_VALUE)
+            throw new InvalidZipException("Central directory is too large: " + centralDirSize + " bytes");
+
+        if (centralDirOffset < 0 || centralDirOffset + centralDirSize > centralDirEnd)
+            throw new InvalidZipException("Central directory at " + centralDirOffset + " with the size of "
+                    + centralDirSize + " overlaps the end-of-central-directory record");
+
+        byte[] centralDir = new byte[(int) centralDirSize];
+        ByteBuffer centralDirBuffer = ByteBuffer.wrap(centralDir)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        ChannelCopier.readFully(file, centralDirBuffer, centralDirOffset, stats);
+        UnsignedByteBufferWrapper centralDirBufferUw = new UnsignedByteBufferWrapper(centralDirBuffer);
+
+        int[] entryStarts = new int[(int) totalEntries];
+        long[] localHeaderOffsets = new long[(int) totalEntries];
+        int[] localHeaderOffsetFieldStarts = new int[(int) totalEntries];
+        int entryStart = 0;
+
+        for (int ei = 0; ei < totalEntries; ei++) {
+            // not including the filename, extra field, and file comment
+            if (entryStart + 46 > centralDir.length)
+                throw new InvalidZipException(
+                        "central directory entry at " + (centralDirOffset + entryStart) + " exceeds the central directory"
+                );
+
+            if (centralDirBuffer.getInt(entryStart) != 0x02014b50)
+                throw new InvalidZipException(
+                        "assumed central directory entry at " + (centralDirOffset + entryStart)
+                                + " doesn't start with a signature"
+                );
+
+            int entry_fileNameLen = centralDirBufferUw.getUShort(entryStart + 28);
+            int entry_extraFieldLen = centralDirBufferUw.getUShort(entryStart + 30);
+            int entry_commentLen = centralDirBufferUw.getUShort(entryStart + 32);
+
+            if (entryStart + 46 + entry_fileNameLen + entry_extraFieldLen > centralDir.length)
+                throw new InvalidZipException(
+                        "filename or extra field of the central directory entry at " + (centralDirOffset + entryStart)
+                                + " exceeds the central directory"
+                );
+
+            entryStarts[ei] = entryStart;
+
+            int fieldStart = localHeaderOffsetFieldStart(centralDirBuffer, entryStart);
+            if (fieldStart == -1)
+                throw new InvalidZipException(
+                        "central directory entry at " + (centralDirOffset + entryStart)
+                                + " doesn't have a local file header offset in its Zip64 extra field"
+                );
+
+            localHeaderOffsetFieldStarts[ei] = fieldStart;
+            localHeaderOffsets[ei] = fieldStart == entryStart + 42
+                    ? centralDirBufferUw.getUInt(fieldStart)
+                    : centralDirBuffer.getLong(fieldStart);
+
+            entryStart += 46 + entry_fileNameLen + entry_extraFieldLen + entry_commentLen;
+        }
+
+        stats.endPhase(AlignStats.Phase.CENTRAL_DIRECTORY_PARSE);
+
+        return new CentralDirectory(fileLength, eocdPosition, centralDirOffset, centralDirSize, (int) totalEntries,
+                eocdCentralDirOffset, zip64EocdPosition, zip64LocatorPosition, centralDir, entryStarts,
+                localHeaderOffsets, localHeaderOffsetFieldStarts);
+    }
+
+    /**
+     * Hashes everything from the start of the central directory up to the end of the file (the central directory, the
+     * Zip64 EOCD record and locator, the EOCD record and the zip comment) alongside the length of the file. The central
+     * directory holds the sizes and CRC-32 of every entry, so this changes whenever an entry is added, removed or
+     * changed.
+     *
+     * @param file The zip file, only read through positional reads
+     * @param centralDirOffset Where the central directory starts
+     * @param buffers Where the scratch buffer for reading is taken from
+     * @return The SHA-256 hash, 32 bytes long
+     */
+    static byte[] fingerprint(SeekableByteChannel file, long centralDirOffset, AlignBuffers buffers)
+            throws IOException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        long fileLength = file.size();
+        for (int i = 0; i < 8; i++) digest.update((byte) (fileLength >>> (i * 8)));
+
+        byte[] block = buffers.block(8192);
+        ByteBuffer view = ByteBuffer.wrap(block);
+
+        for (long position = centralDirOffset; position < fileLength; ) {
+            int count = (int) Math.min(block.length, fileLength - position);
+
+            view.clear().limit(count);
+            ChannelCopier.readFully(file, view, position, buffers.stats);
+            digest.update(block, 0, count);
+
+            position += count;
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Finds where the local file header offset of a central directory entry is stored: in the entry itself (4 bytes),
+     * or in its Zip64 extended information extra field (8 bytes) when the one in the entry is 0xFFFFFFFF.
+     *
+     * @param centralDir A little-endian buffer holding the entry along with its filename and extra field
+     * @param entryStart Where the entry starts in the buffer
+     * @return The position of the offset in the buffer, it is 4 bytes long only when it's at {@code entryStart + 42};
+     * or -1 if the entry doesn't have the Zip64 extra field that it defers to
+     */
+    static int localHeaderOffsetFieldStart(ByteBuffer centralDir, int entryStart) {
+        if ((centralDir.getInt(entryStart + 42) & 0xffffffffL) != ZIP64_MAGIC_VALUE) return entryStart + 42;
+
+        return findZip64Field(centralDir, entryStart, 2);
+    }
+
+    /**
+     * Finds a field inside the Zip64 extended information extra field (0x0001) of a central directory entry. The
+     * fields in it are only present when their counterpart in the entry is 0xFFFFFFFF, in the order of: uncompressed
+     * size, compressed size, local file header offset.
+     *
+     * @param field The index of the field in that order, its counterpart is expected to be 0xFFFFFFFF
+     * @return The position of the field in the buffer, or -1 if there is none
+     */
+    private static int findZip64Field(ByteBuffer centralDir, int entryStart, int field) {
+        int fileNameLen = centralDir.getShort(entryStart + 28) & 0xffff;
+        int extraFieldLen = centralDir.getShort(entryStart + 30) & 0xffff;
+
+        int position = entryStart + 46 + fileNameLen;
+        int end = position + extraFieldLen;
+
+        while (position + 4 <= end) {
+            int id = centralDir.getShort(position) & 0xffff;
+            int size = centralDir.getShort(position + 2) & 0xffff;
+
+            if (id == 0x0001) {
+                int fieldStart = position + 4;
+
+                // the uncompressed size, then the compressed size
+                if (field > 0 && (centralDir.getInt(entryStart + 24) & 0xffffffffL) == ZIP64_MAGIC_VALUE)
+                    fieldStart += 8;
+                if (field > 1 && (centralDir.getInt(entryStart + 20) & 0xffffffffL) == ZIP64_MAGIC_VALUE)
+                    fieldStart += 8;
+
+                if (fieldStart + 8 > position + 4 + size || fieldStart + 8 > end) return -1;
+                return fieldStart;
+            }
+
+            position += 4 + size;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return A 32-bit field of the entry at the given index, or its 64-bit counterpart in the Zip64 extra field when
+     * it is 0xFFFFFFFF
+     */
+    private long zip64Value(int entry, int fieldOffset, int zip64Field) {
+        long value = bufferUw.getUInt(entryStarts[entry] + fieldOffset);
+        if (value != ZIP64_MAGIC_VALUE) return value;
+
+        int fieldStart = findZip64Field(buffer, entryStarts[entry], zip64Field);
+        return fieldStart == -1 ? value : buffer.getLong(fieldStart);
+    }
+
+    /**
+     * @return A hash of the given filename, the same one as {@link #fileNameHash(int)} for the same bytes
+     */
+    static int fileNameHash(byte[] bytes, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) hash = 31 * hash + bytes[i];
+
+        // spread the higher bits into the lower ones, hash tables only use the latter
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return The compression method of the entry at the given index, 0 means it is stored without compression
+     */
+    public int compressionMethod(int entry) {
+        return bufferUw.getUShort(entryStarts[entry] + 10);
+    }
+
+    /**
+     * @return The CRC-32 of the uncompressed data of the entry at the given index
+     */
+    public long crc32(int entry) {
+        return bufferUw.getUInt(entryStarts[entry] + 16);
+    }
+
+    /**
+     * @return The compressed size of the entry at the given index, from its Zip64 extra field when it has one
+     */
+    public long compressedSize(int entry) {
+        return zip64Value(entry, 20, 1);
+    }
+
+    /**
+     * @return The uncompressed size of the entry at the given index, from its Zip64 extra field when it has one
+     */
+    public long uncompressedSize(int entry) {
+        return zip64Value(entry, 24, 0);
+    }
+
+    /**
+     * @return The offset of the local file header of the entry at the given index
+     */
+    public long localHeaderOffset(int entry) {
+        return localHeaderOffsets[entry];
+    }
+
+    /**
+     * @return The position in the file of the "local file header offset" field of the entry at the given index, which
+     * could be in its Zip64 extra field
+     */
+    public long localHeaderOffsetPosition(int entry) {
+        return offset + localHeaderOffsetFieldStarts[entry];
+    }
+
+    /**
+     * @return Whether the local file header offset of the entry at the given index is stored as a 64-bit value in its
+     * Zip64 extra field
+     */
+    public boolean isZip64LocalHeaderOffset(int entry) {
+        return localHeaderOffsetFieldStarts[entry] != entryStarts[entry] + 42;
+    }
+
+    /**
+     * @return Whether this zip has a Zip64 end-of-central-directory record
+     */
+    public boolean isZip64() {
+        return zip64EocdPosition != -1;
+    }
+
+    /**
+     * @return The length of the entry at the given index, including its filename, extra field and comment
+     */
+    public int entryLength(int entry) {
+        int start = entryStarts[entry];
+        return 46 + bufferUw.getUShort(start + 28) + bufferUw.getUShort(start + 30) + bufferUw.getUShort(start + 32);
+    }
+
+    /**
+     * Puts the raw bytes of the entry at the given index into the given buffer, as they are in the file.
+     *
+     * @throws InvalidZipException Will be thrown when the comment of the entry exceeds the central directory
+     */
+    public void copyEntry(int entry, ByteBuffer target) throws InvalidZipException {
+        int length = entryLength(entry);
+        if (entryStarts[entry] + length > data.length)
+            throw new InvalidZipException("comment of the central directory entry at "
+                    + (offset + entryStarts[entry]) + " exceeds the central directory");
+
+        target.put(data, entryStarts[entry], length);
+    }
+
+    public int fileNameLength(int entry) {
+        return bufferUw.getUShort(entryStarts[entry] + 28);
+    }
+
+    /**
+     * @return The decoded filename of the entry at the given index
+     */
+    public String fileName(int entry) {
+        return new String(data, entryStarts[entry] + 46, fileNameLength(entry), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return A copy of the filename of the entry at the given index as it is stored, without decoding it
+     */
+    public byte[] rawFileName(int entry) {
+        int start = entryStarts[entry] + 46;
+        return Arrays.copyOfRange(data, start, start + fileNameLength(entry));
+    }
+
+    public int fileNameHash(int entry) {
+        return fileNameHash(data, entryStarts[entry] + 46, fileNameLength(entry));
+    }
+
+    /**
+     * @return The alignment that the given policy requires of the entry at the given index, its filename is handed to
+     * the policy without being decoded
+     */
+    public int requiredAlignment(int entry, AlignmentPolicy policy) {
+        return policy.requiredAlignment(data, entryStarts[entry] + 46, fileNameLength(entry), compressionMethod(entry));
+    }
+
+    /**
+     * @return Whether the filename of the entry at the given index is exactly the given bytes
+     */
+    public boolean fileNameEquals(int entry, byte[] name) {
+        if (fileNameLength(entry) != name.length) return false;
+
+        int start = entryStarts[entry] + 46;
+        for (int i = 0; i < name.length; i++) {
+            if (data[start + i] != name[i]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether the filename of the entry at the given index ends with the given bytes, without decoding it
+     */
+    public boolean fileNameEndsWith(int entry, byte[] suffix) {
+        int length = fileNameLength(entry);
+        if (length < suffix.length) return false;
+
+        int start = entryStarts[entry] + 46 + length - suffix.length;
+        for (int i = 0; i < suffix.length; i++) {
+            if (data[start + i] != suffix[i]) return false;
+        }
+
+        return true;
+    }
+}
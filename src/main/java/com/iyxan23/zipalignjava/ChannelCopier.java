@@ -0,0 +1,121 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copies byte ranges out of a {@link FileChannel}. Ranges are moved with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so that the kernel can do the copy by itself
+ * (sendfile / copy_file_range on Linux) without passing through the java heap.
+ *
+ * @see CoalescingOutput
+ */
+class ChannelCopier {
+    /**
+     * Transfers {@code length} bytes starting at {@code position} of the given channel into the target channel
+     * without copying it into the java heap. This does not change the position of the source channel.
+     *
+     * @param src The channel to copy from
+     * @param position The position on the source channel where the range starts
+     * @param length The length of the range
+     * @param target Where the range is going to be written to
+     */
+    static void transfer(FileChannel src, long position, long length, WritableByteChannel target) throws IOException {
+        transfer(src, position, length, target, null);
+    }
+
+    /**
+     * Same as {@link #transfer(FileChannel, long, long, WritableByteChannel)}, counting every transfer as a write.
+     *
+     * @param stats Where the transfers are counted in, may be null
+     */
+    static void transfer(FileChannel src, long position, long length, WritableByteChannel target,
+                         StatsRecorder stats) throws IOException {
+        if (stats != null) stats.bytesCopied += length;
+
+        while (length > 0) {
+            long transferred = src.transferTo(position, length, target);
+            if (stats != null) stats.writeCalls++;
+
+            // transferTo returns 0 when the position is past the end of the file
+            if (transferred <= 0 && position >= src.size())
+                throw new EOFException("Reached EOF when passing bytes");
+
+            position += transferred;
+            length -= transferred;
+        }
+    }
+
+    /**
+     * Reads from the given position of the channel until the buffer is full. This does not change the position of a
+     * {@link FileChannel}; any other channel is positioned explicitly before every read, so its previous position
+     * doesn't matter either.
+     *
+     * @param src The channel to read from
+     * @param buffer The buffer to fill in, from its position up to its limit
+     * @param position The position on the channel to start reading from
+     *
+     * @throws EOFException Will be thrown when the end of the channel is reached before the buffer is filled
+     */
+    static void readFully(SeekableByteChannel src, ByteBuffer buffer, long position) throws IOException {
+        readFully(src, buffer, position, null);
+    }
+
+    /**
+     * Same as {@link #readFully(SeekableByteChannel, ByteBuffer, long)}, counting every read and every time the
+     * channel is positioned.
+     *
+     * @param stats Where the calls are counted in, may be null
+     */
+    static void readFully(SeekableByteChannel src, ByteBuffer buffer, long position, StatsRecorder stats)
+            throws IOException {
+        FileChannel file = src instanceof FileChannel ? (FileChannel) src : null;
+
+        while (buffer.hasRemaining()) {
+            int read;
+
+            if (file != null) {
+                read = file.read(buffer, position);
+            } else {
+                src.position(position);
+                read = src.read(buffer);
+
+                if (stats != null) stats.seekCalls++;
+            }
+
+            if (stats != null) stats.readCalls++;
+
+            if (read == -1) throw new EOFException("Reached EOF when reading " + buffer.remaining() + " more bytes");
+
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the whole buffer at the given position of the channel. This does not change the position of the channel.
+     */
+    static void writeFully(FileChannel dst, ByteBuffer buffer, long position) throws IOException {
+        writeFully(dst, buffer, position, null);
+    }
+
+    /**
+     * Same as {@link #writeFully(FileChannel, ByteBuffer, long)}, counting every write.
+     *
+     * @param stats Where the writes are counted in, may be null
+     */
+    static void writeFully(FileChannel dst, ByteBuffer buffer, long position, StatsRecorder stats)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += dst.write(buffer, position);
+            if (stats != null) stats.writeCalls++;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes an aligned zip into an {@link OutputStream} while coalescing the small writes (patched offsets, extra field
+ * lengths, padding and short unchanged ranges) into a single buffer. Unchanged ranges that don't fit in the buffer are
+ * transferred straight from the source channel whenever the output is a {@link FileOutputStream}. The output is only
+ * flushed once, by {@link #finish()}.
+ */
+class CoalescingOutput implements ZipSink {
+    private final OutputStream out;
+    // non-null when unchanged ranges can be transferred without passing through the java heap
+    private final WritableByteChannel channel;
+
+    private final byte[] buffer;
+    private final ByteBuffer bufferView;
+    private int length;
+
+    private final StatsRecorder stats;
+    // checksums the stored entries out of the copied ranges, null when they aren't verified
+    private final CrcVerifier.Feed feed;
+
+    CoalescingOutput(OutputStream out, byte[] buffer, StatsRecorder stats, CrcVerifier.Feed feed) {
+        this.out = out;
+        // FileOutputStream doesn't buffer anything, writing into its channel keeps the ordering of the bytes that are
+        // written directly to the stream
+        this.channel = out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : null;
+        this.buffer = buffer;
+        this.bufferView = ByteBuffer.wrap(buffer);
+        this.stats = stats;
+        this.feed = feed;
+    }
+
+    void write(byte[] bytes, int offset, int count) throws IOException {
+        stats.bytesCopied += count;
+
+        if (count > buffer.length - length) {
+            drain();
+
+            // too large to be worth copying into the buffer
+            if (count >= buffer.length) {
+                out.write(bytes, offset, count);
+                stats.writeCalls++;
+                return;
+            }
+        }
+
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    @Override
+    public void writeLittleEndian(long value, int width) throws IOException {
+        if (buffer.length - length < width) drain();
+
+        for (int i = 0; i < width; i++) {
+            buffer[length++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    @Override
+    public void writeZeros(int amount) throws IOException {
+        stats.paddingBytes += amount;
+
+        while (amount > 0) {
+            if (length == buffer.length) drain();
+
+            int count = Math.min(amount, buffer.length - length);
+            Arrays.fill(buffer, length, length + count, (byte) 0);
+
+            length += count;
+            amount -= count;
+        }
+    }
+
+    @Override
+    public void copy(SeekableByteChannel src, long position, long count) throws IOException {
+        if (channel != null && src instanceof FileChannel && count > buffer.length - length) {
+            drain();
+            ChannelCopier.transfer((FileChannel) src, position, count, channel, stats);
+
+            if (feed != null) feed.transferred(position, count);
+            return;
+        }
+
+        stats.bytesCopied += count;
+
+        while (count > 0) {
+            if (length == buffer.length) drain();
+
+            int chunk = (int) Math.min(count, buffer.length - length);
+            bufferView.limit(length + chunk).position(length);
+            ChannelCopier.readFully(src, bufferView, position, stats);
+            if (feed != null) feed.update(position, buffer, length, chunk);
+
+            length += chunk;
+            position += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Writes everything that's still in the buffer and flushes the output.
+     */
+    @Override
+    public void finish() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        if (length == 0) return;
+
+        out.write(buffer, 0, length);
+        stats.writeCalls++;
+        length = 0;
+    }
+}
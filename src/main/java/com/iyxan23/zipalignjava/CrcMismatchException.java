@@ -0,0 +1,103 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by an aligner that {@link ZipAligner.Builder#verifyCrc(boolean) verifies} stored entries, when the data of
+ * some of them doesn't match the CRC-32 that the central directory has for them. Every stored entry is verified before
+ * this is thrown, so it holds all of the ones that don't match, in the order of where they are in the file.
+ *
+ * @see AlignResult#getCrcMismatches()
+ */
+public class CrcMismatchException extends InvalidZipException {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Entry> mismatches;
+
+    CrcMismatchException(List<Entry> mismatches) {
+        super(mismatches.size() + (mismatches.size() == 1 ? " stored entry doesn't" : " stored entries don't")
+                + " match the CRC-32 in the central directory, the first one is " + mismatches.get(0));
+        this.mismatches = Collections.unmodifiableList(mismatches);
+    }
+
+    /**
+     * @return Every stored entry whose data doesn't match its CRC-32, in the order of where they are in the file
+     */
+    public List<Entry> getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * A stored entry whose data doesn't match its CRC-32.
+     */
+    public static class Entry {
+        private final String name;
+        private final long localHeaderOffset;
+        private final long dataOffset;
+        private final long size;
+        private final long expectedCrc;
+        private final long actualCrc;
+
+        Entry(String name, long localHeaderOffset, long dataOffset, long size, long expectedCrc, long actualCrc) {
+            this.name = name;
+            this.localHeaderOffset = localHeaderOffset;
+            this.dataOffset = dataOffset;
+            this.size = size;
+            this.expectedCrc = expectedCrc;
+            this.actualCrc = actualCrc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * @return The offset of where the data of this entry starts in the zip that got aligned
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        /**
+         * @return The size of the data of this entry in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The CRC-32 that the central directory has for this entry
+         */
+        public long getExpectedCrc() {
+            return expectedCrc;
+        }
+
+        /**
+         * @return The CRC-32 of the data of this entry as it is in the zip
+         */
+        public long getActualCrc() {
+            return actualCrc;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", localHeaderOffset=" + localHeaderOffset +
+                    ", dataOffset=" + dataOffset +
+                    ", size=" + size +
+                    ", expectedCrc=" + String.format("%08x", expectedCrc) +
+                    ", actualCrc=" + String.format("%08x", actualCrc) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,555 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Verifies the data of every stored entry of a zip against the CRC-32 that its central directory has for it, as the
+ * zip is being copied into its aligned version.<br/>
+ * <br/>
+ * Every sink that copies the zip hands the bytes that it has read from it to a {@link Feed}, the data of the stored
+ * entries is checksummed right out of them. Only the ranges that a sink transfers without reading them (with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}) are read again: entries larger
+ * than a block by a shared pool of worker threads while the copy goes on, the rest through a single block.<br/>
+ * <br/>
+ * An entry whose data is copied in pieces by many sinks (segments written concurrently, or chunks of an asynchronous
+ * copy) is checksummed piece by piece, the CRC-32s of the pieces are combined once the copy is done. Anything of it
+ * that no sink has handed over is read again then. {@link #finish()} then throws a {@link CrcMismatchException} with
+ * every entry that doesn't match.<br/>
+ * <br/>
+ * Feeds are used by a single thread each, any amount of them can be used at the same time.
+ */
+class CrcVerifier {
+    // entries that don't fit in the block are verified by the workers
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int WORKER_BUFFER_SIZE = 1024 * 1024;
+
+    // the reversed polynomial of CRC-32
+    private static final int POLYNOMIAL = 0xedb88320;
+
+    // x^(2^n) modulo the polynomial, for combining CRC-32s
+    private static final int[] X2N = new int[32];
+
+    static {
+        // x^1
+        int p = 1 << 30;
+        X2N[0] = p;
+
+        for (int n = 1; n < 32; n++) {
+            X2N[n] = p = multiply(p, p);
+        }
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static ExecutorService workers;
+
+    private static final ThreadLocal<ByteBuffer> workerBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(WORKER_BUFFER_SIZE);
+        }
+    };
+
+    private final SeekableByteChannel src;
+    private final CentralDirectory centralDir;
+    private final AlignBuffers buffers;
+
+    // the stored entries sorted by where their data starts, along with their data and their CRC-32s
+    private final int[] entries;
+    private final long[] dataOffsets;
+    private final long[] sizes;
+    private final long[] crcs;
+
+    // the entries that have been verified or handed to a worker
+    private final boolean[] verified;
+
+    // the pieces of entries that have been checksummed without the rest of their data
+    private final ArrayList<Piece> pieces = new ArrayList<>();
+
+    // the entries that are being verified by the workers, and their CRC-32s once they're done
+    private final ArrayList<Integer> pendingEntries = new ArrayList<>();
+    private final ArrayList<Future<Long>> pendingCrcs = new ArrayList<>();
+
+    private final ArrayList<CrcMismatchException.Entry> mismatches = new ArrayList<>();
+
+    private CrcVerifier(SeekableByteChannel src, CentralDirectory centralDir, AlignBuffers buffers, int[] entries,
+                        long[] dataOffsets, long[] sizes, long[] crcs) {
+        this.src = src;
+        this.centralDir = centralDir;
+        this.buffers = buffers;
+        this.entries = entries;
+        this.dataOffsets = dataOffsets;
+        this.sizes = sizes;
+        this.crcs = crcs;
+        this.verified = new boolean[entries.length];
+    }
+
+    /**
+     * Probes the local file header of every stored entry of the zip of the given index for where its data starts.
+     *
+     * @param buffers Where the block that the local file headers are probed through is taken from, and later the
+     *                block that the entries are read again through
+     * @return The verifier of the stored entries
+     *
+     * @throws InvalidZipException Will be thrown when the data of a stored entry goes past the start of the central
+     *                             directory
+     */
+    static CrcVerifier collect(ZipIndex index, AlignBuffers buffers) throws IOException, InvalidZipException {
+        CentralDirectory centralDir = index.centralDir;
+        ArrayList<LocalHeaderProber.Probe> probes = new ArrayList<>();
+
+        for (int ei = 0; ei < index.size(); ei++) {
+            if (centralDir.compressionMethod(ei) == 0)
+                probes.add(new LocalHeaderProber.Probe(ei, centralDir.localHeaderOffset(ei), 0, false));
+        }
+
+        LocalHeaderProber.probe(index.channel, probes, buffers);
+
+        int[] entries = new int[probes.size()];
+        long[] dataOffsets = new long[probes.size()];
+        long[] sizes = new long[probes.size()];
+        long[] crcs = new long[probes.size()];
+
+        int count = 0;
+        long lastProbedOffset = -1;
+
+        for (LocalHeaderProber.Probe probe : probes) {
+            // multiple entries pointing to the same local file header share the same data
+            if (probe.offset == lastProbedOffset) continue;
+            lastProbedOffset = probe.offset;
+
+            long size = centralDir.compressedSize(probe.entry);
+            if (probe.dataOffset() + size > centralDir.offset)
+                throw new InvalidZipException("data of " + centralDir.fileName(probe.entry) + " at "
+                        + probe.dataOffset() + " exceeds the start of the central directory");
+
+            entries[count] = probe.entry;
+            dataOffsets[count] = probe.dataOffset();
+            sizes[count] = size;
+            crcs[count] = centralDir.crc32(probe.entry);
+            count++;
+        }
+
+        return new CrcVerifier(index.channel, centralDir, buffers, Arrays.copyOf(entries, count),
+                Arrays.copyOf(dataOffsets, count), Arrays.copyOf(sizes, count), Arrays.copyOf(crcs, count));
+    }
+
+    /**
+     * @return A feed for a sink that copies a part of the zip from its start to its end
+     */
+    Feed feed() {
+        return new Feed();
+    }
+
+    /**
+     * Checksums the given bytes of the zip, that were read from it by something other than a sink.
+     *
+     * @param position Where the bytes are in the zip
+     * @param bytes The bytes from their position up to their limit, they're left unchanged
+     */
+    void update(long position, ByteBuffer bytes) throws IOException {
+        Feed feed = new Feed();
+        feed.update(position, bytes);
+        feed.finish();
+    }
+
+    /**
+     * Waits for the workers to be done, and verifies every entry that's left from the pieces of it that have been
+     * checksummed. Whatever of it hasn't been handed to a feed is read again.
+     *
+     * @throws CrcMismatchException Will be thrown when the data of any stored entry doesn't match its CRC-32
+     */
+    void finish() throws IOException, CrcMismatchException {
+        try {
+            for (int i = 0; i < pendingCrcs.size(); i++) {
+                check(pendingEntries.get(i), pendingCrcs.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying the stored entries");
+        } finally {
+            cancel();
+        }
+
+        verifyPieces();
+
+        if (mismatches.isEmpty()) return;
+
+        // the ones verified by the workers or from pieces are checked last
+        Collections.sort(mismatches, new Comparator<CrcMismatchException.Entry>() {
+            @Override
+            public int compare(CrcMismatchException.Entry a, CrcMismatchException.Entry b) {
+                return Long.compare(a.getDataOffset(), b.getDataOffset());
+            }
+        });
+
+        throw new CrcMismatchException(new ArrayList<>(mismatches));
+    }
+
+    /**
+     * Stops the workers from verifying the entries they haven't started on, for when the alignment fails halfway.
+     */
+    synchronized void cancel() {
+        for (Future<Long> pending : pendingCrcs) pending.cancel(false);
+
+        pendingEntries.clear();
+        pendingCrcs.clear();
+    }
+
+    /**
+     * Combines the pieces of every entry that hasn't been verified yet, reading what's missing between them.
+     */
+    private void verifyPieces() throws IOException {
+        Collections.sort(pieces, new Comparator<Piece>() {
+            @Override
+            public int compare(Piece a, Piece b) {
+                return a.index != b.index ? Integer.compare(a.index, b.index) : Long.compare(a.start, b.start);
+            }
+        });
+
+        int p = 0;
+
+        for (int index = 0; index < entries.length; index++) {
+            if (verified[index]) continue;
+
+            long crc = 0;
+            long position = 0;
+
+            for (; p < pieces.size() && pieces.get(p).index <= index; p++) {
+                Piece piece = pieces.get(p);
+                if (piece.index < index || piece.start + piece.length <= position) continue;
+
+                if (piece.start > position) {
+                    crc = combine(crc, checksum(dataOffsets[index] + position, piece.start - position),
+                            piece.start - position);
+                    position = piece.start;
+                }
+
+                if (piece.start == position) {
+                    crc = combine(crc, piece.crc, piece.length);
+                    position += piece.length;
+                }
+            }
+
+            if (position < sizes[index])
+                crc = combine(crc, checksum(dataOffsets[index] + position, sizes[index] - position),
+                        sizes[index] - position);
+
+            check(index, crc);
+        }
+
+        pieces.clear();
+    }
+
+    /**
+     * @return The CRC-32 of the given range of the zip, read through the block
+     */
+    private long checksum(long position, long length) throws IOException {
+        byte[] block = buffers.verificationBlock();
+        CRC32 crc = new CRC32();
+
+        while (length > 0) {
+            int count = (int) Math.min(block.length, length);
+            ChannelCopier.readFully(src, ByteBuffer.wrap(block, 0, count), position);
+            crc.update(block, 0, count);
+
+            position += count;
+            length -= count;
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * @return The CRC-32 of the given range of the given file, read through the buffer of the calling worker
+     */
+    private static long checksum(FileChannel file, long position, long size) throws IOException {
+        ByteBuffer buffer = workerBuffers.get();
+        CRC32 crc = new CRC32();
+        long end = position + size;
+
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            ChannelCopier.readFully(file, buffer, position);
+
+            position += buffer.position();
+            buffer.flip();
+            crc.update(buffer);
+        }
+
+        return crc.getValue();
+    }
+
+    private synchronized void check(int index, long actual) {
+        verified[index] = true;
+        if (actual == crcs[index]) return;
+
+        int entry = entries[index];
+        mismatches.add(new CrcMismatchException.Entry(centralDir.fileName(entry), centralDir.localHeaderOffset(entry),
+                dataOffsets[index], sizes[index], crcs[index], actual));
+    }
+
+    private synchronized void addPiece(int index, long start, long length, long crc) {
+        pieces.add(new Piece(index, start, length, crc));
+    }
+
+    private synchronized void submit(final int index) {
+        final FileChannel file = (FileChannel) src;
+        verified[index] = true;
+
+        pendingEntries.add(index);
+        pendingCrcs.add(workers().submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return checksum(file, dataOffsets[index], sizes[index]);
+            }
+        }));
+    }
+
+    /**
+     * @return The index of the first entry whose data ends after the given position
+     */
+    private int entryAt(long position) {
+        int index = Arrays.binarySearch(dataOffsets, position);
+        if (index >= 0) return index;
+
+        index = -index - 1;
+        return index > 0 && dataOffsets[index - 1] + sizes[index - 1] > position ? index - 1 : index;
+    }
+
+    /**
+     * @return The CRC-32 of two pieces of data one after the other, from their CRC-32s and the length of the second
+     * one (zlib's crc32_combine)
+     */
+    static long combine(long crc1, long crc2, long length2) {
+        // multiplying by x^(8 * length2) appends that many zero bits to the first piece
+        int p = 1 << 31;
+
+        for (int k = 3; length2 != 0; length2 >>>= 1, k++) {
+            if ((length2 & 1) != 0) p = multiply(X2N[k & 31], p);
+        }
+
+        return (multiply(p, (int) crc1) ^ crc2) & 0xffffffffL;
+    }
+
+    /**
+     * @return a * b modulo the polynomial, with both reflected
+     */
+    private static int multiply(int a, int b) {
+        int m = 1 << 31;
+        int p = 0;
+
+        while (true) {
+            if ((a & m) != 0) {
+                p ^= b;
+                if ((a & (m - 1)) == 0) break;
+            }
+
+            m >>>= 1;
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLYNOMIAL : b >>> 1;
+        }
+
+        return p;
+    }
+
+    private static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "zipalign-crc-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return workers;
+    }
+
+    /**
+     * Checksums the data of the stored entries out of the ranges of the zip that a single sink copies, in the order
+     * that they're copied in. An entry whose data is all handed to the same feed one range after another is verified
+     * right away, anything else is kept as pieces for {@link #finish()}.
+     */
+    class Feed {
+        private final CRC32 crc = new CRC32();
+
+        // the entry whose data is being checksummed, -1 when there is none; where the piece of it that is being
+        // checksummed starts in its data, and how long it is so far
+        private int current = -1;
+        private long pieceStart;
+        private long pieceLength;
+
+        // the part of the zip that is in the block
+        private long blockStart;
+        private int blockLength;
+
+        private Feed() { }
+
+        /**
+         * Checksums the data in the given bytes that a sink has read from the zip.
+         *
+         * @param position Where the bytes are in the zip
+         */
+        void update(long position, byte[] bytes, int offset, int count) throws IOException {
+            feed(position, count, bytes, offset, null);
+        }
+
+        /**
+         * Checksums the data in the given bytes that a sink has read from the zip.
+         *
+         * @param position Where the bytes are in the zip
+         * @param bytes The bytes from their position up to their limit, they're left unchanged
+         */
+        void update(long position, ByteBuffer bytes) throws IOException {
+            if (bytes.hasArray()) {
+                feed(position, bytes.remaining(), bytes.array(), bytes.arrayOffset() + bytes.position(), null);
+            } else {
+                feed(position, bytes.remaining(), null, 0, bytes);
+            }
+        }
+
+        /**
+         * Checksums the data in a range of the zip that a sink has transferred without reading it. Entries larger
+         * than the block that are all in the range are handed to the workers, the rest is read again through the
+         * block.
+         */
+        void transferred(long position, long count) throws IOException {
+            feed(position, count, null, 0, null);
+        }
+
+        /**
+         * Keeps the piece that is being checksummed, for when nothing more is going to be handed to this feed.
+         */
+        void finish() {
+            endPiece();
+        }
+
+        /**
+         * @param bytes The bytes of the range starting at {@code offset}, or null when they're in {@code buffer}
+         * @param buffer The bytes of the range from its position, or null when they have to be read again
+         */
+        private void feed(long position, long count, byte[] bytes, int offset, ByteBuffer buffer) throws IOException {
+            long end = position + count;
+
+            for (int index = entryAt(position); index < entries.length && dataOffsets[index] < end; index++) {
+                long dataStart = dataOffsets[index];
+                long dataEnd = dataStart + sizes[index];
+
+                long from = Math.max(position, dataStart);
+                long to = Math.min(end, dataEnd);
+                if (from >= to) continue;
+
+                if (bytes == null && buffer == null && from == dataStart && to == dataEnd
+                        && sizes[index] > BLOCK_SIZE && src instanceof FileChannel) {
+                    endPiece();
+                    submit(index);
+                    continue;
+                }
+
+                if (current != index || pieceStart + pieceLength != from - dataStart) {
+                    endPiece();
+
+                    current = index;
+                    pieceStart = from - dataStart;
+                    pieceLength = 0;
+                    crc.reset();
+                }
+
+                if (bytes != null) {
+                    crc.update(bytes, offset + (int) (from - position), (int) (to - from));
+                } else if (buffer != null) {
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.position(buffer.position() + (int) (from - position));
+                    slice.limit(slice.position() + (int) (to - from));
+                    crc.update(slice);
+                } else {
+                    read(from, to);
+                }
+
+                pieceLength += to - from;
+
+                if (pieceStart == 0 && pieceLength == sizes[index]) {
+                    check(index, crc.getValue());
+                    current = -1;
+                } else if (to == dataEnd) {
+                    endPiece();
+                }
+            }
+        }
+
+        /**
+         * Reads the given range of the zip through the block into the CRC-32, the ranges after it are likely to be
+         * in the same block.
+         */
+        private void read(long from, long to) throws IOException {
+            byte[] block = buffers.verificationBlock();
+
+            while (from < to) {
+                if (from < blockStart || from >= blockStart + blockLength) {
+                    blockStart = from;
+                    blockLength = (int) Math.min(block.length, centralDir.offset - from);
+
+                    ChannelCopier.readFully(src, ByteBuffer.wrap(block, 0, blockLength), from);
+                }
+
+                int offset = (int) (from - blockStart);
+                int count = (int) Math.min(to - from, blockLength - offset);
+
+                crc.update(block, offset, count);
+                from += count;
+            }
+        }
+
+        private void endPiece() {
+            if (current == -1) return;
+
+            addPiece(current, pieceStart, pieceLength, crc.getValue());
+            current = -1;
+        }
+    }
+
+    /**
+     * A part of the data of an entry, along with its CRC-32.
+     */
+    private static class Piece {
+        final int index;
+        // where the piece starts in the data of the entry
+        final long start;
+        final long length;
+        final long crc;
+
+        Piece(int index, long start, long length, long crc) {
+            this.index = index;
+            this.start = start;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a JVM running that runs the commands of {@link Main} as they're asked for, so that they don't pay for starting
+ * a JVM and warming its code up every time. Requests are read from a Unix domain socket (Java 16+), or from stdin
+ * with responses written to stdout. A request is a line of tab-separated fields, and it is answered with lines that
+ * start with its id:
+ * <pre>
+ *     &lt;id&gt; TAB &lt;working directory&gt; TAB &lt;argument&gt; (TAB &lt;argument&gt;)...
+ *
+ *     &lt;id&gt; TAB out TAB &lt;a line that the command printed to stdout&gt;
+ *     &lt;id&gt; TAB err TAB &lt;a line that the command printed to stderr&gt;
+ *     &lt;id&gt; TAB exit TAB &lt;the exit code of the command&gt;
+ * </pre>
+ * The arguments are the same as the ones of the command line, and relative paths in them are relative to the given
+ * working directory. Requests run concurrently, the lines of different requests may be interleaved. A request of a
+ * single <code>--stop</code> argument stops the daemon once the requests that are running are done.
+ */
+class Daemon {
+    private static final String STDIO = "-";
+    private static final String STOP = "--stop";
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopping;
+
+    private Daemon(int parallelism) {
+        executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "zipalign-daemon-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Serves requests until the daemon is stopped, or until stdin ends when it reads from stdin.
+     *
+     * @param args <code>(-j &lt;threads&gt;) &lt;socket path or -&gt;</code>
+     * @return The exit code
+     */
+    static int serve(String[] args) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        if (args.length >= 2 && Objects.equals(args[0], "-j")) {
+            try {
+                parallelism = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                parallelism = 0;
+            }
+
+            if (parallelism < 1) {
+                System.err.println("Invalid amount of threads: " + args[1]);
+                return 1;
+            }
+
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        if (args.length != 1) {
+            System.err.println("Usage: <exec> --daemon (-j <threads>) <socket path or ->");
+            return 1;
+        }
+
+        Daemon daemon = new Daemon(parallelism);
+
+        try {
+            if (args[0].equals(STDIO)) {
+                // nothing else may print to stdout, it only carries responses
+                daemon.new Connection(System.in, System.out).handle();
+            } else if (!daemon.listen(Paths.get(args[0]))) {
+                return 1;
+            }
+
+            daemon.executor.shutdown();
+            daemon.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Accepts connections on a Unix domain socket at the given path until the daemon is stopped. Every connection
+     * gets a thread that reads its requests.
+     *
+     * @return False when another daemon is already listening on the given path
+     */
+    private boolean listen(final Path socket) throws IOException {
+        if (Files.exists(socket)) {
+            try {
+                connect(socket).close();
+                System.err.println("A daemon is already listening on " + socket);
+                return false;
+            } catch (IOException e) {
+                // left behind by a daemon that didn't get to stop
+                Files.delete(socket);
+            }
+        }
+
+        server = open(ServerSocketChannel.class);
+        server.bind(unixAddress(socket));
+
+        Thread cleanUp = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) { }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(cleanUp);
+
+        System.err.println("Listening on " + socket);
+
+        try {
+            while (!stopping) {
+                final SocketChannel channel = server.accept();
+
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            new Connection(inputStream(channel), outputStream(channel)).handle();
+                        } catch (IOException ignored) {
+                        } finally {
+                            try {
+                                channel.close();
+                            } catch (IOException ignored) { }
+                        }
+                    }
+                }, "zipalign-daemon-connection-" + threadCount.incrementAndGet());
+
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (ClosedChannelException e) {
+            // stopped
+        } finally {
+            server.close();
+            Files.deleteIfExists(socket);
+            Runtime.getRuntime().removeShutdownHook(cleanUp);
+        }
+
+        return true;
+    }
+
+    private void stop() throws IOException {
+        stopping = true;
+        if (server != null) server.close();
+    }
+
+    /**
+     * Sends the given arguments to the daemon listening on the given socket, and prints what it responds with. The
+     * command is run by this process instead when there's no daemon to send it to.
+     *
+     * @param args <code>&lt;socket path&gt; &lt;arguments&gt;</code>
+     * @return The exit code of the command
+     */
+    static int forward(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: <exec> --client <socket path> <arguments>");
+            return 1;
+        }
+
+        Path socket = Paths.get(args[0]);
+        String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+        Path workingDirectory = Paths.get("").toAbsolutePath();
+
+        StringBuilder request = new StringBuilder("1\t").append(workingDirectory);
+        boolean sendable = workingDirectory.toString().indexOf('\t') == -1
+                && workingDirectory.toString().indexOf('\n') == -1;
+
+        for (String arg : commandArgs) {
+            if (arg.indexOf('\t') != -1 || arg.indexOf('\n') != -1) sendable = false;
+            request.append('\t').append(arg);
+        }
+
+        request.append('\n');
+
+        SocketChannel channel = null;
+        if (sendable) {
+            try {
+                channel = connect(socket);
+            } catch (IOException e) {
+                // no daemon is listening
+            }
+        }
+
+        if (channel == null) {
+            if (commandArgs.length == 1 && commandArgs[0].equals(STOP)) {
+                System.err.println("No daemon is listening on " + socket);
+                return 1;
+            }
+
+            return Main.run(commandArgs, Paths.get(""), System.out, System.err);
+        }
+
+        try {
+            OutputStream output = outputStream(channel);
+            output.write(request.toString().getBytes(StandardCharsets.UTF_8));
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(inputStream(channel), StandardCharsets.UTF_8));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) continue;
+
+                if (fields[1].equals("out")) {
+                    System.out.println(fields[2]);
+                } else if (fields[1].equals("err")) {
+                    System.err.println(fields[2]);
+                } else if (fields[1].equals("exit")) {
+                    return Integer.parseInt(fields[2]);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+
+        System.err.println("The daemon on " + socket + " stopped before the command finished");
+        return 1;
+    }
+
+    /**
+     * The requests of a client, they're read from one thread and run on the executor of the daemon. Responses are
+     * written whole lines at a time.
+     */
+    private class Connection {
+        private final InputStream input;
+        private final OutputStream output;
+
+        // the requests of this connection that haven't been responded to yet
+        private int pending;
+
+        Connection(InputStream input, OutputStream output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Reads requests until the input ends or the daemon is stopped, then waits for the ones that are still
+         * running.
+         */
+        void handle() throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+
+            String line;
+            while (!stopping && (line = reader.readLine()) != null) {
+                if (!line.isEmpty()) submit(line);
+            }
+
+            synchronized (this) {
+                while (pending > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void submit(String line) throws IOException {
+            final String[] fields = line.split("\t", -1);
+
+            if (fields.length < 2) {
+                send(fields[0], "err", "Malformed request, expected <id> TAB <working directory> TAB <arguments>");
+                send(fields[0], "exit", "1");
+                return;
+            }
+
+            final String[] args = Arrays.copyOfRange(fields, 2, fields.length);
+
+            if (args.length == 1 && args[0].equals(STOP)) {
+                // responded to first, the daemon may exit as soon as it is stopped
+                send(fields[0], "exit", "0");
+                stop();
+                return;
+            }
+
+            synchronized (this) {
+                pending++;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            execute(fields[0], Paths.get(fields[1]), args);
+                        } finally {
+                            finished();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                finished();
+
+                send(fields[0], "err", "The daemon is stopping");
+                send(fields[0], "exit", "1");
+            }
+        }
+
+        private synchronized void finished() {
+            pending--;
+            notifyAll();
+        }
+
+        private void execute(String id, Path workingDirectory, String[] args) {
+            int exitCode;
+
+            try (PrintStream out = new PrintStream(new LineForwarder(id, "out"), true, "UTF-8");
+                 PrintStream err = new PrintStream(new LineForwarder(id, "err"), true, "UTF-8")) {
+                try {
+                    exitCode = Main.run(args, workingDirectory, out, err);
+                } catch (IOException | RuntimeException | Error e) {
+                    e.printStackTrace(err);
+                    exitCode = 1;
+                }
+            } catch (IOException e) {
+                exitCode = 1;
+            }
+
+            try {
+                send(id, "exit", Integer.toString(exitCode));
+            } catch (IOException ignored) { }
+        }
+
+        private void send(String id, String kind, String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            send(id, kind, bytes, 0, bytes.length);
+        }
+
+        private synchronized void send(String id, String kind, byte[] text, int offset, int length)
+                throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(id.length() + kind.length() + length + 3);
+            line.write(id.getBytes(StandardCharsets.UTF_8));
+            line.write('\t');
+            line.write(kind.getBytes(StandardCharsets.UTF_8));
+            line.write('\t');
+            line.write(text, offset, length);
+            line.write('\n');
+
+            line.writeTo(output);
+            output.flush();
+        }
+
+        /**
+         * Sends what is written to it as lines of a response, a line that isn't finished is sent when it's closed.
+         */
+        private class LineForwarder extends OutputStream {
+            private final String id;
+            private final String kind;
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+            LineForwarder(String id, String kind) {
+                this.id = id;
+                this.kind = kind;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (b == '\n') {
+                    sendLine();
+                } else {
+                    line.write(b);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (line.size() > 0) sendLine();
+            }
+
+            private void sendLine() throws IOException {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') length--;
+
+                line.reset();
+                send(id, kind, bytes, 0, length);
+            }
+        }
+    }
+
+    private static SocketChannel connect(Path socket) throws IOException {
+        SocketChannel channel = open(SocketChannel.class);
+
+        try {
+            channel.connect(unixAddress(socket));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Opens a channel of the given type with <code>open(StandardProtocolFamily.UNIX)</code>, looked up reflectively
+     * to stay compatible with older JVMs.
+     */
+    private static <T> T open(Class<T> type) throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return type.cast(type.getMethod("open", ProtocolFamily.class).invoke(null, unix));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer, use \"" + STDIO
+                    + "\" to read requests from stdin instead", e);
+        }
+    }
+
+    /**
+     * @return <code>UnixDomainSocketAddress.of(socket)</code>, looked up reflectively
+     */
+    private static SocketAddress unixAddress(Path socket) throws IOException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class)
+                    .invoke(null, socket);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer", e);
+        }
+    }
+
+    // the streams of Channels#newInputStream and Channels#newOutputStream share a lock on socket channels, a write
+    // would wait for a read that is blocked
+
+    private static InputStream inputStream(final SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    private static OutputStream outputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes an aligned zip into a {@link WritableByteChannel}. Copied ranges and patched fields are laid out one after
+ * another in a single arena buffer, while long runs of padding are referenced from a shared buffer of zeros instead of
+ * being copied in. Everything that's pending is then written with a single gathering
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)} whenever the arena fills up. Unchanged ranges that don't
+ * fit in the arena are transferred straight from the source channel when it is a {@link FileChannel}.
+ */
+class GatheringOutput implements ZipSink {
+    // the maximum amount of buffers handed to a single gathering write, IOV_MAX is 1024 on Linux
+    private static final int MAX_PENDING = 64;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocate(16384).asReadOnlyBuffer();
+
+    private final WritableByteChannel out;
+    // non-null when the output supports gathering writes, every pending buffer is written one by one otherwise
+    private final GatheringByteChannel gathering;
+
+    private final ByteBuffer arena;
+    // where the part of the arena that's not yet in the pending buffers starts
+    private int sliceStart;
+
+    private final ByteBuffer[] pending = new ByteBuffer[MAX_PENDING];
+    private int pendingCount;
+
+    private final StatsRecorder stats;
+    // checksums the stored entries out of the copied ranges, null when they aren't verified
+    private final CrcVerifier.Feed feed;
+
+    GatheringOutput(WritableByteChannel out, byte[] buffer, StatsRecorder stats, CrcVerifier.Feed feed) {
+        this.out = out;
+        this.gathering = out instanceof GatheringByteChannel ? (GatheringByteChannel) out : null;
+        this.arena = ByteBuffer.wrap(buffer);
+        this.stats = stats;
+        this.feed = feed;
+    }
+
+    @Override
+    public void copy(SeekableByteChannel src, long position, long count) throws IOException {
+        if (src instanceof FileChannel && count > arena.remaining()) {
+            flush();
+            ChannelCopier.transfer((FileChannel) src, position, count, out, stats);
+
+            if (feed != null) feed.transferred(position, count);
+            return;
+        }
+
+        stats.bytesCopied += count;
+
+        while (count > 0) {
+            if (!arena.hasRemaining()) flush();
+
+            int start = arena.position();
+            int chunk = (int) Math.min(count, arena.remaining());
+            arena.limit(start + chunk);
+            ChannelCopier.readFully(src, arena, position, stats);
+            arena.limit(arena.capacity());
+
+            if (feed != null) feed.update(position, arena.array(), arena.arrayOffset() + start, chunk);
+
+            position += chunk;
+            count -= chunk;
+        }
+    }
+
+    @Override
+    public void writeLittleEndian(long value, int width) throws IOException {
+        if (arena.remaining() < width) flush();
+
+        for (int i = 0; i < width; i++) {
+            arena.put((byte) (value >>> (i * 8)));
+        }
+    }
+
+    @Override
+    public void writeZeros(int amount) throws IOException {
+        stats.paddingBytes += amount;
+
+        // short paddings are cheaper to fill in than to hand over as a separate buffer
+        if (amount <= arena.remaining()) {
+            int position = arena.position();
+            Arrays.fill(arena.array(), arena.arrayOffset() + position, arena.arrayOffset() + position + amount,
+                    (byte) 0);
+
+            arena.position(position + amount);
+            return;
+        }
+
+        closeSlice();
+
+        while (amount > 0) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit(Math.min(amount, zeros.capacity()));
+
+            addPending(zeros);
+            amount -= zeros.limit();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flush();
+    }
+
+    /**
+     * Moves the part of the arena that has been written since the last slice into the pending buffers.
+     */
+    private void closeSlice() throws IOException {
+        if (arena.position() == sliceStart) return;
+
+        ByteBuffer slice = arena.duplicate();
+        slice.limit(arena.position()).position(sliceStart);
+        sliceStart = arena.position();
+
+        addPending(slice);
+    }
+
+    private void addPending(ByteBuffer buffer) throws IOException {
+        pending[pendingCount++] = buffer;
+        if (pendingCount == MAX_PENDING) flush();
+    }
+
+    private void flush() throws IOException {
+        closeSlice();
+
+        if (gathering != null) {
+            int first = 0;
+
+            while (first < pendingCount) {
+                gathering.write(pending, first, pendingCount - first);
+                stats.writeCalls++;
+
+                while (first < pendingCount && !pending[first].hasRemaining()) first++;
+            }
+        } else {
+            for (int i = 0; i < pendingCount; i++) {
+                while (pending[i].hasRemaining()) {
+                    out.write(pending[i]);
+                    stats.writeCalls++;
+                }
+            }
+        }
+
+        Arrays.fill(pending, 0, pendingCount, null);
+        pendingCount = 0;
+
+        arena.clear();
+        sliceStart = 0;
+    }
+}
@@ -0,0 +1,327 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Many glob patterns compiled into one deterministic automaton that matches filenames byte by byte, as they're stored
+ * in the zip. Matching walks a table once per byte of the name and allocates nothing, no matter how many patterns
+ * there are. Patterns are matched against the whole name:
+ * <ul>
+ *     <li><code>*</code> matches any amount of characters, except for <code>/</code></li>
+ *     <li><code>**</code> matches any amount of characters, including <code>/</code></li>
+ *     <li><code>**&#47;</code> matches any amount of whole directories, including none</li>
+ *     <li><code>?</code> matches a single character, except for <code>/</code></li>
+ *     <li><code>\</code> matches the character after it literally</li>
+ * </ul>
+ * Names are assumed to be UTF-8, a character may take many bytes.
+ */
+class GlobAutomaton {
+    static final int NO_MATCH = -1;
+
+    // the automaton of a few patterns takes tens of states, this only stops pathological ones
+    private static final int MAX_STATES = 4096;
+
+    // the bytes that are matched the same way by every pattern share a class, the table has a column per class
+    private final byte[] byteClasses;
+    private final int classCount;
+
+    // the next state of every state by byte class; state 0 is the dead state that never matches, state 1 the start
+    private final int[] transitions;
+
+    // the index of the first pattern that matches when the name ends in each state, or NO_MATCH
+    private final int[] matches;
+
+    private GlobAutomaton(byte[] byteClasses, int classCount, int[] transitions, int[] matches) {
+        this.byteClasses = byteClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.matches = matches;
+    }
+
+    /**
+     * @return The index of the first pattern that matches the given name, or {@link #NO_MATCH}
+     */
+    int match(byte[] name, int start, int length) {
+        int state = 1;
+
+        for (int i = start; i < start + length; i++) {
+            state = transitions[state * classCount + (byteClasses[name[i] & 0xff] & 0xff)];
+            if (state == 0) return NO_MATCH;
+        }
+
+        return matches[state];
+    }
+
+    /**
+     * @return The amount of states of the automaton, including the dead state
+     */
+    int stateCount() {
+        return matches.length;
+    }
+
+    /**
+     * Escapes the characters that mean something in a pattern, so that the given text is matched literally.
+     */
+    static String escape(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') result.append('\\');
+
+            result.append(c);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Compiles the given patterns into an automaton, the earlier ones win when many match the same name.
+     *
+     * @throws IllegalArgumentException Will be thrown when a pattern is empty or ends with a lone <code>\</code>, or
+     *                                  when the patterns together need too many states
+     */
+    static GlobAutomaton compile(List<String> patterns) {
+        Nfa nfa = new Nfa();
+        int start = nfa.newState();
+
+        for (int i = 0; i < patterns.size(); i++) {
+            nfa.accepts.set(nfa.addPattern(start, patterns.get(i)), i);
+        }
+
+        // group the bytes that go through the same edges
+        HashMap<BitSet, Integer> classIds = new HashMap<>();
+        byte[] byteClasses = new byte[256];
+        int[] representatives = new int[256];
+
+        for (int b = 0; b < 256; b++) {
+            BitSet edges = new BitSet();
+            for (int e = 0; e < nfa.edgeBytes.size(); e++) {
+                if (nfa.edgeBytes.get(e).get(b)) edges.set(e);
+            }
+
+            Integer id = classIds.get(edges);
+            if (id == null) {
+                id = classIds.size();
+                classIds.put(edges, id);
+                representatives[id] = b;
+            }
+
+            byteClasses[b] = (byte) (int) id;
+        }
+
+        int classCount = classIds.size();
+
+        // subset construction, every state of the automaton is a set of states of the nfa
+        ArrayList<BitSet> states = new ArrayList<>();
+        HashMap<BitSet, Integer> stateIds = new HashMap<>();
+
+        BitSet dead = new BitSet();
+        states.add(dead);
+        stateIds.put(dead, 0);
+
+        BitSet initial = new BitSet();
+        initial.set(start);
+        nfa.closure(initial);
+        states.add(initial);
+        stateIds.put(initial, 1);
+
+        // states are numbered in the order that they're found, which is also the order that their rows are made in;
+        // the dead state goes nowhere
+        ArrayList<int[]> rows = new ArrayList<>();
+        rows.add(new int[classCount]);
+
+        for (int state = 1; state < states.size(); state++) {
+            BitSet members = states.get(state);
+            int[] row = new int[classCount];
+
+            for (int c = 0; c < classCount; c++) {
+                BitSet next = nfa.step(members, representatives[c]);
+
+                Integer nextId = stateIds.get(next);
+                if (nextId == null) {
+                    if (states.size() == MAX_STATES)
+                        throw new IllegalArgumentException("patterns are too complex, they need more than "
+                                + MAX_STATES + " states: " + patterns);
+
+                    nextId = states.size();
+                    states.add(next);
+                    stateIds.put(next, nextId);
+                }
+
+                row[c] = nextId;
+            }
+
+            rows.add(row);
+        }
+
+        int[] matches = new int[states.size()];
+        for (int state = 0; state < states.size(); state++) {
+            matches[state] = NO_MATCH;
+
+            BitSet members = states.get(state);
+            for (int n = members.nextSetBit(0); n >= 0; n = members.nextSetBit(n + 1)) {
+                int pattern = nfa.accepts.get(n);
+                if (pattern != NO_MATCH && (matches[state] == NO_MATCH || pattern < matches[state]))
+                    matches[state] = pattern;
+            }
+        }
+
+        int[] transitions = new int[states.size() * classCount];
+        for (int state = 0; state < rows.size(); state++) {
+            System.arraycopy(rows.get(state), 0, transitions, state * classCount, classCount);
+        }
+
+        return new GlobAutomaton(byteClasses, classCount, transitions, matches);
+    }
+
+    /**
+     * The nondeterministic automaton that patterns are first translated to, state by state.
+     */
+    private static class Nfa {
+        private static final BitSet ANY = range(0, 256);
+        private static final BitSet NOT_SLASH = without(ANY, '/');
+        // the first byte of a character, and the bytes that continue it
+        private static final BitSet CONTINUATION = range(0x80, 0xc0);
+        private static final BitSet LEAD_NOT_SLASH = without(NOT_SLASH, CONTINUATION);
+        private static final BitSet SLASH = range('/', '/' + 1);
+
+        // the pattern that every state accepts, or NO_MATCH
+        final ArrayList<Integer> accepts = new ArrayList<>();
+        final ArrayList<ArrayList<Integer>> epsilons = new ArrayList<>();
+
+        final ArrayList<BitSet> edgeBytes = new ArrayList<>();
+        final ArrayList<Integer> edgeSources = new ArrayList<>();
+        final ArrayList<Integer> edgeTargets = new ArrayList<>();
+
+        int newState() {
+            accepts.add(NO_MATCH);
+            epsilons.add(new ArrayList<Integer>());
+            return accepts.size() - 1;
+        }
+
+        void edge(int source, BitSet bytes, int target) {
+            edgeBytes.add(bytes);
+            edgeSources.add(source);
+            edgeTargets.add(target);
+        }
+
+        /**
+         * Adds the states of a pattern after the given one.
+         *
+         * @return The state that the pattern ends at
+         */
+        int addPattern(int start, String pattern) {
+            if (pattern.isEmpty()) throw new IllegalArgumentException("pattern must not be empty");
+
+            byte[] bytes = pattern.getBytes(StandardCharsets.UTF_8);
+            int current = start;
+
+            for (int i = 0; i < bytes.length; i++) {
+                byte b = bytes[i];
+
+                if (b == '\\') {
+                    if (++i == bytes.length)
+                        throw new IllegalArgumentException("pattern ends with a lone escape: " + pattern);
+
+                    current = literal(current, bytes[i]);
+                } else if (b == '?') {
+                    int character = newState();
+                    edge(current, LEAD_NOT_SLASH, character);
+                    edge(character, CONTINUATION, character);
+                    current = character;
+                } else if (b == '*' && i + 1 < bytes.length && bytes[i + 1] == '*') {
+                    i++;
+                    int next = newState();
+                    epsilons.get(current).add(next);
+
+                    if (i + 1 < bytes.length && bytes[i + 1] == '/') {
+                        // none or any amount of directories, each one ending with a slash
+                        i++;
+                        int directories = newState();
+                        epsilons.get(current).add(directories);
+                        edge(directories, ANY, directories);
+                        edge(directories, SLASH, next);
+                    } else {
+                        edge(next, ANY, next);
+                    }
+
+                    current = next;
+                } else if (b == '*') {
+                    int next = newState();
+                    epsilons.get(current).add(next);
+                    edge(next, NOT_SLASH, next);
+                    current = next;
+                } else {
+                    current = literal(current, b);
+                }
+            }
+
+            return current;
+        }
+
+        private int literal(int current, byte b) {
+            int next = newState();
+            edge(current, range(b & 0xff, (b & 0xff) + 1), next);
+            return next;
+        }
+
+        /**
+         * Adds every state that the given states reach without reading a byte.
+         */
+        void closure(BitSet states) {
+            ArrayDeque<Integer> pending = new ArrayDeque<>();
+            for (int n = states.nextSetBit(0); n >= 0; n = states.nextSetBit(n + 1)) pending.add(n);
+
+            while (!pending.isEmpty()) {
+                for (int next : epsilons.get(pending.poll())) {
+                    if (!states.get(next)) {
+                        states.set(next);
+                        pending.add(next);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The states reached from the given states by reading the given byte
+         */
+        BitSet step(BitSet states, int b) {
+            BitSet next = new BitSet();
+
+            for (int e = 0; e < edgeBytes.size(); e++) {
+                if (states.get(edgeSources.get(e)) && edgeBytes.get(e).get(b)) next.set(edgeTargets.get(e));
+            }
+
+            closure(next);
+            return next;
+        }
+
+        private static BitSet range(int from, int to) {
+            BitSet bytes = new BitSet(256);
+            bytes.set(from, to);
+            return bytes;
+        }
+
+        private static BitSet without(BitSet bytes, int b) {
+            BitSet result = (BitSet) bytes.clone();
+            result.clear(b);
+            return result;
+        }
+
+        private static BitSet without(BitSet bytes, BitSet removed) {
+            BitSet result = (BitSet) bytes.clone();
+            result.andNot(removed);
+            return result;
+        }
+    }
+}
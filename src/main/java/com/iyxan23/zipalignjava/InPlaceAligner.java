@@ -0,0 +1,439 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Applies an {@link AlignmentPlan} onto the zip file itself instead of writing a second copy of it.<br/>
+ * <br/>
+ * The file is extended by the total padding, then everything after the first padding is moved towards the end of the
+ * file, starting from the tail so that nothing is overwritten before it is moved. Bytes before the first padding are
+ * never moved. The central directory and the EOCD are not moved, they're rewritten with their offsets already patched
+ * from a copy kept in the journal.<br/>
+ * <br/>
+ * Every step is recorded in a small journal file before it touches the zip, an interrupted run is completed by the
+ * next call to {@link #align(FileChannel, Path, int, int, AlignBuffers)} with the same journal. Data is moved in chunks, a chunk
+ * that overlaps its own destination is copied into the journal first, so that it can be moved again after a crash.
+ *
+ * <pre>
+ * journal layout (big-endian):
+ *   header:    magic (4B), version (4B), original length (8B), aligned length (8B), tail offset (8B),
+ *              alignment count (4B), { extra field length offset (8B), padding offset (8B), padding (4B),
+ *              extra field length (2B) } * count, tail length (4B), patched tail, crc32 of the header (4B)
+ *   progress:  2 slots of { sequence (8B), progress (8B), crc32 (4B), unused (4B) }
+ *   chunk:     source position (8B), length (4B), crc32 (4B), data
+ * </pre>
+ */
+class InPlaceAligner {
+    private static final int JOURNAL_MAGIC = 0x5a414a4e; // "ZAJN"
+    private static final int JOURNAL_VERSION = 1;
+
+    private static final int PROGRESS_SLOT_SIZE = 24;
+    private static final int CHUNK_HEADER_SIZE = 16;
+
+    // the maximum amount of bytes moved at once
+    private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // chunks are made as large as the shift so they never overlap their destination, unless the shift is smaller than
+    // this; the chunk is then copied into the journal before it's moved instead
+    private static final int MIN_DIRECT_CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel file;
+    private final FileChannel journal;
+
+    private final long alignedLength;
+    private final long tailOffset;
+    private final long[] extraFieldLenOffsets;
+    private final long[] paddingOffsets;
+    private final int[] paddings;
+    private final short[] extraFieldLenValues;
+    private final byte[] tail;
+
+    // the position of the progress slots and the chunk in the journal
+    private final long progressPosition;
+
+    // the amount of bytes shifted by every padding up to and including the one at the same index
+    private final long[] shiftsAfter;
+
+    private long sequence;
+
+    private InPlaceAligner(FileChannel file, FileChannel journal, long alignedLength, long tailOffset,
+                           long[] extraFieldLenOffsets, long[] paddingOffsets, int[] paddings,
+                           short[] extraFieldLenValues, byte[] tail, long progressPosition) {
+        this.file = file;
+        this.journal = journal;
+        this.alignedLength = alignedLength;
+        this.tailOffset = tailOffset;
+        this.extraFieldLenOffsets = extraFieldLenOffsets;
+        this.paddingOffsets = paddingOffsets;
+        this.paddings = paddings;
+        this.extraFieldLenValues = extraFieldLenValues;
+        this.tail = tail;
+        this.progressPosition = progressPosition;
+
+        this.shiftsAfter = new long[paddings.length];
+        long shift = 0;
+        for (int i = 0; i < paddings.length; i++) {
+            shift += paddings[i];
+            shiftsAfter[i] = shift;
+        }
+    }
+
+    /**
+     * Aligns the given zip file in-place. If the journal exists, the interrupted run it describes is completed first.
+     *
+     * @param file The zip file, opened for both reading and writing
+     * @param journalPath Where the journal is going to be stored, it is deleted once the alignment is done
+     * @param alignment Alignment in bytes, recorded in the plan
+     * @param soFileAlignment Alignment for .so files in bytes, recorded in the plan
+     * @param policy Decides what the data of every entry is aligned to
+     * @param buffers Scratch buffers for analyzing the zip
+     */
+    static void align(FileChannel file, Path journalPath, int alignment, int soFileAlignment, AlignmentPolicy policy,
+                      AlignBuffers buffers) throws IOException, InvalidZipException {
+
+        if (Files.exists(journalPath)) recover(file, journalPath);
+
+        AlignmentPlan plan = ZipAlign.analyze(file, alignment, soFileAlignment, policy, false, buffers);
+        if (plan.isAligned()) return;
+
+        // fail before the journal is written if the file can't be written to, writing nothing to a read-only channel
+        // throws NonWritableChannelException
+        file.write(ByteBuffer.allocate(0), 0);
+
+        // keep a copy of everything from the central directory onwards with its offsets already patched
+        long tailOffset = plan.centralDirOffset;
+        byte[] tail = PlanExecutor.readPatchedTail(plan, file, null);
+
+        AlignmentTable alignments = plan.alignments;
+        int count = alignments.size();
+        long[] extraFieldLenOffsets = new long[count];
+        long[] paddingOffsets = new long[count];
+        int[] paddings = new int[count];
+        short[] extraFieldLenValues = new short[count];
+
+        for (int i = 0; i < count; i++) {
+            extraFieldLenOffsets[i] = alignments.extraFieldLenOffset(i);
+            paddingOffsets[i] = alignments.paddingOffset(i);
+            paddings[i] = alignments.padding(i);
+            extraFieldLenValues[i] = alignments.extraFieldLenValue(i);
+        }
+
+        // write the journal
+        int headerSize = 4 + 4 + 8 + 8 + 8 + 4 + count * (8 + 8 + 4 + 2) + 4 + tail.length + 4;
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(JOURNAL_MAGIC);
+        header.putInt(JOURNAL_VERSION);
+        header.putLong(plan.fileLength);
+        header.putLong(plan.fileLength + plan.shiftAmount);
+        header.putLong(tailOffset);
+        header.putInt(count);
+
+        for (int i = 0; i < count; i++) {
+            header.putLong(extraFieldLenOffsets[i]);
+            header.putLong(paddingOffsets[i]);
+            header.putInt(paddings[i]);
+            header.putShort(extraFieldLenValues[i]);
+        }
+
+        header.putInt(tail.length);
+        header.put(tail);
+        header.putInt(crc32(header.array(), 0, header.position()));
+        header.flip();
+
+        try (FileChannel journal = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            ChannelCopier.writeFully(journal, header, 0);
+
+            InPlaceAligner aligner = new InPlaceAligner(file, journal, plan.fileLength + plan.shiftAmount, tailOffset,
+                    extraFieldLenOffsets, paddingOffsets, paddings, extraFieldLenValues, tail, headerSize);
+
+            // nothing has been moved yet, both slots are written so that the journal is complete from here on
+            aligner.writeProgress(tailOffset);
+            aligner.writeProgress(tailOffset);
+            journal.force(true);
+            syncDirectory(journalPath);
+
+            aligner.run(tailOffset);
+        }
+
+        Files.delete(journalPath);
+        syncDirectory(journalPath);
+    }
+
+    /**
+     * Completes an interrupted in-place alignment described by the given journal, then deletes the journal.
+     */
+    private static void recover(FileChannel file, Path journalPath) throws IOException {
+        try (FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            InPlaceAligner aligner = readJournal(file, journal, journalPath);
+            if (aligner != null) aligner.run(aligner.readProgress());
+        }
+
+        Files.delete(journalPath);
+        syncDirectory(journalPath);
+    }
+
+    /**
+     * Reads the alignment described by the given journal.
+     *
+     * @return The aligner that completes it, or null when the journal was not completely written; the file is then
+     * truncated back to its original length if it has already been extended
+     */
+    private static InPlaceAligner readJournal(FileChannel file, FileChannel journal, Path journalPath)
+            throws IOException {
+
+        ByteBuffer fixed = ByteBuffer.allocate(4 + 4 + 8 + 8 + 8 + 4);
+
+        // the journal was not completely written, so nothing in the zip has been touched yet
+        if (journal.size() < fixed.capacity()) return null;
+
+        ChannelCopier.readFully(journal, fixed, 0);
+        fixed.flip();
+
+        if (fixed.getInt() != JOURNAL_MAGIC || fixed.getInt() != JOURNAL_VERSION)
+            throw new IOException("Not an in-place alignment journal: " + journalPath);
+
+        long originalLength = fixed.getLong();
+        long alignedLength = fixed.getLong();
+        long tailOffset = fixed.getLong();
+        int count = fixed.getInt();
+
+        long tailLengthPosition = fixed.capacity() + (long) count * (8 + 8 + 4 + 2);
+        ByteBuffer tailLength = ByteBuffer.allocate(4);
+
+        if (count < 0 || journal.size() < tailLengthPosition + 4) return discard(file, originalLength, alignedLength);
+
+        ChannelCopier.readFully(journal, tailLength, tailLengthPosition);
+        long headerSize = tailLengthPosition + 4 + tailLength.getInt(0) + 4;
+
+        // both progress slots are written along with the header, a crash after that leaves at least one of them
+        if (tailLength.getInt(0) < 0 || journal.size() < headerSize + PROGRESS_SLOT_SIZE)
+            return discard(file, originalLength, alignedLength);
+
+        ByteBuffer header = ByteBuffer.allocate((int) headerSize);
+        ChannelCopier.readFully(journal, header, 0);
+
+        if (crc32(header.array(), 0, header.capacity() - 4) != header.getInt(header.capacity() - 4))
+            return discard(file, originalLength, alignedLength);
+
+        if (file.size() != originalLength && file.size() != alignedLength)
+            throw new IOException("The in-place alignment journal " + journalPath + " does not belong to this file");
+
+        header.position(fixed.capacity());
+
+        long[] extraFieldLenOffsets = new long[count];
+        long[] paddingOffsets = new long[count];
+        int[] paddings = new int[count];
+        short[] extraFieldLenValues = new short[count];
+
+        for (int i = 0; i < count; i++) {
+            extraFieldLenOffsets[i] = header.getLong();
+            paddingOffsets[i] = header.getLong();
+            paddings[i] = header.getInt();
+            extraFieldLenValues[i] = header.getShort();
+        }
+
+        byte[] tail = new byte[header.getInt()];
+        header.get(tail);
+
+        return new InPlaceAligner(file, journal, alignedLength, tailOffset, extraFieldLenOffsets, paddingOffsets,
+                paddings, extraFieldLenValues, tail, headerSize);
+    }
+
+    /**
+     * Undoes the extension of a file whose journal was not completely written, nothing was moved in it before the
+     * journal was.
+     *
+     * @return null
+     */
+    private static InPlaceAligner discard(FileChannel file, long originalLength, long alignedLength)
+            throws IOException {
+
+        if (originalLength < alignedLength && file.size() == alignedLength) {
+            file.truncate(originalLength);
+            file.force(false);
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes the creation or the deletion of the journal durable. Directories can't be opened on some platforms, where
+     * this does nothing.
+     */
+    private static void syncDirectory(Path journalPath) {
+        Path directory = journalPath.toAbsolutePath().getParent();
+        if (directory == null) return;
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Moves everything before the given progress, then writes the paddings, the patched extra field lengths and the
+     * patched tail. Every step can safely be repeated.
+     *
+     * @param progress Everything from this position up to the tail has already been moved
+     */
+    private void run(long progress) throws IOException {
+        // make sure there's enough space before anything gets moved
+        if (file.size() < alignedLength) {
+            ChannelCopier.writeFully(file, ByteBuffer.wrap(new byte[1]), alignedLength - 1);
+            file.force(false);
+        }
+
+        ByteBuffer buffer = null;
+        CRC32 crc = new CRC32();
+
+        int index = paddingOffsets.length - 1;
+
+        while (progress > paddingOffsets[0]) {
+            // find the last padding before the progress, everything in between them is shifted by the same amount
+            while (paddingOffsets[index] >= progress) index--;
+
+            long shift = shiftsAfter[index];
+            int chunkSize = shift >= MIN_DIRECT_CHUNK_SIZE ? (int) Math.min(shift, MAX_CHUNK_SIZE) : MAX_CHUNK_SIZE;
+
+            long chunkStart = Math.max(paddingOffsets[index], progress - chunkSize);
+            int chunkLength = (int) (progress - chunkStart);
+            boolean overlapping = chunkLength > shift;
+
+            if (buffer == null || buffer.capacity() < chunkLength)
+                buffer = ByteBuffer.allocate(chunkLength);
+
+            buffer.clear().limit(chunkLength);
+
+            if (!overlapping || !readJournaledChunk(buffer, chunkStart, crc)) {
+                // the source is still intact
+                buffer.clear().limit(chunkLength);
+                ChannelCopier.readFully(file, buffer, chunkStart);
+                buffer.flip();
+
+                if (overlapping) {
+                    // moving this chunk is going to overwrite a part of itself, keep a copy of it in the journal first
+                    ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+                    chunkHeader.putLong(chunkStart);
+                    chunkHeader.putInt(chunkLength);
+                    chunkHeader.putInt(crc32(buffer.array(), 0, chunkLength));
+                    chunkHeader.flip();
+
+                    ChannelCopier.writeFully(journal, buffer, chunkPosition() + CHUNK_HEADER_SIZE);
+                    buffer.rewind();
+                    ChannelCopier.writeFully(journal, chunkHeader, chunkPosition());
+                    journal.force(false);
+                }
+            }
+
+            ChannelCopier.writeFully(file, buffer, chunkStart + shift);
+            file.force(false);
+
+            progress = chunkStart;
+            writeProgress(progress);
+            journal.force(false);
+        }
+
+        // everything has been moved to its place, now fill in the gaps
+        long shift = 0;
+        for (int i = 0; i < paddingOffsets.length; i++) {
+            ByteBuffer extraFieldLen = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            extraFieldLen.putShort(0, extraFieldLenValues[i]);
+            ChannelCopier.writeFully(file, extraFieldLen, extraFieldLenOffsets[i] + shift);
+
+            ChannelCopier.writeFully(file, ByteBuffer.allocate(paddings[i]), paddingOffsets[i] + shift);
+            shift += paddings[i];
+        }
+
+        ChannelCopier.writeFully(file, ByteBuffer.wrap(tail), tailOffset + shift);
+        file.force(false);
+    }
+
+    /**
+     * Reads the chunk kept in the journal into the buffer if it is the chunk that starts at the given position.
+     *
+     * @return Whether the journal contains the chunk
+     */
+    private boolean readJournaledChunk(ByteBuffer buffer, long chunkStart, CRC32 crc) throws IOException {
+        if (journal.size() < chunkPosition() + CHUNK_HEADER_SIZE + buffer.remaining()) return false;
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+        ChannelCopier.readFully(journal, chunkHeader, chunkPosition());
+        chunkHeader.flip();
+
+        if (chunkHeader.getLong() != chunkStart || chunkHeader.getInt() != buffer.remaining()) return false;
+        int expectedCrc = chunkHeader.getInt();
+
+        ChannelCopier.readFully(journal, buffer, chunkPosition() + CHUNK_HEADER_SIZE);
+        buffer.flip();
+
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.limit());
+        return (int) crc.getValue() == expectedCrc;
+    }
+
+    private long chunkPosition() {
+        return progressPosition + PROGRESS_SLOT_SIZE * 2;
+    }
+
+    /**
+     * Records the progress into the journal, alternating between two slots so a torn write never loses the previous
+     * progress.
+     */
+    private void writeProgress(long progress) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(PROGRESS_SLOT_SIZE);
+        slot.putLong(sequence);
+        slot.putLong(progress);
+        slot.putInt(crc32(slot.array(), 0, 16));
+        slot.clear();
+
+        ChannelCopier.writeFully(journal, slot, progressPosition + (sequence % 2) * PROGRESS_SLOT_SIZE);
+        sequence++;
+    }
+
+    /**
+     * @return The latest valid progress recorded in the journal
+     */
+    private long readProgress() throws IOException {
+        long progress = -1;
+        long latestSequence = -1;
+
+        for (int i = 0; i < 2; i++) {
+            // a journal of an older run may only have the first slot
+            if (journal.size() < progressPosition + (long) (i + 1) * PROGRESS_SLOT_SIZE) break;
+
+            ByteBuffer slot = ByteBuffer.allocate(PROGRESS_SLOT_SIZE);
+            ChannelCopier.readFully(journal, slot, progressPosition + (long) i * PROGRESS_SLOT_SIZE);
+
+            long slotSequence = slot.getLong(0);
+            if (crc32(slot.array(), 0, 16) != slot.getInt(16) || slotSequence <= latestSequence) continue;
+
+            progress = slot.getLong(8);
+            latestSequence = slotSequence;
+        }
+
+        sequence = latestSequence + 1;
+
+        if (progress == -1)
+            throw new IOException("The progress of the in-place alignment journal is corrupted");
+
+        return Math.min(progress, tailOffset);
+    }
+
+    private static int crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,470 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Adds, replaces and deletes entries of an aligned zip in-place, without rewriting the whole file.<br/>
+ * <br/>
+ * Everything before the local file header of the first entry that's replaced or deleted is left untouched. The entries
+ * that are kept after it are moved down over the freed space one after another, their padding is adjusted for their
+ * new position. The new entries are then written right after them, aligned, followed by a rewritten central
+ * directory and EOCD record. When an entry would have to move up because its padding grows, the rest of the kept
+ * entries are copied into a temporary file first so that nothing is overwritten before it is moved.<br/>
+ * <br/>
+ * The zip is expected to already be aligned, and is not recoverable if the update gets interrupted. An APK signing
+ * block in front of the central directory is dropped, the zip has to be signed again anyway.
+ */
+class IncrementalUpdater {
+    // "APK Sig Block 42", at the end of an APK signing block right before the central directory
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+
+    private final FileChannel file;
+    private final long entriesEnd;
+    private final Path spillDirectory;
+    private final boolean alignmentExtraField;
+    private final byte[] chunk;
+
+    // where the kept entries are read from, the zip itself until they are copied into a temporary file
+    private FileChannel source;
+    private long sourceStart;
+
+    private IncrementalUpdater(FileChannel file, long entriesEnd, Path spillDirectory, boolean alignmentExtraField,
+                               byte[] chunk) {
+        this.file = file;
+        this.entriesEnd = entriesEnd;
+        this.spillDirectory = spillDirectory;
+        this.alignmentExtraField = alignmentExtraField;
+        this.chunk = chunk;
+        this.source = file;
+    }
+
+    /**
+     * Applies the given update to the zip file.
+     *
+     * @param file The zip file, opened for both reading and writing
+     * @param spillDirectory Where the temporary file is created if entries need to be moved up, null for the default
+     *                       temporary directory
+     * @param update The entries to add, replace or delete
+     * @param policy Decides what the data of every entry is aligned to
+     * @param alignmentExtraField Whether entries are padded with an alignment extra field (0xD935) instead of null
+     *                            bytes
+     * @param buffers Scratch buffers for reading and moving the zip
+     */
+    static void update(FileChannel file, Path spillDirectory, ZipUpdate update, AlignmentPolicy policy,
+                       boolean alignmentExtraField, AlignBuffers buffers) throws IOException, InvalidZipException {
+
+        if (update.isEmpty()) return;
+
+        CentralDirectory centralDir = CentralDirectory.read(file, buffers);
+        if (centralDir.isZip64()) throw new InvalidZipException("Zip64 zips can't be updated incrementally");
+
+        int totalEntries = centralDir.totalEntries;
+        String[] names = new String[totalEntries];
+
+        // the new entry that takes the place of the entry at the same index in the central directory
+        ZipUpdate.NewEntry[] replacements = new ZipUpdate.NewEntry[totalEntries];
+        boolean[] removed = new boolean[totalEntries];
+        HashSet<String> replacedNames = new HashSet<>();
+
+        for (int ei = 0; ei < totalEntries; ei++) {
+            if (centralDir.isZip64LocalHeaderOffset(ei))
+                throw new InvalidZipException("Zip64 zips can't be updated incrementally");
+
+            names[ei] = centralDir.fileName(ei);
+            ZipUpdate.NewEntry replacement = update.put(names[ei]);
+
+            if (replacement != null) {
+                removed[ei] = true;
+
+                // entries with the same name are replaced once, in the place of the first one
+                if (replacedNames.add(names[ei])) replacements[ei] = replacement;
+            } else if (update.deletes().contains(names[ei])) {
+                removed[ei] = true;
+            }
+        }
+
+        byte[] comment = readComment(file, centralDir);
+        long entriesEnd = entriesEnd(file, centralDir.offset);
+
+        // local file headers in the order of where they are in the file, headers shared by many entries are only in
+        // here once
+        long[] headerOffsets = new long[totalEntries];
+        for (int ei = 0; ei < totalEntries; ei++) headerOffsets[ei] = centralDir.localHeaderOffset(ei);
+
+        Arrays.sort(headerOffsets);
+        int headerCount = distinct(headerOffsets);
+
+        if (headerCount > 0 && headerOffsets[headerCount - 1] >= entriesEnd)
+            throw new InvalidZipException("local file header at " + headerOffsets[headerCount - 1]
+                    + " is not located before the central directory");
+
+        // an entry that is kept for every header, or -1 when the header is not used anymore
+        int[] keptEntries = new int[headerCount];
+        Arrays.fill(keptEntries, -1);
+
+        for (int ei = 0; ei < totalEntries; ei++) {
+            if (removed[ei]) continue;
+
+            int header = Arrays.binarySearch(headerOffsets, 0, headerCount, centralDir.localHeaderOffset(ei));
+            if (keptEntries[header] == -1) keptEntries[header] = ei;
+        }
+
+        // nothing before the first header that's not used anymore is touched
+        int firstFreed = 0;
+        while (firstFreed < headerCount && keptEntries[firstFreed] != -1) firstFreed++;
+
+        long[] newHeaderOffsets = Arrays.copyOf(headerOffsets, headerCount);
+        long position = firstFreed < headerCount ? headerOffsets[firstFreed] : entriesEnd;
+
+        IncrementalUpdater updater = new IncrementalUpdater(file, entriesEnd, spillDirectory, alignmentExtraField,
+                buffers.output());
+        byte[] header = buffers.block(30 + 0xffff + 0xffff);
+
+        try {
+            for (int h = firstFreed + 1; h < headerCount; h++) {
+                if (keptEntries[h] == -1) continue;
+
+                long end = h + 1 < headerCount ? headerOffsets[h + 1] : entriesEnd;
+                int ei = keptEntries[h];
+
+                newHeaderOffsets[h] = position;
+                position = updater.moveRecord(headerOffsets[h], end, position, header,
+                        centralDir.requiredAlignment(ei, policy));
+            }
+        } finally {
+            updater.closeSpill();
+        }
+
+        // the new entries, in the place of the ones they replace in the central directory or after every other entry
+        ArrayList<ZipUpdate.NewEntry> added = new ArrayList<>();
+        for (ZipUpdate.NewEntry entry : update.puts()) {
+            if (!replacedNames.contains(entry.name)) added.add(entry);
+        }
+
+        HashMap<ZipUpdate.NewEntry, Long> writtenOffsets = new HashMap<>();
+
+        for (ZipUpdate.NewEntry entry : update.puts()) {
+            writtenOffsets.put(entry, position);
+
+            position = updater.writeEntry(entry, position, header,
+                    policy.requiredAlignment(entry.nameBytes, 0, entry.nameBytes.length, entry.compressionMethod));
+        }
+
+        // the central directory
+        int centralDirSize = 0;
+        int entryCount = 0;
+
+        for (int ei = 0; ei < totalEntries; ei++) {
+            if (replacements[ei] != null) {
+                centralDirSize += 46 + replacements[ei].nameBytes.length;
+                entryCount++;
+            } else if (!removed[ei]) {
+                centralDirSize += centralDir.entryLength(ei);
+                entryCount++;
+            }
+        }
+
+        for (ZipUpdate.NewEntry entry : added) {
+            centralDirSize += 46 + entry.nameBytes.length;
+            entryCount++;
+        }
+
+        if (entryCount > 0xffff)
+            throw new InvalidZipException("The zip would have " + entryCount + " entries, it would need to be Zip64");
+
+        if (position + centralDirSize >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new InvalidZipException("The central directory would be located past 4GiB, the zip would need to "
+                    + "be Zip64");
+
+        ByteBuffer tail = ByteBuffer.allocate(centralDirSize + 22 + comment.length).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int ei = 0; ei < totalEntries; ei++) {
+            if (replacements[ei] != null) {
+                ZipUpdate.NewEntry entry = replacements[ei];
+                putCentralDirEntry(tail, entry, writtenOffsets.get(entry));
+            } else if (!removed[ei]) {
+                int entryStart = tail.position();
+                centralDir.copyEntry(ei, tail);
+
+                int h = Arrays.binarySearch(headerOffsets, 0, headerCount, centralDir.localHeaderOffset(ei));
+                tail.putInt(entryStart + 42, (int) newHeaderOffsets[h]);
+            }
+        }
+
+        for (ZipUpdate.NewEntry entry : added) {
+            putCentralDirEntry(tail, entry, writtenOffsets.get(entry));
+        }
+
+        // the end of central directory record
+        tail.putInt(0x06054b50);
+        tail.putShort((short) 0);
+        tail.putShort((short) 0);
+        tail.putShort((short) entryCount);
+        tail.putShort((short) entryCount);
+        tail.putInt(centralDirSize);
+        tail.putInt((int) position);
+        tail.putShort((short) comment.length);
+        tail.put(comment);
+
+        tail.flip();
+        ChannelCopier.writeFully(file, tail, position);
+        file.truncate(position + tail.limit());
+    }
+
+    /**
+     * Moves the local file header and everything after it up to {@code end} to the given position, adjusting the
+     * padding at the end of its extra field for its data to be aligned.
+     *
+     * @return The position right after the moved record
+     */
+    private long moveRecord(long start, long end, long position, byte[] header, int requiredAlignment)
+            throws IOException, InvalidZipException {
+
+        ByteBuffer headerView = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        headerView.limit(30);
+        ChannelCopier.readFully(source, headerView, start - sourceStart);
+
+        if (headerView.getInt(0) != 0x04034b50)
+            throw new InvalidZipException("assumed local file header at " + start + " doesn't start with a signature");
+
+        int fileNameLen = headerView.getShort(26) & 0xffff;
+        int extraFieldLen = headerView.getShort(28) & 0xffff;
+        int headerLen = 30 + fileNameLen + extraFieldLen;
+
+        if (start + headerLen > end)
+            throw new InvalidZipException("local file header at " + start + " exceeds its entry");
+
+        headerView.limit(headerLen).position(30);
+        ChannelCopier.readFully(source, headerView, start + 30 - sourceStart);
+
+        int newExtraFieldLen = extraFieldLen;
+
+        if (requiredAlignment > 1) {
+            // the padding is recalculated from scratch, only the actual extra fields are kept
+            int kept = AlignmentExtraField.paddingStart(header, 30 + fileNameLen, extraFieldLen);
+            long dataPos = position + 30 + fileNameLen + kept;
+            int padding = padding(dataPos, requiredAlignment);
+
+            newExtraFieldLen = kept + padding;
+            if (newExtraFieldLen > 0xffff)
+                throw new InvalidZipException("extra field of the local file header at " + start
+                        + " is too large to be padded with " + padding + " bytes");
+
+            writePadding(header, 30 + fileNameLen + kept, padding, requiredAlignment);
+            headerView.putShort(28, (short) newExtraFieldLen);
+        }
+
+        int newHeaderLen = 30 + fileNameLen + newExtraFieldLen;
+        long rest = end - start - headerLen;
+
+        if (position + newHeaderLen + rest >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new InvalidZipException("local file header at " + start + " would be moved past 4GiB");
+
+        // moving data up would overwrite the data that comes after it before it's moved
+        if (source == file && position + newHeaderLen > start + headerLen) spill(start + headerLen);
+
+        headerView.limit(newHeaderLen).position(0);
+        ChannelCopier.writeFully(file, headerView, position);
+
+        copy(start + headerLen, position + newHeaderLen, rest);
+        return position + newHeaderLen + rest;
+    }
+
+    /**
+     * Writes a new entry at the given position, with its data aligned to the required alignment.
+     *
+     * @return The position right after the written entry
+     */
+    private long writeEntry(ZipUpdate.NewEntry entry, long position, byte[] header, int requiredAlignment)
+            throws IOException, InvalidZipException {
+
+        int fileNameLen = entry.nameBytes.length;
+        int padding = 0;
+
+        if (requiredAlignment > 1) {
+            long dataPos = position + 30 + fileNameLen;
+            padding = padding(dataPos, requiredAlignment);
+        }
+
+        if (padding > 0xffff)
+            throw new InvalidZipException("entry " + entry.name + " can't be padded with " + padding + " bytes");
+
+        if (position + 30 + fileNameLen + padding + entry.payload.length >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new InvalidZipException("entry " + entry.name + " would be located past 4GiB");
+
+        ByteBuffer headerView = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+        headerView.putInt(0x04034b50);
+        headerView.putShort((short) (entry.compressionMethod == 0 ? 10 : 20));
+        headerView.putShort((short) 0x0800); // the filename is UTF-8
+        headerView.putShort((short) entry.compressionMethod);
+        headerView.putShort((short) entry.dosTime);
+        headerView.putShort((short) entry.dosDate);
+        headerView.putInt(entry.crc);
+        headerView.putInt(entry.payload.length);
+        headerView.putInt((int) entry.uncompressedSize);
+        headerView.putShort((short) fileNameLen);
+        headerView.putShort((short) padding);
+        headerView.put(entry.nameBytes);
+        writePadding(header, headerView.position(), padding, requiredAlignment);
+        headerView.position(headerView.position() + padding);
+
+        headerView.flip();
+        ChannelCopier.writeFully(file, headerView, position);
+        position += headerView.limit();
+
+        ChannelCopier.writeFully(file, ByteBuffer.wrap(entry.payload), position);
+        return position + entry.payload.length;
+    }
+
+    private static void putCentralDirEntry(ByteBuffer centralDir, ZipUpdate.NewEntry entry, long localHeaderOffset) {
+        centralDir.putInt(0x02014b50);
+        centralDir.putShort((short) 20); // version made by: MS-DOS, 2.0
+        centralDir.putShort((short) (entry.compressionMethod == 0 ? 10 : 20));
+        centralDir.putShort((short) 0x0800); // the filename is UTF-8
+        centralDir.putShort((short) entry.compressionMethod);
+        centralDir.putShort((short) entry.dosTime);
+        centralDir.putShort((short) entry.dosDate);
+        centralDir.putInt(entry.crc);
+        centralDir.putInt(entry.payload.length);
+        centralDir.putInt((int) entry.uncompressedSize);
+        centralDir.putShort((short) entry.nameBytes.length);
+        centralDir.putShort((short) 0); // extra field length
+        centralDir.putShort((short) 0); // comment length
+        centralDir.putShort((short) 0); // disk number
+        centralDir.putShort((short) 0); // internal attributes
+        centralDir.putInt(0); // external attributes
+        centralDir.putInt((int) localHeaderOffset);
+        centralDir.put(entry.nameBytes);
+    }
+
+    /**
+     * Copies the rest of the kept entries into a temporary file, they are read from it from now on.
+     */
+    private void spill(long start) throws IOException {
+        Path spillPath = spillDirectory == null
+                ? Files.createTempFile("zipalign-update-", ".tmp")
+                : Files.createTempFile(spillDirectory, "zipalign-update-", ".tmp");
+
+        FileChannel spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+
+        try {
+            ChannelCopier.transfer(file, start, entriesEnd - start, spill);
+        } catch (IOException e) {
+            spill.close();
+            throw e;
+        }
+
+        source = spill;
+        sourceStart = start;
+    }
+
+    private void closeSpill() throws IOException {
+        if (source != file) source.close();
+    }
+
+    /**
+     * Copies a range of the kept entries to the given position of the zip. Ranges are copied from the start to the
+     * end, the destination never comes after the source when they're both in the zip.
+     */
+    private void copy(long position, long destination, long length) throws IOException {
+        if (source == file && position == destination) return;
+
+        ByteBuffer view = ByteBuffer.wrap(chunk);
+
+        while (length > 0) {
+            int count = (int) Math.min(chunk.length, length);
+
+            view.clear();
+            view.limit(count);
+            ChannelCopier.readFully(source, view, position - sourceStart);
+
+            view.flip();
+            ChannelCopier.writeFully(file, view, destination);
+
+            position += count;
+            destination += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * @return The amount of padding that aligns data at the given position, the length of an alignment extra field
+     * when entries are padded with one
+     */
+    private int padding(long dataPos, int requiredAlignment) {
+        return alignmentExtraField
+                ? AlignmentExtraField.length(dataPos, requiredAlignment)
+                : ZipAlign.padding(dataPos, requiredAlignment);
+    }
+
+    /**
+     * Writes the given amount of padding into the given header, as an alignment extra field when entries are padded
+     * with one.
+     */
+    private void writePadding(byte[] header, int offset, int padding, int requiredAlignment) {
+        if (alignmentExtraField) AlignmentExtraField.write(header, offset, padding, requiredAlignment);
+        else Arrays.fill(header, offset, offset + padding, (byte) 0);
+    }
+
+    /**
+     * @return Where the entries end: the start of the APK signing block if there is one, or the start of the central
+     * directory otherwise
+     */
+    private static long entriesEnd(FileChannel file, long centralDirOffset) throws IOException {
+        if (centralDirOffset < 32) return centralDirOffset;
+
+        ByteBuffer footer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelCopier.readFully(file, footer, centralDirOffset - 24);
+
+        if (footer.getLong(8) != APK_SIG_BLOCK_MAGIC_LO || footer.getLong(16) != APK_SIG_BLOCK_MAGIC_HI)
+            return centralDirOffset;
+
+        // the size of the block doesn't include the size field at its start
+        long blockStart = centralDirOffset - footer.getLong(0) - 8;
+        return blockStart >= 0 && blockStart < centralDirOffset ? blockStart : centralDirOffset;
+    }
+
+    private static byte[] readComment(FileChannel file, CentralDirectory centralDir) throws IOException {
+        ByteBuffer eocd = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelCopier.readFully(file, eocd, centralDir.eocdPosition);
+
+        int commentLen = (int) Math.min(eocd.getShort(20) & 0xffff,
+                centralDir.fileLength - centralDir.eocdPosition - 22);
+        ByteBuffer comment = ByteBuffer.allocate(commentLen);
+        ChannelCopier.readFully(file, comment, centralDir.eocdPosition + 22);
+
+        return comment.array();
+    }
+
+    /**
+     * Removes the duplicates of a sorted array in place.
+     *
+     * @return The amount of distinct values, at the start of the array
+     */
+    private static int distinct(long[] sorted) {
+        int count = 0;
+
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[count - 1]) sorted[count++] = sorted[i];
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of an alignment and of each of its phases, kept by a {@link StatsRecorder}. This class
+ * is only ever loaded once {@link StatsRecorder} has found Java Flight Recorder in the JVM (Java 11+, or 8u262+), so
+ * that the library still works on JVMs without it, e.g. Android.<br/>
+ * <br/>
+ * An event is only kept when it is enabled in a running recording; otherwise {@link Event#isEnabled()} is a constant
+ * false and nothing is begun nor committed. The event classes aren't even loaded until Java Flight Recorder has been
+ * started, registering them loads and reflects over a hundred classes of <code>jdk.jfr</code>, which would be most of
+ * the class loading of a short run of the command line.
+ */
+class JfrEvents {
+    private AlignmentEvent alignment;
+    private PhaseEvent phase;
+
+    void beginAlignment() {
+        if (!FlightRecorder.isInitialized()) return;
+
+        AlignmentEvent event = new AlignmentEvent();
+        alignment = event.isEnabled() ? event : null;
+
+        if (alignment != null) alignment.begin();
+    }
+
+    void beginPhase() {
+        if (!FlightRecorder.isInitialized()) return;
+
+        PhaseEvent event = new PhaseEvent();
+        phase = event.isEnabled() ? event : null;
+
+        if (phase != null) phase.begin();
+    }
+
+    void endPhase(AlignStats.Phase phase, long archiveSize) {
+        PhaseEvent event = this.phase;
+        if (event == null) return;
+
+        this.phase = null;
+
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        event.phase = phase.getKey();
+        event.archiveSize = archiveSize;
+        event.commit();
+    }
+
+    void endAlignment(StatsRecorder stats, long nanos) {
+        AlignmentEvent event = alignment;
+        if (event == null) return;
+
+        alignment = null;
+
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        event.archiveSize = stats.archiveSize;
+        event.entryCount = stats.entriesScanned;
+        event.entriesAligned = stats.storedEntriesAligned + stats.soEntriesAligned;
+        event.paddingBytes = stats.paddingBytes;
+        event.bytesCopied = stats.bytesCopied;
+        event.throughput = nanos <= 0 ? 0 : (long) (stats.archiveSize * 1e9 / nanos);
+        event.commit();
+    }
+
+    @Name("com.iyxan23.zipalignjava.Alignment")
+    @Label("Zip Alignment")
+    @Description("A zip aligned by zipalign-java")
+    @Category("zipalign-java")
+    @StackTrace(false)
+    static class AlignmentEvent extends Event {
+        @Label("Archive Size")
+        @DataAmount
+        long archiveSize;
+
+        @Label("Entry Count")
+        long entryCount;
+
+        @Label("Entries Aligned")
+        long entriesAligned;
+
+        @Label("Padding Added")
+        @DataAmount
+        long paddingBytes;
+
+        @Label("Bytes Copied")
+        @DataAmount
+        long bytesCopied;
+
+        @Label("Throughput")
+        @Description("The size of the archive over the duration of the alignment")
+        @DataAmount
+        @Frequency
+        long throughput;
+    }
+
+    @Name("com.iyxan23.zipalignjava.AlignmentPhase")
+    @Label("Zip Alignment Phase")
+    @Description("A phase of a zip alignment: eocdScan, centralDirectoryParse, localHeaderProbe or streaming")
+    @Category("zipalign-java")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Archive Size")
+        @DataAmount
+        long archiveSize;
+    }
+}
@@ -0,0 +1,163 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the filename and extra field lengths of local file headers. Instead of seeking to every header in the order of
+ * the central directory, the headers are sorted by their offsets and read in a single forward sweep, headers that are
+ * close to each other share a single block read.
+ */
+class LocalHeaderProber {
+    // the size of a local file header, not including the filename and the extra field
+    static final int LOCAL_HEADER_SIZE = 30;
+
+    // headers that are at most this far apart from each other are read in the same block
+    private static final int MAX_GAP = 16 * 1024;
+    private static final int MAX_BLOCK_SIZE = 256 * 1024;
+
+    /**
+     * A local file header that needs to be probed.
+     */
+    static class Probe {
+        // the index of the entry in the central directory
+        public final int entry;
+        public final long offset;
+        public final int alignment;
+        // whether it is aligned as a .so file rather than as an uncompressed entry
+        public final boolean soFile;
+
+        // filled in by LocalHeaderProber#probe
+        public int fileNameLen;
+        public int extraFieldLen;
+
+        Probe(int entry, long offset, int alignment, boolean soFile) {
+            this.entry = entry;
+            this.offset = offset;
+            this.alignment = alignment;
+            this.soFile = soFile;
+        }
+
+        /**
+         * @return The position where the data of this entry starts at
+         */
+        public long dataOffset() {
+            return offset + LOCAL_HEADER_SIZE + fileNameLen + extraFieldLen;
+        }
+
+        @Override
+        public String toString() {
+            return "Probe{" +
+                    "entry=" + entry +
+                    ", offset=" + offset +
+                    ", alignment=" + alignment +
+                    ", fileNameLen=" + fileNameLen +
+                    ", extraFieldLen=" + extraFieldLen +
+                    '}';
+        }
+    }
+
+    /**
+     * Called with every probe as soon as it is filled in, in the order of their offsets.
+     */
+    interface Visitor {
+        /**
+         * @return Whether to continue probing the rest of the local file headers
+         */
+        boolean visit(Probe probe);
+    }
+
+    /**
+     * Sorts the given probes by their offsets and fills in their filename and extra field lengths.
+     *
+     * @param file The zip file, only read through positional reads
+     * @param probes The local file headers to probe, will be sorted by their offsets
+     * @param buffers Where the block buffer is taken from
+     *
+     * @throws InvalidZipException Will be thrown when a probed offset does not point to a local file header
+     */
+    static void probe(SeekableByteChannel file, List<Probe> probes, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
+        probe(file, probes, null, buffers);
+    }
+
+    /**
+     * Sorts the given probes by their offsets and fills in their filename and extra field lengths, the visitor is
+     * called with every probe as soon as it is filled in and may stop the sweep early.
+     *
+     * @param file The zip file, only read through positional reads
+     * @param probes The local file headers to probe, will be sorted by their offsets
+     * @param visitor Called with every filled in probe, may be null
+     * @param buffers Where the block buffer is taken from
+     *
+     * @throws InvalidZipException Will be thrown when a probed offset does not point to a local file header
+     */
+    static void probe(SeekableByteChannel file, List<Probe> probes, Visitor visitor, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
+        Collections.sort(probes, new Comparator<Probe>() {
+            @Override
+            public int compare(Probe a, Probe b) {
+                return Long.compare(a.offset, b.offset);
+            }
+        });
+
+        byte[] block = null;
+        ByteBuffer blockBuffer = null;
+        UnsignedByteBufferWrapper blockBufferUw = null;
+
+        int groupStart = 0;
+        while (groupStart < probes.size()) {
+            long blockStart = probes.get(groupStart).offset;
+
+            // extend the group for as long as the next header is close enough
+            int groupEnd = groupStart + 1;
+            while (groupEnd < probes.size()) {
+                long previous = probes.get(groupEnd - 1).offset;
+                long next = probes.get(groupEnd).offset;
+
+                if (next - previous > MAX_GAP || next + LOCAL_HEADER_SIZE - blockStart > MAX_BLOCK_SIZE) break;
+                groupEnd++;
+            }
+
+            int blockSize = (int) (probes.get(groupEnd - 1).offset + LOCAL_HEADER_SIZE - blockStart);
+            if (blockStart + blockSize > file.size())
+                throw new InvalidZipException("local file header at " + probes.get(groupEnd - 1).offset
+                        + " exceeds the end of the file");
+
+            if (block == null || block.length < blockSize) {
+                block = buffers.block(blockSize);
+                blockBuffer = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+                blockBufferUw = new UnsignedByteBufferWrapper(blockBuffer);
+            }
+
+            blockBuffer.clear().limit(blockSize);
+            ChannelCopier.readFully(file, blockBuffer, blockStart, buffers.stats);
+
+            for (int i = groupStart; i < groupEnd; i++) {
+                Probe probe = probes.get(i);
+                int headerStart = (int) (probe.offset - blockStart);
+
+                if (blockBuffer.getInt(headerStart) != 0x04034b50)
+                    throw new InvalidZipException(
+                            "assumed local file header at " + probe.offset + " doesn't start with a signature"
+                    );
+
+                probe.fileNameLen = blockBufferUw.getUShort(headerStart + 26);
+                probe.extraFieldLen = blockBufferUw.getUShort(headerStart + 28);
+
+                if (visitor != null && !visitor.visit(probe)) return;
+            }
+
+            groupStart = groupEnd;
+        }
+    }
+}
@@ -1,55 +1,359 @@
 package com.iyxan23.zipalignjava;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Main {
+    private static final String USAGE =
+        "Usage:\n\t<exec> (-j <threads>) (--stats=json) (--verify-crc) <input zip or directory> <output zip or directory> (old)\n\t<exec> -c (--first) <input zip>\n\t<exec> --daemon (-j <threads>) <socket path or ->\n\t<exec> --client <socket path> <arguments>\n\nExample(s):\n\t$ java -jar zipalign.jar input.zip output.zip\n\n\tTo read the input zip as a stream in a single pass (the old method), use the \"old\" parameter:\n\n\t$ java -jar zipalign.jar input.zip output.zip old\n\n\tTo align every zip, apk, jar and aar inside of a directory (recursively) into another directory, with as many threads as there are processors unless specified with \"-j\":\n\n\t$ java -jar zipalign.jar -j 8 input/ output/\n\n\tWith \"-j\", a single large zip is written by that many threads at once:\n\n\t$ java -jar zipalign.jar -j 4 input.zip output.zip\n\n\tTo print what the alignment of a single zip did and how long each phase took as JSON, use \"--stats=json\":\n\n\t$ java -jar zipalign.jar --stats=json input.zip output.zip\n\n\tTo verify the data of every stored entry against its CRC-32 as it is copied, use \"--verify-crc\". Aligned zips\n\twith entries that don't match aren't kept:\n\n\t$ java -jar zipalign.jar --verify-crc input.zip output.zip\n\n\tTo only check whether a zip is aligned, use the \"-c\" flag, \"--first\" stops at the first misaligned entry:\n\n\t$ java -jar zipalign.jar -c input.zip\n\n\tTo skip starting a JVM for every zip, keep a daemon running and send it the same arguments with \"--client\", it\n\truns them concurrently. The client runs them by itself when the daemon isn't running:\n\n\t$ java -jar zipalign.jar --daemon /tmp/zipalign.sock &\n\t$ java -jar zipalign.jar --client /tmp/zipalign.sock input.zip output.zip\n\n\tWith \"-\" as the socket path, the daemon reads requests from stdin and writes responses to stdout, one per line:\n\n\t<id> TAB <working directory> TAB <argument> (TAB <argument>)...\n\t<id> TAB out|err TAB <line of output>\n\t<id> TAB exit TAB <exit code>";
+    private static final String[] ZIP_EXTENSIONS = { ".zip", ".apk", ".jar", ".aar" };
+
+    // aligners are kept around for the daemon, where every thread reuses its buffers from one zip to the next
+    private static final ConcurrentHashMap<Integer, ZipAligner> aligners = new ConcurrentHashMap<>();
+    private static final ThreadLocal<AlignStats> lastStats = new ThreadLocal<>();
+
     public static void main(String[] args) throws IOException {
-        if (args.length < 2) {
-            System.err.println(
-                "Usage:\n\t<exec> <input zip> <output zip> (old)\n\nExample(s):\n\t$ java -jar zipalign.jar input.zip output.zip\n\n\tTo use the old method, use the \"old\" parameter:\n\n\t$ java -jar zipalign.jar input.zip output.zip old"
-            );
-            System.exit(1);
+        if (args.length >= 1 && Objects.equals(args[0], "--daemon")) {
+            System.exit(Daemon.serve(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
+        if (args.length >= 1 && Objects.equals(args[0], "--client")) {
+            System.exit(Daemon.forward(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
+        int exitCode = run(args, Paths.get(""), System.out, System.err);
+        if (exitCode != 0) System.exit(exitCode);
+    }
+
+    /**
+     * Runs the command of the given arguments, the same way whether it comes from the command line or the daemon.
+     *
+     * @param workingDirectory What relative paths in the arguments are relative to
+     * @return The exit code
+     */
+    static int run(String[] args, Path workingDirectory, PrintStream out, PrintStream err) throws IOException {
+        boolean checkOnly = false;
+        boolean stopAtFirstViolation = false;
+        boolean printStats = false;
+        boolean verifyCrc = false;
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean parallelismGiven = false;
+
+        // the options can be given in any order, everything else is a positional argument
+        ArrayList<String> positional = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (Objects.equals(arg, "-j") && i + 1 < args.length) {
+                try {
+                    parallelism = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    parallelism = 0;
+                }
+
+                if (parallelism < 1) {
+                    err.println("Invalid amount of threads: " + args[i]);
+                    return 1;
+                }
+
+                parallelismGiven = true;
+            } else if (Objects.equals(arg, "-c")) {
+                checkOnly = true;
+            } else if (Objects.equals(arg, "--first")) {
+                stopAtFirstViolation = true;
+            } else if (Objects.equals(arg, "--stats=json")) {
+                printStats = true;
+            } else if (Objects.equals(arg, "--verify-crc")) {
+                verifyCrc = true;
+            } else if (arg.startsWith("-") && arg.length() > 1) {
+                err.println("Unknown option: " + arg);
+                err.println(USAGE);
+                return 1;
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (checkOnly) {
+            if (parallelismGiven || printStats || verifyCrc || positional.size() != 1) {
+                err.println(USAGE);
+                return 1;
+            }
+
+            return check(positional.get(0), stopAtFirstViolation, workingDirectory, out, err);
+        }
+
+        if (stopAtFirstViolation || positional.size() < 2 || positional.size() > 3
+                || positional.size() == 3 && !Objects.equals(positional.get(2), "old")) {
+            err.println(USAGE);
+            return 1;
         }
 
-        File inZip = new File(args[0]);
-        File outZip = new File(args[1]);
-        boolean useOldMethod = args.length >= 3 && Objects.equals(args[2], "old");
+        File inZip = workingDirectory.resolve(positional.get(0)).toFile();
+        File outZip = workingDirectory.resolve(positional.get(1)).toFile();
+        boolean useOldMethod = positional.size() == 3;
 
         if (!inZip.exists()) {
-            System.err.println("Input file doesn't exist: " + inZip.getPath());
-            System.exit(1);
+            err.println("Input file doesn't exist: " + inZip.getPath());
+            return 1;
         }
 
         if (inZip.isDirectory()) {
-            System.err.println("Input path must be of a file: " + inZip.getPath());
-            System.exit(1);
+            if (useOldMethod || printStats) {
+                err.println("The old method and stats are only for a single file: " + inZip.getPath());
+                return 1;
+            }
+
+            return alignDirectory(inZip, outZip, parallelism, verifyCrc, out, err);
         }
 
         if (!outZip.createNewFile()) {
-            System.err.println("Output file already exists: " + outZip.getPath());
-            System.exit(1);
+            err.println("Output file already exists: " + outZip.getPath());
+            return 1;
         }
 
-        System.out.println("Aligning zip " + inZip);
+        out.println("Aligning zip " + inZip);
         long start = System.currentTimeMillis();
 
+        ZipAligner aligner = aligner(parallelismGiven ? parallelism : 1, printStats, verifyCrc);
+        lastStats.remove();
+
+        try {
+            int exitCode = alignFile(aligner, inZip, outZip, useOldMethod, parallelismGiven, out);
+            if (exitCode != 0) return exitCode;
+        } catch (IOException | RuntimeException e) {
+            // don't leave a partially written zip behind
+            Files.deleteIfExists(outZip.toPath());
+            throw e;
+        }
+
+        out.println("Zip aligned successfully, took " + (System.currentTimeMillis() - start) + "ms");
+        if (lastStats.get() != null) out.println(lastStats.get().toJson());
+
+        return 0;
+    }
+
+    /**
+     * Aligns a single zip file into the given output file, which already exists.
+     *
+     * @param concurrent Whether the zip is written by the copy threads of the aligner
+     * @return The exit code
+     */
+    private static int alignFile(ZipAligner aligner, File inZip, File outZip, boolean useOldMethod,
+                                 boolean concurrent, PrintStream out) throws IOException {
         if (useOldMethod) {
             try (FileInputStream in = new FileInputStream(inZip)) {
-                try (FileOutputStream out = new FileOutputStream(outZip)) {
-                    ZipAlign.alignZip(in, out);
+                try (FileOutputStream zipOut = new FileOutputStream(outZip)) {
+                    aligner.alignZip(in, zipOut);
+                } catch (CrcMismatchException e) {
+                    return crcMismatch(e, outZip, out);
+                } catch (InvalidZipException e) {
+                    throw new RuntimeException(e);
                 }
             }
+        } else if (concurrent) {
+            // a single zip is written by many threads at once
+            try (FileChannel in = FileChannel.open(inZip.toPath(), StandardOpenOption.READ);
+                 FileChannel zipOut = FileChannel.open(outZip.toPath(), StandardOpenOption.WRITE)) {
+                aligner.alignZip(in, zipOut);
+            } catch (CrcMismatchException e) {
+                return crcMismatch(e, outZip, out);
+            } catch (InvalidZipException e) {
+                throw new RuntimeException(e);
+            }
         } else {
             try (RandomAccessFile raf = new RandomAccessFile(inZip, "r")) {
                 try (FileOutputStream zipOut = new FileOutputStream(outZip)) {
-                    ZipAlign.alignZip(raf, zipOut);
+                    aligner.alignZip(raf, zipOut);
+                } catch (CrcMismatchException e) {
+                    return crcMismatch(e, outZip, out);
                 } catch (InvalidZipException e) {
                     throw new RuntimeException(e);
                 }
             }
         }
 
-        System.out.println("Zip aligned successfully, took " + (System.currentTimeMillis() - start) + "ms");
+        return 0;
+    }
+
+    /**
+     * Prints every stored entry that doesn't match its CRC-32, and deletes the aligned zip that has them.
+     *
+     * @return The exit code
+     */
+    private static int crcMismatch(CrcMismatchException e, File outZip, PrintStream out) throws IOException {
+        printMismatches(e.getMismatches(), out);
+        Files.deleteIfExists(outZip.toPath());
+
+        out.println("CRC-32 verification FAILED, the aligned zip was deleted");
+        return 1;
+    }
+
+    private static void printMismatches(List<CrcMismatchException.Entry> mismatches, PrintStream out) {
+        for (CrcMismatchException.Entry entry : mismatches) {
+            out.println(String.format("%8d %s (BAD CRC-32 - %08x, should be %08x)",
+                    entry.getDataOffset(), entry.getName(), entry.getActualCrc(), entry.getExpectedCrc()));
+        }
+    }
+
+    /**
+     * @return An aligner of 4-byte alignment and 16KiB .so file alignment, that keeps the stats of the last zip it
+     * aligned on each thread and verifies CRC-32s when asked to
+     */
+    private static ZipAligner aligner(int copyParallelism, boolean keepStats, boolean verifyCrc) {
+        Integer key = copyParallelism * 4 + (keepStats ? 1 : 0) + (verifyCrc ? 2 : 0);
+
+        ZipAligner aligner = aligners.get(key);
+        if (aligner != null) return aligner;
+
+        aligner = new ZipAligner.Builder()
+                .alignment(4)
+                .soFileAlignment(16384)
+                .copyParallelism(copyParallelism)
+                .verifyCrc(verifyCrc)
+                .listener(!keepStats ? null : new AlignListener() {
+                    @Override
+                    public void onAligned(AlignStats alignStats) {
+                        lastStats.set(alignStats);
+                    }
+                })
+                .build();
+
+        ZipAligner existing = aligners.putIfAbsent(key, aligner);
+        return existing != null ? existing : aligner;
+    }
+
+    private static int alignDirectory(File inDir, File outDir, int parallelism, boolean verifyCrc, PrintStream out,
+                                      PrintStream err) throws IOException {
+        if (outDir.exists() && !outDir.isDirectory()) {
+            err.println("Output path must be of a directory: " + outDir.getPath());
+            return 1;
+        }
+
+        final Path inPath = inDir.toPath().toAbsolutePath().normalize();
+        final Path outPath = outDir.toPath().toAbsolutePath().normalize();
+
+        final ArrayList<Path> zips = new ArrayList<>();
+        Files.walkFileTree(inPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // the output directory could be inside of the input directory
+                return dir.equals(outPath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+
+                for (String extension : ZIP_EXTENSIONS) {
+                    if (attrs.isRegularFile() && name.endsWith(extension)) {
+                        zips.add(file);
+                        break;
+                    }
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        Collections.sort(zips);
+
+        LinkedHashMap<Path, Path> jobs = new LinkedHashMap<>();
+        int failed = 0;
+
+        for (Path zip : zips) {
+            Path output = outPath.resolve(inPath.relativize(zip).toString());
+
+            if (Files.exists(output)) {
+                err.println("Output file already exists: " + output);
+                failed++;
+                continue;
+            }
+
+            jobs.put(zip, output);
+        }
+
+        out.println("Aligning " + jobs.size() + " zips in " + inDir + " with " + parallelism + " threads");
+        long start = System.currentTimeMillis();
+
+        List<AlignResult> results;
+        try {
+            results = aligner(1, false, verifyCrc).alignAll(jobs, parallelism);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (AlignResult result : results) {
+            if (result.isSuccessful()) {
+                out.println(String.format("%8dms %s", result.getElapsedMillis(), result.getInput()));
+            } else {
+                out.println(String.format("  FAILED %s: %s", result.getInput(), result.getFailure()));
+                printMismatches(result.getCrcMismatches(), out);
+                failed++;
+            }
+        }
+
+        long took = System.currentTimeMillis() - start;
+
+        if (failed == 0) {
+            out.println("Zips aligned successfully, " + results.size() + " zips took " + took + "ms");
+            return 0;
+        } else {
+            out.println(failed + " out of " + zips.size() + " zips FAILED to be aligned, took " + took + "ms");
+            return 1;
+        }
+    }
+
+    private static int check(String path, boolean stopAtFirstViolation, Path workingDirectory, PrintStream out,
+                             PrintStream err) throws IOException {
+        File inZip = workingDirectory.resolve(path).toFile();
+
+        if (!inZip.isFile()) {
+            err.println("Input file doesn't exist: " + inZip.getPath());
+            return 1;
+        }
+
+        out.println("Verifying alignment of " + inZip);
+        long start = System.currentTimeMillis();
+
+        AlignmentReport report;
+        try (RandomAccessFile raf = new RandomAccessFile(inZip, "r")) {
+            report = ZipAlign.check(raf, 4, 16384, stopAtFirstViolation);
+        } catch (InvalidZipException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (AlignmentReport.Entry entry : report.getViolations()) {
+            out.println(String.format("%8d %s (BAD - %d, should be aligned to %d bytes)",
+                    entry.getDataOffset(), entry.getName(), entry.getMisalignment(), entry.getRequiredAlignment()));
+        }
+
+        long took = System.currentTimeMillis() - start;
+
+        if (report.isAligned()) {
+            out.println("Verification succeeded, " + report.getEntries().size() + " entries checked, took "
+                    + took + "ms");
+            return 0;
+        } else {
+            out.println("Verification FAILED, took " + took + "ms");
+            return 1;
+        }
     }
 }
@@ -0,0 +1,395 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the aligned version of a zip by applying an {@link AlignmentPlan} onto it, either in one forward pass into a
+ * {@link ZipSink}, or split into segments that are written concurrently into a {@link FileChannel}.<br/>
+ * <br/>
+ * The plan fully determines where every byte of the zip ends up: a byte is shifted by the padding of every alignment
+ * before it. The zip is split into segments at positions that aren't inside of a patched field or an extra field
+ * that gets padded, every segment then knows where its output starts and is written on its own with positional reads
+ * and writes. The central directory and the records after it always end up in the last segment, their offsets are
+ * patched as the central directory is read through in blocks.
+ */
+class PlanExecutor {
+    // segments smaller than this aren't worth a thread of their own
+    static final long MIN_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // the buffer that every worker reads into and writes from
+    private static final int WORKER_BUFFER_SIZE = 1024 * 1024;
+
+    // large enough to hold a central directory entry with the longest filename and extra field possible
+    private static final int CENTRAL_DIRECTORY_BLOCK_SIZE = 256 * 1024;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Writes the aligned version of the zip into the given sink in one forward pass, and finishes it.
+     *
+     * @param buffers Where the block that the central directory is read through is taken from
+     */
+    static void apply(AlignmentPlan plan, SeekableByteChannel src, ZipSink output, AlignBuffers buffers)
+            throws IOException {
+        applyRange(plan, src, output, 0, plan.fileLength, 0, 0, buffers);
+        output.finish();
+    }
+
+    /**
+     * Writes the aligned version of everything before the central directory into the given sink, without finishing
+     * it. Nothing is read from the source by this alone, it's only handed to the sink's copies.
+     */
+    static void applyEntries(AlignmentPlan plan, SeekableByteChannel src, ZipSink output) throws IOException {
+        applyRange(plan, src, output, 0, plan.centralDirOffset, 0, plan.shifts.size(), null);
+    }
+
+    /**
+     * Reads the central directory and every record after it, with the local file header offsets in the central
+     * directory and the offsets in the records after it already shifted.
+     *
+     * @param stats Where the read is counted in, may be null
+     * @return The aligned version of the zip from the start of its central directory to its end
+     *
+     * @throws InvalidZipException Will be thrown when they're too large to be held in memory
+     */
+    static byte[] readPatchedTail(AlignmentPlan plan, SeekableByteChannel src, StatsRecorder stats)
+            throws IOException, InvalidZipException {
+
+        long tailOffset = plan.centralDirOffset;
+        if (plan.fileLength - tailOffset > Integer.MAX_VALUE)
+            throw new InvalidZipException("Central directory is too large: " + (plan.fileLength - tailOffset) + " bytes");
+
+        byte[] tail = new byte[(int) (plan.fileLength - tailOffset)];
+        ByteBuffer tailBuffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelCopier.readFully(src, tailBuffer, tailOffset, stats);
+
+        // the local file header offsets in the central directory
+        int entryStart = 0;
+
+        while (entryStart + 46 <= plan.centralDirSize && tailBuffer.getInt(entryStart) == CENTRAL_DIRECTORY_SIGNATURE) {
+            int fieldStart = CentralDirectory.localHeaderOffsetFieldStart(tailBuffer, entryStart);
+
+            if (fieldStart == entryStart + 42) {
+                long fileOffset = tailBuffer.getInt(fieldStart) & 0xffffffffL;
+                tailBuffer.putInt(fieldStart, (int) plan.getShiftedPosition(fileOffset));
+            } else if (fieldStart != -1) {
+                tailBuffer.putLong(fieldStart, plan.getShiftedPosition(tailBuffer.getLong(fieldStart)));
+            }
+
+            entryStart += 46 + (tailBuffer.getShort(entryStart + 28) & 0xffff)
+                    + (tailBuffer.getShort(entryStart + 30) & 0xffff) + (tailBuffer.getShort(entryStart + 32) & 0xffff);
+        }
+
+        // the offsets in the records after it
+        for (AlignmentPlan.FileOffsetShift shift : plan.shifts) {
+            if (shift.width == 8) {
+                tailBuffer.putLong((int) (shift.position - tailOffset), shift.shiftedFileOffset);
+            } else {
+                tailBuffer.putInt((int) (shift.position - tailOffset), (int) shift.shiftedFileOffset);
+            }
+        }
+
+        return tail;
+    }
+
+    /**
+     * Writes the aligned version of the zip into the given channel, splitting it into segments that are written
+     * concurrently. The output is written starting at the current position of the channel, which is moved to the end
+     * of the aligned zip once done.
+     *
+     * @param plan The plan of the alignment
+     * @param src The zip, only read through positional reads
+     * @param out Where the aligned zip is going to be written to, only written through positional writes
+     * @param parallelism The maximum amount of segments that are written at the same time
+     * @param verifier Handed what every segment copies, the stored entries are left for it to finish; may be null
+     * @param stats Where the reads and writes of every worker are added into once they're done
+     */
+    static void applyParallel(final AlignmentPlan plan, final FileChannel src, final FileChannel out, int parallelism,
+                              final CrcVerifier verifier, StatsRecorder stats) throws IOException {
+
+        final long outputStart = out.position();
+        final List<Segment> segments = split(plan, parallelism);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, segments.size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "zipalign-copy-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // the workers take the next segment that's not yet taken, until there's none left
+        final AtomicInteger next = new AtomicInteger();
+        ArrayList<Future<StatsRecorder>> workers = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < Math.min(parallelism, segments.size()); i++) {
+                workers.add(executor.submit(new Callable<StatsRecorder>() {
+                    @Override
+                    public StatsRecorder call() throws IOException {
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(WORKER_BUFFER_SIZE);
+                        // only the block for the central directory is taken from these, by the worker that gets to it
+                        AlignBuffers workerBuffers = new AlignBuffers(0);
+                        int index;
+
+                        while ((index = next.getAndIncrement()) < segments.size()) {
+                            Segment segment = segments.get(index);
+                            CrcVerifier.Feed feed = verifier != null ? verifier.feed() : null;
+                            PositionalOutput output = new PositionalOutput(out, buffer,
+                                    outputStart + segment.outputOffset, workerBuffers.stats, feed);
+
+                            applyRange(plan, src, output, segment.from, segment.to, segment.alignmentIndex,
+                                    segment.shiftIndex, workerBuffers);
+                            output.finish();
+
+                            if (feed != null) feed.finish();
+                        }
+
+                        return workerBuffers.stats;
+                    }
+                }));
+            }
+
+            for (Future<StatsRecorder> worker : workers) {
+                try {
+                    stats.add(worker.get());
+                } catch (ExecutionException e) {
+                    // the rest of the segments are abandoned
+                    next.set(segments.size());
+
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new IOException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            next.set(segments.size());
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while writing the aligned zip");
+        } finally {
+            executor.shutdown();
+        }
+
+        out.position(outputStart + plan.fileLength + plan.shiftAmount);
+    }
+
+    /**
+     * Writes the range {@code [from, to)} of the zip with the alignments and shifts inside of it applied. A range
+     * that has the start of the central directory in it has the rest of the zip in it too.
+     *
+     * @param alignmentIndex The index of the first alignment whose local file header is at or after {@code from}
+     * @param shiftIndex The index of the first shift that is at or after {@code from}
+     * @param buffers Where the block that the central directory is read through is taken from
+     */
+    private static void applyRange(AlignmentPlan plan, SeekableByteChannel src, ZipSink output, long from, long to,
+                                   int alignmentIndex, int shiftIndex, AlignBuffers buffers) throws IOException {
+        AlignmentTable alignments = plan.alignments;
+        long position = from;
+
+        // this aligns files to the defined boundaries by padding null bytes to the extra field
+        for (int i = alignmentIndex; i < alignments.size(); i++) {
+            long extraFieldLenOffset = alignments.extraFieldLenOffset(i);
+            if (extraFieldLenOffset >= to) break;
+
+            output.copy(src, position, extraFieldLenOffset - position);
+
+            // the changed extra field length
+            output.writeLittleEndian(alignments.extraFieldLenValue(i), 2);
+            output.copy(src, extraFieldLenOffset + 2, alignments.extraFieldExtensionOffset(i));
+
+            if (alignments.fieldAlignment(i) != 0) {
+                AlignmentExtraField.write(output, alignments.padding(i), alignments.fieldAlignment(i));
+            } else {
+                output.writeZeros(alignments.padding(i)); // sneak in null bytes
+            }
+
+            // skip the existing padding that's replaced
+            position = alignments.paddingEnd(i);
+        }
+
+        // the offsets that reference to other parts of the file that got shifted by the padding: the "file offset"
+        // defined in central directory headers
+        if (from <= plan.centralDirOffset && plan.centralDirOffset < to && alignments.size() != 0)
+            position = patchCentralDirectory(plan, src, output, position, buffers);
+
+        // then the central directory offset defined in the Zip64 EOCD record, the Zip64 EOCD record offset in its
+        // locator, and finally the EOCDR's "EOCDH start offset" field
+        for (int i = shiftIndex; i < plan.shifts.size(); i++) {
+            AlignmentPlan.FileOffsetShift shift = plan.shifts.get(i);
+            if (shift.position >= to) break;
+
+            output.copy(src, position, shift.position - position);
+            output.writeLittleEndian(shift.shiftedFileOffset, shift.width);
+
+            position = shift.position + shift.width;
+        }
+
+        // write all that's left
+        output.copy(src, position, to - position);
+    }
+
+    /**
+     * Copies the central directory up to the local file header offset of each of its entries, and writes the offset
+     * shifted by the alignments before it in its place. The central directory is only read to find the offsets, the
+     * copies are still made from the source channel.
+     *
+     * @param position Where the copying is at, at or before the start of the central directory
+     * @return Where the copying is at afterwards
+     */
+    private static long patchCentralDirectory(AlignmentPlan plan, SeekableByteChannel src, ZipSink output,
+                                              long position, AlignBuffers buffers) throws IOException {
+
+        long centralDirEnd = plan.centralDirOffset + plan.centralDirSize;
+
+        byte[] block = buffers.block((int) Math.min(CENTRAL_DIRECTORY_BLOCK_SIZE, plan.centralDirSize));
+        ByteBuffer blockBuffer = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+
+        // the part of the central directory that is in the block
+        long blockStart = plan.centralDirOffset;
+        int blockLength = 0;
+
+        long entry = plan.centralDirOffset;
+
+        while (entry + 46 <= centralDirEnd) {
+            int entryStart = (int) (entry - blockStart);
+
+            // the entry along with its filename and extra field must be in the block, its comment doesn't matter
+            if (entryStart + 46 > blockLength
+                    || entryStart + 46 + (blockBuffer.getShort(entryStart + 28) & 0xffff)
+                    + (blockBuffer.getShort(entryStart + 30) & 0xffff) > blockLength) {
+
+                blockStart = entry;
+                blockLength = (int) Math.min(block.length, centralDirEnd - entry);
+                entryStart = 0;
+
+                blockBuffer.clear().limit(blockLength);
+                ChannelCopier.readFully(src, blockBuffer, blockStart, buffers.stats);
+                blockBuffer.clear();
+            }
+
+            if (blockBuffer.getInt(entryStart) != CENTRAL_DIRECTORY_SIGNATURE) break;
+
+            int fileNameLen = blockBuffer.getShort(entryStart + 28) & 0xffff;
+            int extraFieldLen = blockBuffer.getShort(entryStart + 30) & 0xffff;
+            int commentLen = blockBuffer.getShort(entryStart + 32) & 0xffff;
+
+            // an entry that exceeds the central directory was rejected when the zip was analyzed
+            if (entryStart + 46 + fileNameLen + extraFieldLen > blockLength) break;
+
+            int fieldStart = CentralDirectory.localHeaderOffsetFieldStart(blockBuffer, entryStart);
+
+            if (fieldStart != -1) {
+                int width = fieldStart == entryStart + 42 ? 4 : 8;
+                long fileOffset = width == 4
+                        ? blockBuffer.getInt(fieldStart) & 0xffffffffL
+                        : blockBuffer.getLong(fieldStart);
+
+                long shift = plan.alignments.shiftAt(fileOffset);
+
+                if (shift != 0) {
+                    long fieldPosition = blockStart + fieldStart;
+
+                    output.copy(src, position, fieldPosition - position);
+                    output.writeLittleEndian(fileOffset + shift, width);
+
+                    position = fieldPosition + width;
+                }
+            }
+
+            entry += 46 + fileNameLen + extraFieldLen + commentLen;
+        }
+
+        return position;
+    }
+
+    /**
+     * Splits the zip into segments of about the same size, a few per thread so that a slow one doesn't hold up the
+     * rest.
+     */
+    static List<Segment> split(AlignmentPlan plan, int parallelism) {
+        long target = Math.max(MIN_SEGMENT_SIZE, plan.fileLength / (parallelism * 4L) + 1);
+
+        ArrayList<Segment> segments = new ArrayList<>();
+        AlignmentTable alignments = plan.alignments;
+
+        int alignmentIndex = 0;
+        long from = 0;
+
+        while (from < plan.fileLength) {
+            long to = from + target >= plan.fileLength ? plan.fileLength : safeSplit(plan, from + target);
+
+            // every shift is after the central directory, so they're all in the last segment
+            int shiftIndex = to == plan.fileLength ? 0 : plan.shifts.size();
+            segments.add(new Segment(from, to, alignmentIndex, shiftIndex, from + alignments.shiftAt(from)));
+
+            alignmentIndex = alignments.indexAt(to);
+            from = to;
+        }
+
+        return segments;
+    }
+
+    /**
+     * @return The closest position at or after the given one that isn't between the extra field length of a local file
+     * header and the end of the existing padding that is replaced; or the end of the zip when the position is past the
+     * start of the central directory
+     */
+    private static long safeSplit(AlignmentPlan plan, long position) {
+        // the central directory and the records after it are patched in one go
+        if (position > plan.centralDirOffset) return plan.fileLength;
+
+        AlignmentTable alignments = plan.alignments;
+
+        // the last alignment whose extra field length is at or before the position
+        int index = alignments.indexAt(position + 1) - 1;
+
+        if (index >= 0 && position <= alignments.paddingEnd(index))
+            position = alignments.paddingEnd(index) + 1;
+
+        return Math.min(position, plan.centralDirOffset);
+    }
+
+    static class Segment {
+        // the range of the segment in the original zip
+        final long from;
+        final long to;
+
+        final int alignmentIndex;
+        final int shiftIndex;
+
+        // where the segment starts in the aligned zip
+        final long outputOffset;
+
+        Segment(long from, long to, int alignmentIndex, int shiftIndex, long outputOffset) {
+            this.from = from;
+            this.to = to;
+            this.alignmentIndex = alignmentIndex;
+            this.shiftIndex = shiftIndex;
+            this.outputOffset = outputOffset;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Writes a range of an aligned zip into a {@link FileChannel} at a fixed position, with positional writes only. Many
+ * of them can write into the same channel at the same time as long as their ranges don't overlap.
+ */
+class PositionalOutput implements ZipSink {
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final FileChannel out;
+    private final ByteBuffer buffer;
+
+    // where the contents of the buffer are going to be written to
+    private long position;
+
+    private final StatsRecorder stats;
+    // checksums the stored entries out of the copied ranges, null when they aren't verified
+    private final CrcVerifier.Feed feed;
+
+    PositionalOutput(FileChannel out, ByteBuffer buffer, long position, StatsRecorder stats, CrcVerifier.Feed feed) {
+        this.out = out;
+        this.buffer = buffer;
+        this.position = position;
+        this.stats = stats;
+        this.feed = feed;
+
+        buffer.clear();
+    }
+
+    @Override
+    public void copy(SeekableByteChannel src, long position, long count) throws IOException {
+        stats.bytesCopied += count;
+
+        while (count > 0) {
+            if (!buffer.hasRemaining()) drain();
+
+            int chunk = (int) Math.min(count, buffer.remaining());
+            buffer.limit(buffer.position() + chunk);
+            ChannelCopier.readFully(src, buffer, position, stats);
+
+            if (feed != null) {
+                buffer.position(buffer.position() - chunk);
+                feed.update(position, buffer);
+                buffer.position(buffer.limit());
+            }
+
+            buffer.limit(buffer.capacity());
+
+            position += chunk;
+            count -= chunk;
+        }
+    }
+
+    @Override
+    public void writeLittleEndian(long value, int width) throws IOException {
+        if (buffer.remaining() < width) drain();
+
+        for (int i = 0; i < width; i++) {
+            buffer.put((byte) (value >>> (i * 8)));
+        }
+    }
+
+    @Override
+    public void writeZeros(int amount) throws IOException {
+        stats.paddingBytes += amount;
+
+        while (amount > 0) {
+            if (!buffer.hasRemaining()) drain();
+
+            int count = Math.min(amount, Math.min(buffer.remaining(), ZEROS.length));
+            buffer.put(ZEROS, 0, count);
+            amount -= count;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+
+        ChannelCopier.writeFully(out, buffer, position, stats);
+        position += count;
+
+        buffer.clear();
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.List;
+
+/**
+ * An {@link AlignmentPolicy} made by {@link AlignmentPolicy.Builder}: the patterns of its rules are compiled into one
+ * {@link GlobAutomaton}, the index of the pattern that matches is the index of the rule.
+ */
+class RuleAlignmentPolicy implements AlignmentPolicy {
+    private final List<String> patterns;
+    private final int[] alignments;
+    private final int storedAlignment;
+    private final GlobAutomaton automaton;
+
+    RuleAlignmentPolicy(List<String> patterns, int[] alignments, int storedAlignment, GlobAutomaton automaton) {
+        this.patterns = patterns;
+        this.alignments = alignments;
+        this.storedAlignment = storedAlignment;
+        this.automaton = automaton;
+    }
+
+    @Override
+    public int requiredAlignment(byte[] name, int start, int length, int compressionMethod) {
+        int rule = automaton.match(name, start, length);
+        if (rule != GlobAutomaton.NO_MATCH) return alignments[rule];
+
+        return compressionMethod == 0 ? storedAlignment : 0;
+    }
+
+    /**
+     * @return The largest alignment that this policy requires of any entry
+     */
+    int maxAlignment() {
+        int max = storedAlignment;
+        for (int alignment : alignments) max = Math.max(max, alignment);
+
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < alignments.length; i++) {
+            rules.append(patterns.get(i)).append('=').append(alignments[i]).append(", ");
+        }
+
+        return "RuleAlignmentPolicy{" +
+                "rules=[" + (rules.length() == 0 ? "" : rules.substring(0, rules.length() - 2)) + ']' +
+                ", storedAlignment=" + storedAlignment +
+                ", states=" + automaton.stateCount() +
+                '}';
+    }
+}
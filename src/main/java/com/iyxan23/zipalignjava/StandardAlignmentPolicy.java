@@ -0,0 +1,58 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@link AlignmentPolicy#standard(int, int) policy of zipalign}. It decides the same as a policy built with a
+ * ".so" suffix rule and a stored alignment, but compares the end of the name directly instead of compiling a
+ * {@link GlobAutomaton}; compiling one is a good part of what a short run of the command line does before it gets to
+ * align anything.
+ */
+class StandardAlignmentPolicy implements AlignmentPolicy {
+    private static final byte[] SO_SUFFIX = ".so".getBytes(StandardCharsets.US_ASCII);
+
+    private final int alignment;
+    private final int soFileAlignment;
+
+    StandardAlignmentPolicy(int alignment, int soFileAlignment) {
+        this.alignment = alignment;
+        this.soFileAlignment = soFileAlignment;
+    }
+
+    @Override
+    public int requiredAlignment(byte[] name, int start, int length, int compressionMethod) {
+        if (soFileAlignment != 0 && endsWithSoSuffix(name, start, length)) return soFileAlignment;
+
+        return compressionMethod == 0 ? alignment : 0;
+    }
+
+    private static boolean endsWithSoSuffix(byte[] name, int start, int length) {
+        if (length < SO_SUFFIX.length) return false;
+
+        int offset = start + length - SO_SUFFIX.length;
+        for (int i = 0; i < SO_SUFFIX.length; i++) {
+            if (name[offset + i] != SO_SUFFIX[i]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The largest alignment that this policy requires of any entry
+     */
+    int maxAlignment() {
+        return Math.max(alignment, soFileAlignment);
+    }
+
+    @Override
+    public String toString() {
+        return "StandardAlignmentPolicy{" +
+                "alignment=" + alignment +
+                ", soFileAlignment=" + soFileAlignment +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.util.Arrays;
+
+/**
+ * The counters behind {@link AlignStats}, bumped from the hot paths as they go. Like {@link AlignBuffers}, an instance
+ * must only be used by one thread at a time; the workers of a concurrent copy count into their own and get
+ * {@link #add(StatsRecorder) added} together afterwards.
+ */
+class StatsRecorder {
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    // told about every phase, may be null
+    private AlignListener listener;
+    // null when the JVM doesn't have Java Flight Recorder
+    private final JfrEvents jfr = JFR_AVAILABLE ? new JfrEvents() : null;
+
+    private long started = System.nanoTime();
+    private long phaseStarted;
+
+    long archiveSize;
+    long entriesScanned;
+    long storedEntriesAligned;
+    long soEntriesAligned;
+    long paddingBytes;
+    long bytesCopied;
+    long readCalls;
+    long seekCalls;
+    long writeCalls;
+    final long[] phaseNanos = new long[AlignStats.Phase.values().length];
+
+    /**
+     * Clears every counter for a new alignment, which starts now. Workers that only count calls don't need this.
+     *
+     * @param listener Who is going to be told about the phases of the alignment, may be null
+     */
+    void reset(AlignListener listener) {
+        this.listener = listener;
+
+        archiveSize = 0;
+        entriesScanned = storedEntriesAligned = soEntriesAligned = 0;
+        paddingBytes = bytesCopied = 0;
+        readCalls = seekCalls = writeCalls = 0;
+        Arrays.fill(phaseNanos, 0);
+
+        if (jfr != null) jfr.beginAlignment();
+        started = System.nanoTime();
+    }
+
+    /**
+     * Starts timing a phase, phases never overlap.
+     */
+    void startPhase() {
+        if (jfr != null) jfr.beginPhase();
+        phaseStarted = System.nanoTime();
+    }
+
+    /**
+     * Records that the phase started by the last {@link #startPhase()} is done.
+     */
+    void endPhase(AlignStats.Phase phase) {
+        long nanos = System.nanoTime() - phaseStarted;
+        phaseNanos[phase.ordinal()] += nanos;
+
+        if (jfr != null) jfr.endPhase(phase, archiveSize);
+        if (listener != null) listener.onPhase(phase, nanos);
+    }
+
+    /**
+     * Records that the alignment started by the last {@link #reset(AlignListener)} is done.
+     *
+     * @return What the alignment did
+     */
+    AlignStats finish() {
+        AlignStats stats = snapshot();
+        if (jfr != null) jfr.endAlignment(this, stats.getTotalNanos());
+
+        return stats;
+    }
+
+    /**
+     * Adds the counters of another recorder into this one, its phases are left out.
+     */
+    void add(StatsRecorder other) {
+        archiveSize += other.archiveSize;
+        entriesScanned += other.entriesScanned;
+        storedEntriesAligned += other.storedEntriesAligned;
+        soEntriesAligned += other.soEntriesAligned;
+        paddingBytes += other.paddingBytes;
+        bytesCopied += other.bytesCopied;
+        readCalls += other.readCalls;
+        seekCalls += other.seekCalls;
+        writeCalls += other.writeCalls;
+    }
+
+    /**
+     * @return The counters so far, timed from the last {@link #reset(AlignListener)}
+     */
+    AlignStats snapshot() {
+        return new AlignStats(archiveSize, entriesScanned, storedEntriesAligned, soEntriesAligned, paddingBytes,
+                bytesCopied, readCalls, seekCalls, writeCalls, phaseNanos.clone(), System.nanoTime() - started);
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
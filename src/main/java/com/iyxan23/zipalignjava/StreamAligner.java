@@ -0,0 +1,675 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Aligns a zip that can only be read once from the start to the end (e.g. from a pipe or a socket).<br/>
+ * <br/>
+ * The input is read through a large window, local file headers are padded as they go by while the original and the
+ * shifted offset of each one is remembered; the central directory, the Zip64 EOCD record and locator, and the EOCD
+ * record that come after them are then patched with the shifted offsets. The data of an entry is passed through in
+ * blocks using the compressed size of its local file header, entries whose size is only known from their data
+ * descriptor are searched for the descriptor one window at a time: either its signature, or (for descriptors without
+ * one) the record that follows it. An APK signing block between the last entry and the central directory is passed
+ * as is, but it is only recognized after a descriptor without a signature when it fits in the window.<br/>
+ * <br/>
+ * When stored entries are verified, their data is checksummed as it is passed and compared with the CRC-32 of their
+ * central directory entry once it comes by.
+ */
+class StreamAligner {
+    // large enough to hold a central directory entry with the longest filename, extra field and comment possible
+    static final int WINDOW_SIZE = 256 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+
+    // "APK Sig Block 42", at the end of an APK signing block right before the central directory
+    private static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final long APK_SIG_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+
+    private final InputStream in;
+    private final CoalescingOutput out;
+    private final StatsRecorder stats;
+    private final AlignmentPolicy policy;
+    private final boolean alignmentField;
+
+    private final byte[] window;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    // the position of window[pos] in the input, and the amount of bytes written to the output
+    private long inputPosition;
+    private long written;
+
+    // the original and the shifted offset of every local file header, in the order of where they are in the input
+    private long[] headerOffsets = new long[64];
+    private long[] shiftedHeaderOffsets = new long[64];
+    private int headerCount;
+
+    // where the data of every local file header starts, how long it is and its CRC-32 (-1 when it isn't stored); all
+    // null when stored entries aren't verified
+    private long[] dataOffsets;
+    private long[] dataSizes;
+    private long[] dataCrcs;
+
+    // the CRC-32 of the data that is being passed, null when it isn't checksummed
+    private CRC32 checksumming;
+    private final CRC32 crc = new CRC32();
+
+    private final ArrayList<CrcMismatchException.Entry> mismatches = new ArrayList<>();
+
+    private StreamAligner(InputStream in, OutputStream out, AlignmentPolicy policy, boolean alignmentField,
+                          boolean verifyCrc, AlignBuffers buffers) {
+        this.in = in;
+        this.out = new CoalescingOutput(out, buffers.output(), buffers.stats, null);
+        this.stats = buffers.stats;
+        this.policy = policy;
+        this.alignmentField = alignmentField;
+        this.window = buffers.block(WINDOW_SIZE);
+
+        if (verifyCrc) {
+            dataOffsets = new long[headerOffsets.length];
+            dataSizes = new long[headerOffsets.length];
+            dataCrcs = new long[headerOffsets.length];
+        }
+    }
+
+    /**
+     * Aligns the zip read from the given input stream and writes it into the given output stream, the output is
+     * flushed once done.
+     *
+     * @param policy Decides what the data of every entry is aligned to
+     * @param alignmentField Whether misaligned entries get their existing padding replaced by an alignment extra
+     *                       field (0xD935), instead of having null bytes appended to their extra field
+     * @param verifyCrc Whether the data of every stored entry is verified against the CRC-32 of its central directory
+     *                  entry
+     * @param buffers Where the window and the output buffer are taken from
+     *
+     * @throws CrcMismatchException Will be thrown once the whole zip is written, when stored entries are verified and
+     *                              some of them don't match their CRC-32s
+     */
+    static void align(InputStream in, OutputStream out, AlignmentPolicy policy, boolean alignmentField,
+                      boolean verifyCrc, AlignBuffers buffers) throws IOException, InvalidZipException {
+        buffers.stats.startPhase();
+
+        StreamAligner aligner = new StreamAligner(in, out, policy, alignmentField, verifyCrc, buffers);
+        aligner.run();
+
+        buffers.stats.archiveSize = aligner.inputPosition;
+        buffers.stats.endPhase(AlignStats.Phase.STREAMING);
+    }
+
+    private void run() throws IOException, InvalidZipException {
+        int signature = nextSignature();
+
+        while (signature == LOCAL_HEADER_SIGNATURE) {
+            alignEntry();
+            signature = nextSignature();
+        }
+
+        if (signature != CENTRAL_DIRECTORY_SIGNATURE && signature != ZIP64_EOCD_SIGNATURE
+                && signature != ZIP64_EOCD_LOCATOR_SIGNATURE && signature != EOCD_SIGNATURE) {
+            passApkSigningBlock();
+            signature = nextSignature();
+        }
+
+        long shiftedCentralDirOffset = written;
+
+        while (signature == CENTRAL_DIRECTORY_SIGNATURE) {
+            patchCentralDirectoryEntry();
+            signature = nextSignature();
+        }
+
+        long shiftedZip64EocdPosition = -1;
+
+        if (signature == ZIP64_EOCD_SIGNATURE) {
+            require(56);
+
+            // the size of the record doesn't include the signature and the size field itself
+            long recordSize = 12 + u64(4);
+            if (recordSize < 56)
+                throw new InvalidZipException("Zip64 end-of-central-directory record at " + inputPosition
+                        + " is too small: " + recordSize + " bytes");
+
+            shiftedZip64EocdPosition = written;
+            passPatched(56, 48, shiftedCentralDirOffset, 8);
+            pass(recordSize - 56);
+
+            signature = nextSignature();
+        }
+
+        if (signature == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+            require(20);
+
+            long zip64EocdPosition = shiftedZip64EocdPosition != -1 ? shiftedZip64EocdPosition : u64(8);
+            passPatched(20, 8, zip64EocdPosition, 8);
+
+            signature = nextSignature();
+        }
+
+        if (signature != EOCD_SIGNATURE)
+            throw new InvalidZipException(String.format("unexpected signature 0x%08x at %d, expected the "
+                    + "end-of-central-directory record", signature, inputPosition));
+
+        require(22);
+
+        boolean zip64 = shiftedZip64EocdPosition != -1;
+        long centralDirOffset = u32(16);
+
+        // the EOCD record's central directory offset is left as is when it defers to the Zip64 EOCD record
+        if (!zip64 || centralDirOffset != CentralDirectory.ZIP64_MAGIC_VALUE) {
+            if (shiftedCentralDirOffset < CentralDirectory.ZIP64_MAGIC_VALUE) {
+                centralDirOffset = shiftedCentralDirOffset;
+            } else if (zip64) {
+                centralDirOffset = CentralDirectory.ZIP64_MAGIC_VALUE;
+            } else {
+                throw new InvalidZipException("central directory would be shifted past 4GiB, but the zip doesn't "
+                        + "have a Zip64 end-of-central-directory record to hold its offset");
+            }
+        }
+
+        int commentLen = u16(20);
+        passPatched(22, 16, centralDirOffset, 4);
+        pass(commentLen);
+
+        // anything that comes after the zip is passed as is
+        while (fill()) pass(limit - pos);
+
+        out.finish();
+
+        if (mismatches.isEmpty()) return;
+
+        Collections.sort(mismatches, new Comparator<CrcMismatchException.Entry>() {
+            @Override
+            public int compare(CrcMismatchException.Entry a, CrcMismatchException.Entry b) {
+                return Long.compare(a.getDataOffset(), b.getDataOffset());
+            }
+        });
+
+        throw new CrcMismatchException(mismatches);
+    }
+
+    /**
+     * Passes the local file header at the start of the window with its extra field padded when its data needs to be
+     * aligned, then the data of the entry along with its data descriptor.
+     */
+    private void alignEntry() throws IOException, InvalidZipException {
+        require(30);
+
+        int flags = u16(6);
+        int compressionMethod = u16(8);
+        long compressedSize = u32(18);
+        int fileNameLen = u16(26);
+        int extraFieldLen = u16(28);
+
+        int headerLen = 30 + fileNameLen + extraFieldLen;
+        require(headerLen);
+
+        // sizes that don't fit in 32 bits are stored in the Zip64 extended information extra field, the local file
+        // header one always has both the uncompressed and the compressed size; its data descriptor has 64-bit sizes
+        int zip64Field = findExtraField(pos + 30 + fileNameLen, extraFieldLen, 0x0001);
+        boolean zip64 = zip64Field != -1;
+
+        if (compressedSize == CentralDirectory.ZIP64_MAGIC_VALUE && zip64 && u16(zip64Field - pos + 2) >= 16) {
+            compressedSize = u64(zip64Field - pos + 12);
+        }
+
+        stats.entriesScanned++;
+
+        // the filename is matched by the policy right in the window
+        int entryAlignment = policy.requiredAlignment(window, pos + 30, fileNameLen, compressionMethod);
+
+        recordHeader(inputPosition, written);
+
+        int padding = 0;
+        if (entryAlignment != 0) {
+            long dataPos = written + headerLen;
+            padding = ZipAlign.padding(dataPos, entryAlignment);
+
+            if (extraFieldLen + padding > 0xffff)
+                throw new InvalidZipException("extra field of the local file header at " + inputPosition
+                        + " is too large to be padded with " + padding + " bytes");
+        }
+
+        if (padding == 0) {
+            pass(headerLen);
+        } else {
+            if (isSoFile(pos + 30, fileNameLen)) stats.soEntriesAligned++;
+            else stats.storedEntriesAligned++;
+
+            if (alignmentField) {
+                replacePadding(fileNameLen, extraFieldLen, entryAlignment);
+            } else {
+                // pad the extra field with null bytes
+                passPatched(headerLen, 28, extraFieldLen + padding, 2);
+                writeZeros(padding);
+            }
+        }
+
+        boolean hasDataDescriptor = (flags & 0x8) == 0x8;
+
+        if (dataCrcs != null) {
+            dataOffsets[headerCount - 1] = inputPosition;
+            dataCrcs[headerCount - 1] = -1;
+
+            if (compressionMethod == 0) {
+                crc.reset();
+                checksumming = crc;
+            }
+        }
+
+        // the sizes of an entry that has a data descriptor are usually zero, they're only known from the descriptor
+        if (hasDataDescriptor && compressedSize == 0) {
+            passUntilDataDescriptor(zip64);
+            return;
+        }
+
+        pass(compressedSize);
+        endChecksum();
+
+        if (hasDataDescriptor) {
+            // the signature of a data descriptor is optional
+            if (ensure(4) && i32(0) == DATA_DESCRIPTOR_SIGNATURE) pass(4);
+            pass(zip64 ? 20 : 12);
+        }
+    }
+
+    /**
+     * Passes the data of an entry whose size isn't known until its data descriptor is found, along with the data
+     * descriptor itself. The signature of a descriptor is optional (pkware's spec 4.3.9.3), a descriptor is found
+     * either by its signature or by what comes right after it: the signature of a local file header or a central
+     * directory entry, or an APK signing block that fits in the window. Either is only taken as one when the compressed
+     * size in the descriptor matches the amount of bytes passed, since the signatures could also appear inside of the
+     * data.
+     */
+    private void passUntilDataDescriptor(boolean zip64) throws IOException, InvalidZipException {
+        long dataStart = inputPosition;
+
+        // the longest descriptor, or the longest one without a signature followed by the size of an APK signing block
+        int lookahead = zip64 ? 28 : 20;
+
+        while (true) {
+            if (!ensure(lookahead))
+                throw new InvalidZipException("Reached the end of the stream before the data descriptor of the data "
+                        + "at " + dataStart);
+
+            int end = limit - lookahead;
+            int found = -1;
+            int descriptorLen = 0;
+
+            for (int i = pos; i <= end && found == -1; i++) {
+                descriptorLen = dataDescriptorLength(i, inputPosition + i - pos - dataStart, zip64);
+                if (descriptorLen != 0) found = i;
+            }
+
+            if (found == -1) {
+                // the last bytes could be the start of a descriptor that continues in the next window
+                pass(end + 1 - pos);
+                continue;
+            }
+
+            pass(found - pos);
+
+            if (descriptorLen < 0) {
+                // the APK signing block that may come after it isn't all in the window yet
+                ensure(-descriptorLen);
+                continue;
+            }
+
+            endChecksum();
+            pass(descriptorLen);
+            return;
+        }
+    }
+
+    /**
+     * @param i Where the data descriptor would start in the window, at least {@code zip64 ? 28 : 20} bytes before the
+     *          end of the window
+     * @param dataLength The length of the data that would come before the data descriptor
+     * @return The length of the data descriptor at the given index of the window, 0 if there is none, or minus the
+     * amount of bytes from the given index that have to be in the window to tell
+     */
+    private int dataDescriptorLength(int i, long dataLength, boolean zip64) {
+        int offset = i - pos;
+
+        if (isSignature(i, 0x07, 0x08)) {
+            if (u32(offset + 8) == (dataLength & 0xffffffffL)) return 16;
+            if (zip64 && u64(offset + 8) == dataLength) return 24;
+        }
+
+        if (u32(offset + 4) == (dataLength & 0xffffffffL)) {
+            int length = endsData(i + 12);
+            if (length != 0) return length < 0 ? length - 12 : 12;
+        }
+
+        if (zip64 && u64(offset + 4) == dataLength) {
+            int length = endsData(i + 20);
+            if (length != 0) return length < 0 ? length - 20 : 20;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @param i Where the record after a data descriptor without a signature would start in the window
+     * @return 1 if a local file header, a central directory entry or an APK signing block starts at the given index
+     * of the window, 0 if none does, or minus the amount of bytes from the given index that have to be in the window
+     * to tell
+     */
+    private int endsData(int i) {
+        if (isRecordSignature(i)) return 1;
+
+        // the size of the block doesn't include the size field at its start, blocks larger than the window aren't
+        // recognized
+        long size = u64(i - pos);
+        if (size < 24 || size > window.length - 32) return 0;
+
+        int blockEnd = i + 8 + (int) size;
+        if (blockEnd > limit) return eof ? 0 : -(8 + (int) size);
+
+        return u64(blockEnd - 24 - pos) == size
+                && u64(blockEnd - 16 - pos) == APK_SIG_BLOCK_MAGIC_LO
+                && u64(blockEnd - 8 - pos) == APK_SIG_BLOCK_MAGIC_HI ? 1 : 0;
+    }
+
+    /**
+     * @return Whether the signature of a local file header or a central directory entry starts at the given index of
+     * the window
+     */
+    private boolean isRecordSignature(int i) {
+        return isSignature(i, 0x03, 0x04) || isSignature(i, 0x01, 0x02);
+    }
+
+    private boolean isSignature(int i, int third, int fourth) {
+        return window[i] == 0x50 && window[i + 1] == 0x4b && window[i + 2] == third && window[i + 3] == fourth;
+    }
+
+    /**
+     * Passes the APK signing block at the start of the window as is, it comes between the last entry and the central
+     * directory. The block starts and ends with its size, followed by a magic at its end.
+     */
+    private void passApkSigningBlock() throws IOException, InvalidZipException {
+        long blockStart = inputPosition;
+        require(8);
+
+        // the size of the block doesn't include the size field at its start
+        long size = u64(0);
+        if (size < 24 || size > Long.MAX_VALUE - 8)
+            throw new InvalidZipException(String.format("unexpected signature 0x%08x at %d, expected the central "
+                    + "directory or an APK signing block", i32(0), blockStart));
+
+        pass(8 + size - 24);
+        require(24);
+
+        if (u64(0) != size || u64(8) != APK_SIG_BLOCK_MAGIC_LO || u64(16) != APK_SIG_BLOCK_MAGIC_HI)
+            throw new InvalidZipException("data at " + blockStart + " is neither the central directory nor an APK "
+                    + "signing block");
+
+        pass(24);
+    }
+
+    /**
+     * Passes the central directory entry at the start of the window with its local file header offset shifted.
+     */
+    private void patchCentralDirectoryEntry() throws IOException, InvalidZipException {
+        require(46);
+
+        int fileNameLen = u16(28);
+        int extraFieldLen = u16(30);
+        int commentLen = u16(32);
+
+        int entryLen = 46 + fileNameLen + extraFieldLen + commentLen;
+        require(entryLen);
+
+        int offsetField = 42;
+        int offsetWidth = 4;
+        long offset = u32(42);
+
+        if (offset == CentralDirectory.ZIP64_MAGIC_VALUE) {
+            // the actual offset is in the Zip64 extended information extra field, after the uncompressed and the
+            // compressed sizes when they're there too
+            int field = findExtraField(pos + 46 + fileNameLen, extraFieldLen, 0x0001);
+            if (field == -1)
+                throw new InvalidZipException("central directory entry at " + inputPosition + " doesn't have a "
+                        + "local file header offset in its Zip64 extra field");
+
+            int fieldEnd = field + 4 + u16(field - pos + 2);
+            field += 4;
+
+            if (u32(24) == CentralDirectory.ZIP64_MAGIC_VALUE) field += 8;
+            if (u32(20) == CentralDirectory.ZIP64_MAGIC_VALUE) field += 8;
+
+            if (field + 8 > fieldEnd)
+                throw new InvalidZipException("central directory entry at " + inputPosition + " doesn't have a "
+                        + "local file header offset in its Zip64 extra field");
+
+            offsetField = field - pos;
+            offsetWidth = 8;
+            offset = u64(offsetField);
+        }
+
+        int index = Arrays.binarySearch(headerOffsets, 0, headerCount, offset);
+        if (index < 0)
+            throw new InvalidZipException("central directory entry at " + inputPosition + " points to " + offset
+                    + ", which is not a local file header");
+
+        long shiftedOffset = shiftedHeaderOffsets[index];
+
+        // every central directory entry that points to the same local file header is checked against its data
+        if (dataCrcs != null && dataCrcs[index] != -1 && dataCrcs[index] != u32(16)) {
+            mismatches.add(new CrcMismatchException.Entry(
+                    new String(window, pos + 46, fileNameLen, StandardCharsets.UTF_8), offset, dataOffsets[index],
+                    dataSizes[index], u32(16), dataCrcs[index]));
+        }
+
+        if (offsetWidth == 4 && shiftedOffset >= CentralDirectory.ZIP64_MAGIC_VALUE)
+            throw new InvalidZipException("local file header offset of the central directory entry at "
+                    + inputPosition + " would be shifted past 4GiB, but it doesn't have a Zip64 extra field to hold "
+                    + "it");
+
+        passPatched(entryLen, offsetField, shiftedOffset, offsetWidth);
+    }
+
+    private void recordHeader(long offset, long shiftedOffset) {
+        if (headerCount == headerOffsets.length) {
+            headerOffsets = Arrays.copyOf(headerOffsets, headerCount * 2);
+            shiftedHeaderOffsets = Arrays.copyOf(shiftedHeaderOffsets, headerCount * 2);
+        }
+
+        if (dataCrcs != null && headerCount == dataCrcs.length) {
+            dataOffsets = Arrays.copyOf(dataOffsets, headerCount * 2);
+            dataSizes = Arrays.copyOf(dataSizes, headerCount * 2);
+            dataCrcs = Arrays.copyOf(dataCrcs, headerCount * 2);
+        }
+
+        headerOffsets[headerCount] = offset;
+        shiftedHeaderOffsets[headerCount] = shiftedOffset;
+        headerCount++;
+    }
+
+    /**
+     * Records the CRC-32 of the data of the last local file header once all of it has been passed.
+     */
+    private void endChecksum() {
+        if (checksumming == null) return;
+
+        dataSizes[headerCount - 1] = inputPosition - dataOffsets[headerCount - 1];
+        dataCrcs[headerCount - 1] = checksumming.getValue();
+        checksumming = null;
+    }
+
+    /**
+     * @return The index in the window of the extra field with the given id, or -1 if there is none
+     */
+    private int findExtraField(int start, int length, int id) {
+        int position = start;
+        int end = start + length;
+
+        while (position + 4 <= end) {
+            int fieldId = u16(position - pos);
+            int fieldSize = u16(position - pos + 2);
+
+            if (fieldId == id) return position + 4 + fieldSize <= end ? position : -1;
+            position += 4 + fieldSize;
+        }
+
+        return -1;
+    }
+
+    private boolean isSoFile(int start, int length) {
+        return length >= 3
+                && window[start + length - 3] == '.'
+                && window[start + length - 2] == 's'
+                && window[start + length - 1] == 'o';
+    }
+
+    /**
+     * @return The signature at the start of the window
+     */
+    private int nextSignature() throws IOException, InvalidZipException {
+        if (!ensure(4))
+            throw new InvalidZipException("Reached the end of the stream at " + (inputPosition + limit - pos)
+                    + " before the end-of-central-directory record");
+
+        return i32(0);
+    }
+
+    /**
+     * Passes the local file header at the start of the window with the padding at the end of its extra field replaced
+     * by an alignment extra field that aligns its data.
+     */
+    private void replacePadding(int fileNameLen, int extraFieldLen, int entryAlignment)
+            throws IOException, InvalidZipException {
+
+        int paddingStart = AlignmentExtraField.paddingStart(window, pos + 30 + fileNameLen, extraFieldLen);
+        int fieldLength = AlignmentExtraField.length(written + 30 + fileNameLen + paddingStart, entryAlignment);
+
+        if (paddingStart + fieldLength > 0xffff)
+            throw new InvalidZipException("extra field of the local file header at " + inputPosition
+                    + " is too large to be padded with an alignment extra field of " + fieldLength + " bytes");
+
+        passPatched(30 + fileNameLen + paddingStart, 28, paddingStart + fieldLength, 2);
+
+        AlignmentExtraField.write(out, fieldLength, entryAlignment);
+        written += fieldLength;
+
+        // the existing padding is dropped
+        consume(extraFieldLen - paddingStart);
+    }
+
+    /**
+     * Passes {@code length} bytes from the start of the window with {@code width} bytes at {@code fieldOffset}
+     * replaced by the given value in little-endian. The whole length must already be in the window.
+     */
+    private void passPatched(int length, int fieldOffset, long value, int width) throws IOException {
+        out.write(window, pos, fieldOffset);
+        out.writeLittleEndian(value, width);
+        out.write(window, pos + fieldOffset + width, length - fieldOffset - width);
+
+        consume(length);
+        written += length;
+    }
+
+    private void writeZeros(int amount) throws IOException {
+        out.writeZeros(amount);
+        written += amount;
+    }
+
+    /**
+     * Passes the given amount of bytes from the input to the output as is.
+     */
+    private void pass(long length) throws IOException {
+        while (length > 0) {
+            if (pos == limit && !fill())
+                throw new EOFException("Reached EOF when passing bytes");
+
+            int chunk = (int) Math.min(length, limit - pos);
+            out.write(window, pos, chunk);
+            if (checksumming != null) checksumming.update(window, pos, chunk);
+
+            consume(chunk);
+            written += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void consume(int length) {
+        pos += length;
+        inputPosition += length;
+    }
+
+    private void require(int length) throws IOException {
+        if (!ensure(length))
+            throw new EOFException("Reached EOF when reading " + length + " bytes at " + inputPosition);
+    }
+
+    /**
+     * Makes sure that there are at least {@code length} bytes in the window, as long as the input has them.
+     *
+     * @return Whether there are at least {@code length} bytes in the window
+     */
+    private boolean ensure(int length) throws IOException {
+        if (limit - pos >= length) return true;
+
+        // move what's left to the start of the window
+        System.arraycopy(window, pos, window, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+
+        while (limit < length && !eof) {
+            int read = in.read(window, limit, window.length - limit);
+            stats.readCalls++;
+
+            if (read == -1) eof = true;
+            else limit += read;
+        }
+
+        return limit >= length;
+    }
+
+    /**
+     * Reads more of the input into the window once everything in it is passed.
+     *
+     * @return Whether anything has been read
+     */
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        pos = limit = 0;
+
+        return ensure(1);
+    }
+
+    private int u16(int offset) {
+        return (window[pos + offset] & 0xff) | (window[pos + offset + 1] & 0xff) << 8;
+    }
+
+    private int i32(int offset) {
+        return u16(offset) | u16(offset + 2) << 16;
+    }
+
+    private long u32(int offset) {
+        return i32(offset) & 0xffffffffL;
+    }
+
+    private long u64(int offset) {
+        return u32(offset) | u32(offset + 4) << 32;
+    }
+}
@@ -4,14 +4,16 @@
 
 package com.iyxan23.zipalignjava;
 
-import com.macfaq.io.LittleEndianInputStream;
-import com.macfaq.io.LittleEndianOutputStream;
-
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A class that provides functions to align zips.
@@ -21,15 +23,27 @@ import java.util.ArrayList;
  * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, boolean)
  * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int)
  * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, int)
- * @see ZipAlign#alignZip(InputStream, OutputStream, int)
- * @see ZipAlign#alignZip(InputStream, OutputStream)
+ * @see ZipAlign#alignZip(SeekableByteChannel, WritableByteChannel, int, int)
+ * @see ZipAlign#analyze(SeekableByteChannel, int, int)
+ * @see ZipAlign#alignInPlace(Path)
+ * @see ZipAlign#alignInPlace(FileChannel, Path, int, int)
+ * @see ZipAlign#update(FileChannel, ZipUpdate, int, int)
+ * @see ZipAlign#alignAll(Map, int, int, int)
+ * @see ZipAlign#check(RandomAccessFile, int, int, boolean)
+ * @see ZipAligner
+ * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
  */
 public class ZipAlign {
+    // the aligner behind the static functions called with the default alignments, so that their buffers are reused;
+    // it is only built once one of them is called, callers that bring their own aligner don't pay for it at startup
+    private static class DefaultAligner {
+        static final ZipAligner INSTANCE = new ZipAligner.Builder().build();
+    }
+
     /**
      * Aligns uncompressed data of the given zip file to 4-byte boundaries and .so files into 16384-byte (16KiB) boundaries.
      * This function takes a {@link RandomAccessFile} object; to read an {@link InputStream}, check the function
-     * {@link ZipAlign#alignZip(InputStream, OutputStream)} <b>(do note that it is substantially slower than using
-     * this function)</b><br/>
+     * {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}<br/>
      * <br/>
      * Example:
      * <pre>
@@ -47,8 +61,7 @@ public class ZipAlign {
      * @throws InvalidZipException Will be thrown when the zip given is not valid.
      *
      * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, boolean)
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
      */
     public static void alignZip(RandomAccessFile file, OutputStream out) throws IOException, InvalidZipException {
         alignZip(file, out, 4, true);
@@ -57,8 +70,8 @@ public class ZipAlign {
     /**
      * Aligns uncompressed data of the given zip file to 4-byte boundaries and optionally align .so files into
      * 16384-byte (16KiB) boundaries. This function takes a {@link RandomAccessFile} object; to read an {@link
-     * InputStream}, check the function {@link ZipAlign#alignZip(InputStream, OutputStream)} <b>(do note that
-     * it is substantially slower than using this function)</b><br/>
+     * InputStream}, check the function
+     * {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}<br/>
      * <br/>
      * Example:
      * <pre>
@@ -77,8 +90,7 @@ public class ZipAlign {
      * @throws InvalidZipException Will be thrown when the zip given is not valid.
      *
      * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, boolean)
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
      */
     public static void alignZip(RandomAccessFile file, OutputStream out, boolean alignSoFiles) throws IOException, InvalidZipException {
         alignZip(file, out, 4, alignSoFiles);
@@ -87,8 +99,7 @@ public class ZipAlign {
     /**
      * Aligns uncompressed data of the given zip file specified byte boundaries and .so files into 16384-byte (16KiB)
      * boundaries. This function takes a {@link RandomAccessFile} object; to read an {@link InputStream}, check the
-     * function {@link ZipAlign#alignZip(InputStream, OutputStream)} <b>(do note that it is substantially slower than
-     * using this function)</b><br/>
+     * function {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}<br/>
      * <br/>
      * Example:
      * <pre>
@@ -107,8 +118,7 @@ public class ZipAlign {
      * @throws InvalidZipException Will be thrown when the zip given is not valid.
      *
      * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, boolean)
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
      */
     public static void alignZip(RandomAccessFile file, OutputStream out, int alignment) throws IOException, InvalidZipException {
         alignZip(file, out, alignment, true);
@@ -117,8 +127,7 @@ public class ZipAlign {
     /**
      * Aligns uncompressed data of the given zip file to the specified byte boundaries and optionally align .so files
      * into 16384-byte (16KiB) boundaries. This function takes a {@link RandomAccessFile} object; to read an
-     * {@link InputStream}, check the function {@link ZipAlign#alignZip(InputStream, OutputStream)} <b>(do not that
-     * it is substantially slower than using this function)</b><br/>
+     * {@link InputStream}, check the function {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}<br/>
      * <br/>
      * Example:
      * <pre>
@@ -138,22 +147,18 @@ public class ZipAlign {
      * @throws InvalidZipException Will be thrown when the zip given is not valid.
      *
      * @see ZipAlign#alignZip(RandomAccessFile, OutputStream)
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
      */
     public static void alignZip(RandomAccessFile file, OutputStream out, int alignment, boolean alignSoFiles)
             throws IOException, InvalidZipException {
        alignZip(file, out, alignment, 16384);
     }
 
-    // Maximum size of an EOCD record
-    private static final int maxEOCDLookup = 0xffff + 22;
-
     /**
      * Aligns uncompressed data of the given zip file to the specified byte boundaries and optionally align .so files
      * into 16384-byte (16KiB) boundaries. This function takes a {@link RandomAccessFile} object; to read an
-     * {@link InputStream}, check the function {@link ZipAlign#alignZip(InputStream, OutputStream)} <b>(do note that
-     * it is substantially slower than using this function)</b><br/>
+     * {@link InputStream}, check the function
+     * {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}<br/>
      * <br/>
      * Example:
      * <pre>
@@ -173,512 +178,740 @@ public class ZipAlign {
      * @throws InvalidZipException Will be thrown when the zip given is not valid.
      *
      * @see ZipAlign#alignZip(RandomAccessFile, OutputStream)
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
      */
     public static void alignZip(RandomAccessFile file, OutputStream out, int alignment, int soFileAlignment)
             throws IOException, InvalidZipException {
+        aligner(alignment, soFileAlignment).alignZip(file, out);
+    }
 
-        // find the end of central directory
-        long seekStart;
-        int readAmount;
-        final long fileLength = file.length();
-
-        if (fileLength > maxEOCDLookup) {
-            seekStart = fileLength - maxEOCDLookup;
-            readAmount = maxEOCDLookup;
-        } else {
-            seekStart = 0;
-            readAmount = (int) fileLength;
-        }
-
-        // find the signature
-        byte[] eocdBuf = new byte[readAmount];
-        file.seek(file.length() - readAmount);
-        file.readFully(eocdBuf);
-
-        long eocdPosition = -1;
-
-        // scan backwards for EOCD signature
-        for (int i = readAmount - 4; i >= 0; i--) {
-            if ((eocdBuf[i]     & 0xFF) == 0x50 &&
-                (eocdBuf[i + 1] & 0xFF) == 0x4B &&
-                (eocdBuf[i + 2] & 0xFF) == 0x05 &&
-                (eocdBuf[i + 3] & 0xFF) == 0x06) {
-
-                eocdPosition = file.length() - readAmount + i - 4;
-                break;
-            }
-        }
-
-        if (eocdPosition == -1)
-            throw new InvalidZipException("No end-of-central-directory found");
-
-        // skip disk fields
-        file.seek(eocdPosition + 10);
-
-        byte[] buf = new byte[10]; // we're keeping the total entries (2B), central dir size (4B), and the offset (4B)
-        file.read(buf);
-        ByteBuffer eocdBuffer = ByteBuffer.wrap(buf)
-                .order(ByteOrder.LITTLE_ENDIAN);
-        UnsignedByteBufferWrapper eocdBufferUw = new UnsignedByteBufferWrapper(eocdBuffer);
-
-        // read em
-        int totalEntries = eocdBufferUw.getUShort();
-        long centralDirSize = eocdBufferUw.getUInt();
-        long centralDirOffset = eocdBufferUw.getUInt();
-
-        ArrayList<Alignment> neededAlignments = new ArrayList<>();
-        ArrayList<FileOffsetShift> shifts = new ArrayList<>();
-
-        // to keep track of how many bytes we've shifted through the whole file (because we're going to pad null bytes
-        // to align)
-        int shiftAmount = 0;
-
-        file.seek(centralDirOffset);
-        byte[] entry = new byte[46]; // not including the filename, extra field, and file comment
-        ByteBuffer entryBuffer = ByteBuffer.wrap(entry)
-                .order(ByteOrder.LITTLE_ENDIAN);
-
-        UnsignedByteBufferWrapper entryBufferUw = new UnsignedByteBufferWrapper(entryBuffer);
-
-        for (int ei = 0; ei < totalEntries; ei++) {
-            final long entryStart = file.getFilePointer();
-            file.read(entry);
-
-            if (entryBuffer.getInt(0) != 0x02014b50)
-                throw new InvalidZipException(
-                        "assumed central directory entry at " + entryStart + " doesn't start with a signature"
-                );
-
-            int entry_fileNameLen = entryBufferUw.getUShort(28);
-            int entry_extraFieldLen = entryBufferUw.getUShort(30);
-            int entry_commentLen = entryBufferUw.getUShort(32);
-            long fileOffset = entryBufferUw.getUInt(42);
-
-            if (shiftAmount != 0)
-                shifts.add(new FileOffsetShift(entryStart + 42, fileOffset + shiftAmount));
-
-            boolean soAligned = false;
-
-            // read the filename to check whether it is an .so file (of which we shall align if alignSoFiles is true)
-            if (soFileAlignment != 0) {
-                byte[] filenameBuffer = new byte[entry_fileNameLen];
-                file.read(filenameBuffer);
-
-                String filename = new String(filenameBuffer, StandardCharsets.UTF_8);
-                if (filename.endsWith(".so")) {
-                    // we got to align this
-                    file.seek(fileOffset + 26); // skip all fields before filename length
-
-                    // read the filename & extra field length
-                    ByteBuffer lengths = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
-                    UnsignedByteBufferWrapper lengthsUw
-                        = new UnsignedByteBufferWrapper(lengths);
-
-                    file.read(lengths.array());
-                    int fileNameLen = lengthsUw.getUShort();
-                    int extraFieldLen = lengthsUw.getUShort();
-
-                    // calculate the amount of alignment needed
-                    long dataPos = fileOffset + 30 + fileNameLen + extraFieldLen + shiftAmount;
-                    int wrongOffset = (int) (dataPos % soFileAlignment);
-                    int alignAmount = wrongOffset == 0 ? 0 : (soFileAlignment - wrongOffset);
-                    shiftAmount += alignAmount;
-
-                    // only align when alignAmount is not 0 (not already aligned)
-                    if (alignAmount != 0) {
-                        // push it!
-                        neededAlignments.add(new Alignment(
-                                alignAmount,
-                                fileOffset + 28,
-                                (short) (extraFieldLen + alignAmount),
-                                fileNameLen + extraFieldLen));
-                    }
-
-                    soAligned = true;
-                }
-            }
-
-            // if this file is uncompressed, and it has not been aligned, we align it
-            if (entryBuffer.getShort(10) == 0 && !soAligned) {
-                // temporarily seek to the file header to calculate the alignment amount
-                file.seek(fileOffset + 26); // skip all fields before filename length
-
-                // read the filename & extra field length
-                ByteBuffer lengths = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
-                UnsignedByteBufferWrapper lengthsUw
-                    = new UnsignedByteBufferWrapper(lengths);
-
-                file.read(lengths.array());
-                int fileNameLen = lengthsUw.getUShort();
-                int extraFieldLen = lengthsUw.getUShort();
-
-                // calculate the amount of alignment needed
-                long dataPos = fileOffset + 30 + fileNameLen + extraFieldLen + shiftAmount;
-                int wrongOffset = (int) (dataPos % alignment);
-                int alignAmount = wrongOffset == 0 ? 0 : (alignment - wrongOffset);
-                shiftAmount += alignAmount;
-
-                // only align when alignAmount is not 0 (not already aligned)
-                if (alignAmount != 0) {
-                    // push it!
-                    neededAlignments.add(new Alignment(
-                            alignAmount,
-                            fileOffset + 28,
-                            (short) (extraFieldLen + alignAmount),
-                            fileNameLen + extraFieldLen));
-                }
-            }
-
-            file.seek(entryStart + 46 + entry_fileNameLen + entry_extraFieldLen + entry_commentLen);
-        }
-
-        // done analyzing! now we're going to stream the aligned zip
-        file.seek(0);
-        if (neededAlignments.size() == 0) {
-            // there is no needed alignment, stream it all!
-            byte[] buffer = new byte[8192];
-            int len;
-            while (-1 != (len = file.read(buffer))) {
-                out.write(buffer, 0, len);
-            }
-            return;
-        }
-
-        // alignments needed! this aligns files to the defined boundaries by padding null bytes to the extra field
-        for (Alignment al : neededAlignments) {
-            if (al.extraFieldLenOffset != 0) {
-                passBytes(file, out, al.extraFieldLenOffset - file.getFilePointer());
-            }
-
-            // write the changed extra field length (in little-endian)
-            out.write(al.extraFieldLenValue & 0xFF);
-            out.write((al.extraFieldLenValue >>> 8) & 0xFF);
-            file.readShort(); // mirror the new position to the file
+    /**
+     * Aligns uncompressed data of the given zip to 4-byte boundaries and .so files into 16384-byte (16KiB)
+     * boundaries, and writes the aligned version of it into the given channel. This accepts any
+     * {@link SeekableByteChannel}, e.g. a {@link FileChannel} or an in-memory channel, and writes into any
+     * {@link WritableByteChannel}.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+     *          FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+     *         ZipAlign.alignZip(in, out);
+     *     }
+     * </pre>
+     *
+     * @param in The zip, only read through positional reads
+     * @param out Where the aligned version of the given zip will be written to, it is not closed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#alignZip(SeekableByteChannel, WritableByteChannel, int, int)
+     */
+    public static void alignZip(SeekableByteChannel in, WritableByteChannel out)
+            throws IOException, InvalidZipException {
+        DefaultAligner.INSTANCE.alignZip(in, out);
+    }
 
-            passBytes(file, out, al.extraFieldExtensionOffset);
+    /**
+     * Aligns uncompressed data of the given zip to the specified byte boundaries and .so files into the specified
+     * boundaries, and writes the aligned version of it into the given channel. Reads from the input are positional,
+     * and the output is written with gathering writes of the copied ranges, the patched fields and the padding.
+     *
+     * @param in The zip, only read through positional reads
+     * @param out Where the aligned version of the given zip will be written to, it is not closed
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAligner#alignZip(SeekableByteChannel, WritableByteChannel)
+     */
+    public static void alignZip(SeekableByteChannel in, WritableByteChannel out, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        aligner(alignment, soFileAlignment).alignZip(in, out);
+    }
 
-            byte[] padding = new byte[al.alignAmount];
-            out.write(padding); // sneak in null bytes
-            out.flush();
-        }
+    /**
+     * Analyzes the given zip without writing anything, see {@link #analyze(SeekableByteChannel, int, int)}.
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file.
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     * @return The plan of the alignment
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public static AlignmentPlan analyze(RandomAccessFile file, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        return aligner(alignment, soFileAlignment).analyze(file);
+    }
 
-        // the code below overrides the bytes that reference to other parts of the file that may be shifted
-        // due to the fact that we're padding bytes to align uncompressed data
+    /**
+     * Analyzes the given zip without writing anything: figures out where padding needs to be inserted for its
+     * uncompressed data to be aligned and every offset that is going to be shifted by it. The resulting plan can be
+     * applied to the same zip any number of times, or serialized with {@link AlignmentPlan#writeTo(OutputStream)} to
+     * be cached.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     AlignmentPlan plan = ZipAlign.analyze(zipIn, 4, 16384);
+     *
+     *     ZipAlign.apply(plan, zipIn, zipOut);
+     * </pre>
+     *
+     * @param in The zip, only read through positional reads
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     * @return The plan of the alignment, carrying a fingerprint of the zip's central directory
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#apply(AlignmentPlan, SeekableByteChannel, WritableByteChannel)
+     */
+    public static AlignmentPlan analyze(SeekableByteChannel in, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        return aligner(alignment, soFileAlignment).analyze(in);
+    }
 
-        // this changes the "file offset" defined in EOCD headers
-        for (FileOffsetShift shift : shifts) {
-            // write data before this
-            passBytes(file, out, shift.eocdhPosition - file.getFilePointer());
+    /**
+     * Applies a plan made by {@link #analyze(RandomAccessFile, int, int)} to the same zip, see
+     * {@link #apply(AlignmentPlan, SeekableByteChannel, WritableByteChannel)}.
+     *
+     * @param plan The plan of the alignment
+     * @param file A {@link RandomAccessFile} reference to the zip file that the plan was made from
+     * @param out The output where the aligned version of the given zip will be streamed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip is not the one that the plan was made from.
+     */
+    public static void apply(AlignmentPlan plan, RandomAccessFile file, OutputStream out)
+            throws IOException, InvalidZipException {
+        DefaultAligner.INSTANCE.apply(plan, file, out);
+    }
 
-            // write shifted file offset (in litte-endian)
-            out.write((int) (shift.shiftedFileOffset & 0xFF));
-            out.write((int) (shift.shiftedFileOffset >>> 8) & 0xFF);
-            out.write((int) (shift.shiftedFileOffset >>> 16) & 0xFF);
-            out.write((int) (shift.shiftedFileOffset >>> 24) & 0xFF);
-            file.readInt(); // mirror the new position to the file
-        }
+    /**
+     * Applies a plan made by {@link #analyze(SeekableByteChannel, int, int)} to the same zip, writing the aligned
+     * version of it into the given channel. The zip is rejected when its central directory is not the one that the
+     * plan was made from.
+     *
+     * @param plan The plan of the alignment
+     * @param in The zip that the plan was made from, only read through positional reads
+     * @param out Where the aligned version of the given zip will be written to, it is not closed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip is not the one that the plan was made from.
+     */
+    public static void apply(AlignmentPlan plan, SeekableByteChannel in, WritableByteChannel out)
+            throws IOException, InvalidZipException {
+        DefaultAligner.INSTANCE.apply(plan, in, out);
+    }
 
-        // after that we need to edit the EOCDR's "EOCDH start offset" field
-        passBytes(file, out, eocdPosition + 0x10 - file.getFilePointer());
-        long shiftedCDOffset = centralDirOffset + shiftAmount;
+    /**
+     * Aligns uncompressed data of the given zip file to 4-byte boundaries and .so files into 16384-byte (16KiB)
+     * boundaries, in-place. Instead of writing an aligned copy, the file is extended by the total padding needed and
+     * its contents are shifted inside of itself, nothing before the first entry that needs to be aligned is touched.
+     * <br/>
+     * Progress is recorded in a journal next to the file named {@code <file name>.alignjournal}, if the alignment gets
+     * interrupted (e.g. a crash or a power loss), calling this function again on the same file completes it.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     ZipAlign.alignInPlace(Paths.get("path/to/file.zip"));
+     * </pre>
+     *
+     * @param zip The path to the zip file
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#alignInPlace(Path, int, int)
+     * @see ZipAlign#alignInPlace(FileChannel, Path, int, int)
+     */
+    public static void alignInPlace(Path zip) throws IOException, InvalidZipException {
+        alignInPlace(zip, 4, 16384);
+    }
 
-        out.write((int) (shiftedCDOffset & 0xFF));
-        out.write((int) (shiftedCDOffset >>> 8) & 0xFF);
-        out.write((int) (shiftedCDOffset >>> 16) & 0xFF);
-        out.write((int) (shiftedCDOffset >>> 24) & 0xFF);
-        file.readInt(); // mirror the new position change
+    /**
+     * Aligns uncompressed data of the given zip file to the specified byte boundaries and .so files into the specified
+     * page boundaries, in-place. Instead of writing an aligned copy, the file is extended by the total padding needed
+     * and its contents are shifted inside of itself, nothing before the first entry that needs to be aligned is
+     * touched.<br/>
+     * <br/>
+     * Progress is recorded in a journal next to the file named {@code <file name>.alignjournal}, if the alignment gets
+     * interrupted (e.g. a crash or a power loss), calling this function again on the same file completes it.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     ZipAlign.alignInPlace(Paths.get("path/to/file.zip"), 4, 16384);
+     * </pre>
+     *
+     * @param zip The path to the zip file
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#alignInPlace(FileChannel, Path, int, int)
+     */
+    public static void alignInPlace(Path zip, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
 
-        // write all that's left
-        passBytes(file, out, file.length() - file.getFilePointer());
+        aligner(alignment, soFileAlignment).alignInPlace(zip);
     }
 
-    private static class Alignment {
-        public int alignAmount;
-        public long extraFieldLenOffset;
-        public short extraFieldLenValue;
-        public int extraFieldExtensionOffset;
-
-        public Alignment(int alignAmount, long extraFieldLenOffset, short extraFieldLenValue,
-                         int extraFieldExtensionOffset) {
-            this.alignAmount = alignAmount;
-            this.extraFieldLenOffset = extraFieldLenOffset;
-            this.extraFieldLenValue = extraFieldLenValue;
-            this.extraFieldExtensionOffset = extraFieldExtensionOffset;
-        }
+    /**
+     * Aligns uncompressed data of the given zip file to 4-byte boundaries and .so files into 16384-byte (16KiB)
+     * boundaries, in-place.
+     *
+     * @param zip The zip file, opened for both reading and writing
+     * @param journal Where the progress of the alignment is going to be recorded, it is deleted once done
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#alignInPlace(FileChannel, Path, int, int)
+     */
+    public static void alignInPlace(FileChannel zip, Path journal) throws IOException, InvalidZipException {
+        alignInPlace(zip, journal, 4, 16384);
+    }
 
-        @Override
-        public String toString() {
-            return "Alignment{" +
-                    "alignAmount=" + alignAmount +
-                    ", extraFieldLenOffset=" + extraFieldLenOffset +
-                    ", extraFieldLenValue=" + extraFieldLenValue +
-                    ", extraFieldExtensionOffset=" + extraFieldExtensionOffset +
-                    '}';
-        }
+    /**
+     * Aligns uncompressed data of the given zip file to the specified byte boundaries and .so files into the specified
+     * page boundaries, in-place. Instead of writing an aligned copy, the file is extended by the total padding needed
+     * and its contents are shifted inside of itself, nothing before the first entry that needs to be aligned is
+     * touched.<br/>
+     * <br/>
+     * Progress is recorded in the given journal, if the alignment gets interrupted (e.g. a crash or a power loss),
+     * calling this function again on the same file with the same journal completes it.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     try (FileChannel zip = FileChannel.open(zipPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+     *         ZipAlign.alignInPlace(zip, journalPath, 4, 16384);
+     *     }
+     * </pre>
+     *
+     * @param zip The zip file, opened for both reading and writing
+     * @param journal Where the progress of the alignment is going to be recorded, it is deleted once done
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public static void alignInPlace(FileChannel zip, Path journal, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        aligner(alignment, soFileAlignment).alignInPlace(zip, journal);
     }
 
-    private static class FileOffsetShift {
-        public long eocdhPosition;
-        public long shiftedFileOffset;
+    /**
+     * Adds, replaces and deletes entries of the given aligned zip in-place with 4-byte alignment and 16384-byte (16KiB)
+     * .so file alignment, see {@link ZipAlign#update(FileChannel, ZipUpdate, int, int)}.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     ZipAlign.update(Paths.get("app.apk"), new ZipUpdate().put("classes.dex", dex, false));
+     * </pre>
+     *
+     * @param zip The path to the zip file, a temporary file may be created next to it
+     * @param update The entries to add, replace or delete
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or can't be updated incrementally.
+     */
+    public static void update(Path zip, ZipUpdate update) throws IOException, InvalidZipException {
+        DefaultAligner.INSTANCE.update(zip, update);
+    }
 
-        public FileOffsetShift(long eocdhPosition, long shiftedFileOffset) {
-            this.eocdhPosition = eocdhPosition;
-            this.shiftedFileOffset = shiftedFileOffset;
-        }
+    /**
+     * Adds, replaces and deletes entries of the given aligned zip in-place, instead of rebuilding and aligning the
+     * whole zip again. Everything before the first entry that is replaced or deleted is left untouched, the entries
+     * after it are moved down and re-padded, the new entries are written after them with their data aligned, and
+     * only the central directory and the EOCD record are rewritten.<br/>
+     * <br/>
+     * The zip must not be Zip64, and is not recoverable if the update gets interrupted. An APK signing block is
+     * dropped, the zip has to be signed again.
+     *
+     * @param zip The zip file, opened for both reading and writing
+     * @param update The entries to add, replace or delete
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or can't be updated incrementally.
+     */
+    public static void update(FileChannel zip, ZipUpdate update, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        aligner(alignment, soFileAlignment).update(zip, update);
+    }
 
-        @Override
-        public String toString() {
-            return "FileOffsetShift{" +
-                    "eocdhPosition=" + eocdhPosition +
-                    ", shiftedFileOffset=" + shiftedFileOffset +
-                    '}';
-        }
+    /**
+     * Starts aligning uncompressed data of the given zip file to 4-byte boundaries and .so files into 16384-byte
+     * (16KiB) boundaries asynchronously.
+     *
+     * @param in The zip file
+     * @param out Where the aligned zip is going to be written to, it is overwritten
+     * @return Completed with the result of the alignment once it's done, a failure is reported in the result
+     *
+     * @see ZipAlign#alignZipAsync(Path, Path, int, int)
+     */
+    public static CompletableFuture<AlignResult> alignZipAsync(Path in, Path out) {
+        return alignZipAsync(in, out, 4, 16384);
     }
 
     /**
-     * Aligns the zip from the given input stream and outputs it to the given output stream with 4 byte alignment.<br/>
+     * Starts aligning uncompressed data of the given zip file to the specified byte boundaries and .so files into the
+     * specified page boundaries asynchronously, without a thread being held for the whole alignment. The zip is
+     * analyzed by a task on a shared pool of as many daemon threads as there are processors, then it is copied through
+     * {@link java.nio.channels.AsynchronousFileChannel}s with a few positional reads and writes in flight at a time;
+     * each one is issued from the completion of the one before it.<br/>
      * <br/>
-     * <b>It is highly recommended to use {@link ZipAlign#alignZip(RandomAccessFile, OutputStream)} instead whenever
-     * possible, this function is exponentially slower compared to the one mentioned.</b><br/>
+     * At most 16 of these alignments run at a time, the ones started after them wait for their turn in the order they
+     * were started, since each one holds the central directory of its zip in memory until it's done. Alignments given
+     * an executor of their own with
+     * {@link ZipAligner#alignZipAsync(Path, Path, java.util.concurrent.ExecutorService)} aren't limited.<br/>
      * <br/>
-     * <b>NOTE: This function assumes that the given input stream is a valid zip file and skims manually through bytes.
-     * It is advised to first verify the zip before passing it to this function.</b><br/>
+     * The parent directories of the output are created when needed. A failure is reported in the
+     * {@link AlignResult} and the partially written output is deleted. Cancelling the returned future stops the
+     * alignment and deletes the output too.<br/>
      * <br/>
-     * Example usage:
+     * Example:
      * <pre>
-     *     FileInputStream zipIn = ...;
-     *     FileOutputStream zipOut = ...;
-     *
-     *     ZipAlign.alignZip(zipIn, zipOut);
+     *     ZipAlign.alignZipAsync(Paths.get("in/base.apk"), Paths.get("out/base.apk"), 4, 16384)
+     *             .thenAccept(result -&gt; {
+     *                 if (!result.isSuccessful()) ...
+     *             });
      * </pre>
      *
-     * @param zipIn The zip input stream
-     * @param zipOut The zip output stream
-     * @deprecated See {@link ZipAlign#alignZip(RandomAccessFile, OutputStream)}
-     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
+     * @param in The zip file
+     * @param out Where the aligned zip is going to be written to, it is overwritten
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     * @return Completed with the result of the alignment once it's done, a failure is reported in the result
      */
-    @Deprecated
-    public static void alignZip(InputStream zipIn, OutputStream zipOut) throws IOException {
-        alignZip(zipIn, zipOut, 4);
+    public static CompletableFuture<AlignResult> alignZipAsync(Path in, Path out, int alignment, int soFileAlignment) {
+        return aligner(alignment, soFileAlignment).alignZipAsync(in, out);
     }
 
     /**
-     * Aligns the zip from the given input stream and outputs it to the given output stream.<br/>
-     * <br/>
-     * <b>It is highly recommended to use {@link ZipAlign#alignZip(RandomAccessFile, OutputStream)} instead whenever
-     * possible, this function is exponentially slower compared to the one mentioned.</b><br/>
+     * Aligns uncompressed data of many zip files to 4-byte boundaries and .so files into 16384-byte (16KiB) boundaries,
+     * concurrently with as many threads as there are available processors.
+     *
+     * @param jobs Every zip to align, mapped to where its aligned version is going to be written to
+     * @return The result of every zip, in the iteration order of the given map
+     *
+     * @throws InterruptedException Will be thrown when the calling thread is interrupted while waiting for the batch
+     *
+     * @see ZipAlign#alignAll(Map, int, int, int)
+     */
+    public static List<AlignResult> alignAll(Map<Path, Path> jobs) throws InterruptedException {
+        return alignAll(jobs, 4, 16384, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Aligns uncompressed data of many zip files to the specified byte boundaries and .so files into the specified
+     * page boundaries, concurrently on at most {@code parallelism} threads (virtual threads when the JVM has them). The
+     * largest zips are started first, and a zip that fails to be aligned doesn't abort the rest of the batch; its
+     * failure is reported in its {@link AlignResult} and its partially written output is deleted.<br/>
      * <br/>
-     * <b>NOTE: This function assumes that the given input stream is a valid zip file and skims manually through bytes.
-     * It is advised to first verify the zip before passing it to this function.</b><br/>
+     * The parent directories of the outputs are created when needed, existing outputs are overwritten.<br/>
      * <br/>
-     * Example usage:
+     * Example:
      * <pre>
-     *     FileInputStream zipIn = ...;
-     *     FileOutputStream zipOut = ...;
+     *     Map&lt;Path, Path&gt; jobs = new LinkedHashMap&lt;&gt;();
+     *     jobs.put(Paths.get("in/base.apk"), Paths.get("out/base.apk"));
+     *     jobs.put(Paths.get("in/split_arm64_v8a.apk"), Paths.get("out/split_arm64_v8a.apk"));
      *
-     *     ZipAlign.alignZip(zipIn, zipOut, 4);
+     *     for (AlignResult result : ZipAlign.alignAll(jobs, 4, 16384, 8)) {
+     *         if (!result.isSuccessful()) ...
+     *     }
      * </pre>
      *
-     * @param zipIn The zip input stream
-     * @param zipOut The zip output stream
+     * @param jobs Every zip to align, mapped to where its aligned version is going to be written to
      * @param alignment Alignment in bytes, usually 4
-     * @deprecated See {@link ZipAlign#alignZip(RandomAccessFile, OutputStream)}
-     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     * @param parallelism The maximum amount of zips that are aligned at the same time
+     * @return The result of every zip, in the iteration order of the given map
+     *
+     * @throws InterruptedException Will be thrown when the calling thread is interrupted while waiting for the batch
      */
-    @Deprecated
-    public static void alignZip(InputStream zipIn, OutputStream zipOut, int alignment) throws IOException {
-        LittleEndianInputStream in = new LittleEndianInputStream(zipIn);
-        LittleEndianOutputStream out = new LittleEndianOutputStream(zipOut);
-        ArrayList<Integer> fileOffsets = new ArrayList<>();
-
-        // todo: handle zip64 asdjlkajdoijdlkasjd
+    public static List<AlignResult> alignAll(Map<Path, Path> jobs, int alignment, int soFileAlignment,
+                                             int parallelism) throws InterruptedException {
+        return aligner(alignment, soFileAlignment).alignAll(jobs, parallelism);
+    }
 
-        // source: https://en.wikipedia.org/wiki/ZIP_(file_format)#Structure
-        // better source: https://users.cs.jmu.edu/buchhofp/forensics/formats/pkzip.html
-        // the real source: https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+    /**
+     * Checks whether uncompressed data of the given zip file is aligned to 4-byte boundaries and .so files into
+     * 16384-byte (16KiB) boundaries, the equivalent of {@code zipalign -c 4}. Only the central directory and the local
+     * file headers are read, nothing is written.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     RandomAccessFile zipFile = new RandomAccessFile("path/to/file.zip", "r");
+     *
+     *     if (!ZipAlign.check(zipFile).isAligned()) {
+     *         ...
+     *     }
+     * </pre>
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file.
+     * @return A report of every entry that is required to be aligned
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     *
+     * @see ZipAlign#check(RandomAccessFile, int, int, boolean)
+     */
+    public static AlignmentReport check(RandomAccessFile file) throws IOException, InvalidZipException {
+        return check(file, 4, 16384, false);
+    }
 
-        int header = in.readInt();
+    /**
+     * Checks whether uncompressed data of the given zip file is aligned to the specified byte boundaries and .so files
+     * into the specified page boundaries. Only the central directory and the local file headers are read, nothing is
+     * written.<br/>
+     * <br/>
+     * Example:
+     * <pre>
+     *     RandomAccessFile zipFile = new RandomAccessFile("path/to/file.zip", "r");
+     *     AlignmentReport report = ZipAlign.check(zipFile, 4, 16384, true);
+     *
+     *     for (AlignmentReport.Entry entry : report.getViolations()) {
+     *         ...
+     *     }
+     * </pre>
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file.
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     * @param stopAtFirstViolation Stops checking the rest of the entries as soon as one is not aligned
+     * @return A report of every checked entry that is required to be aligned
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public static AlignmentReport check(RandomAccessFile file, int alignment, int soFileAlignment,
+                                        boolean stopAtFirstViolation) throws IOException, InvalidZipException {
 
-        // starts with local file header signature
-        while (header == 0x04034b50) {
-            fileOffsets.add(out.bytesWritten());
-            out.writeInt(0x04034b50);
+        return aligner(alignment, soFileAlignment).check(file, stopAtFirstViolation);
+    }
 
-            passBytes(in, out, 2);
+    /**
+     * Checks whether the zip of the given index is aligned, see {@link #check(RandomAccessFile, int, int, boolean)}.
+     * Its central directory is not read again, so the same index can be used for looking entries up beforehand.
+     *
+     * @param index The index of the zip, its channel must still be open
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, set to 0 to disable
+     * @param stopAtFirstViolation Stops checking the rest of the entries as soon as one is not aligned
+     * @return A report of every checked entry that is required to be aligned
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public static AlignmentReport check(ZipIndex index, int alignment, int soFileAlignment,
+                                        boolean stopAtFirstViolation) throws IOException, InvalidZipException {
 
-            short generalPurposeFlag = in.readShort();
-            out.writeShort(generalPurposeFlag);
+        return aligner(alignment, soFileAlignment).check(index, stopAtFirstViolation);
+    }
 
-            // data descriptor is used if the 3rd bit is 1
-            boolean hasDataDescriptor = (generalPurposeFlag & 0x8) == 0x8;
+    private static ZipAligner aligner(int alignment, int soFileAlignment) {
+        if (alignment == DefaultAligner.INSTANCE.getAlignment()
+                && soFileAlignment == DefaultAligner.INSTANCE.getSoFileAlignment())
+            return DefaultAligner.INSTANCE;
 
-            short compressionMethod = in.readShort();
-            out.writeShort(compressionMethod);
-            // 0 is when there is no compression done
-            boolean shouldAlign = compressionMethod == 0;
+        return new ZipAligner.Builder()
+                .alignment(alignment)
+                .soFileAlignment(soFileAlignment)
+                .build();
+    }
 
-            passBytes(in, out, 8);
+    /**
+     * Analyzes the given zip file and figures out where padding needs to be inserted for its uncompressed data to be
+     * aligned to the specified byte boundaries and .so files to the specified page boundaries, alongside every offset
+     * that is going to be shifted by it.
+     *
+     * @param file The zip file, only read through positional reads
+     * @param alignment Alignment in bytes, recorded in the plan
+     * @param soFileAlignment Alignment for .so files in bytes, recorded in the plan
+     * @param policy Decides what the data of every entry is aligned to
+     * @param alignmentField Whether misaligned entries get their existing padding replaced by an alignment extra
+     *                       field (0xD935), instead of having null bytes appended to their extra field
+     * @param buffers Scratch buffers for reading the zip
+     * @return The plan of the alignment, can be applied with a single forward pass through the file
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    static AlignmentPlan analyze(SeekableByteChannel file, int alignment, int soFileAlignment, AlignmentPolicy policy,
+                                 boolean alignmentField, AlignBuffers buffers) throws IOException, InvalidZipException {
 
-            int compressedSize = in.readInt();
-            out.writeInt(compressedSize);
-            passBytes(in, out, 4);
+        return analyze(ZipIndex.read(file, buffers), alignment, soFileAlignment, policy, alignmentField, buffers);
+    }
 
-            short fileNameLen = in.readShort();
-            out.writeShort(fileNameLen);
+    /**
+     * Analyzes the zip of the given index, see
+     * {@link #analyze(SeekableByteChannel, int, int, AlignmentPolicy, boolean, AlignBuffers)}.
+     */
+    static AlignmentPlan analyze(ZipIndex index, int alignment, int soFileAlignment, AlignmentPolicy policy,
+                                 boolean alignmentField, AlignBuffers buffers) throws IOException, InvalidZipException {
 
-            short extraFieldLen = in.readShort();
+        StatsRecorder stats = buffers.stats;
 
-            // we're going to extend this extra field (if the data is uncompressed) so that the data will align into
-            // the specified alignment boundaries (usually 4 bytes)
-            int dataStartPoint = out.bytesWritten() + 2 + fileNameLen + extraFieldLen;
-            int wrongOffset = dataStartPoint % alignment;
-            int paddingSize = wrongOffset == 0 ? 0 : alignment - wrongOffset;
+        SeekableByteChannel file = index.channel;
+        CentralDirectory centralDir = index.centralDir;
+        int totalEntries = centralDir.totalEntries;
+        stats.entriesScanned += totalEntries;
 
-            if (shouldAlign) {
-                out.writeShort(extraFieldLen + paddingSize);
-            } else {
-                out.writeShort(extraFieldLen);
-            }
+        stats.startPhase();
 
-            passBytes(in, out, fileNameLen);
-            passBytes(in, out, extraFieldLen);
+        // local file headers of the entries that need to be aligned, they're probed later in one forward sweep
+        ArrayList<LocalHeaderProber.Probe> probes = collectProbes(index, policy);
 
-            if (shouldAlign && paddingSize != 0) {
-                // pad the extra field with null bytes
-                byte[] padding = new byte[paddingSize];
-                out.write(padding);
-            }
+        // read the filename & extra field lengths of the local file headers in the order of where they are in the file
+        LocalHeaderProber.probe(file, probes, buffers);
+        stats.endPhase(AlignStats.Phase.LOCAL_HEADER_PROBE);
 
-            // if there isn't any data descriptor we can just pass the data right away
-            if (!hasDataDescriptor) {
-                passBytes(in, out, compressedSize);
+        AlignmentTable alignments = new AlignmentTable();
 
-                out.flush();
-                header = in.readInt();
+        // to keep track of how many bytes we've shifted through the whole file (because we're going to pad null bytes
+        // to align, or replace the existing padding)
+        long shiftAmount = 0;
+        // the most that any local file header gets shifted by, to tell whether their offsets could outgrow 32 bits
+        long maxShiftAmount = 0;
 
-                continue;
-            }
+        long lastProbedOffset = -1;
 
-            // we have a data descriptor
+        for (LocalHeaderProber.Probe probe : probes) {
+            // multiple entries pointing to the same local file header should only be aligned once
+            if (probe.offset == lastProbedOffset) continue;
+            lastProbedOffset = probe.offset;
 
-            // fixme: pkware's spec 4.3.9.3 - although crazy rare, it is possible for data descriptors to not have
-            //        a header before it. It's very tricky to implement it so I prefer to do it later.
+            // calculate the amount of alignment needed
+            long dataPos = probe.offset + 30 + probe.fileNameLen + probe.extraFieldLen + shiftAmount;
+            int alignAmount = padding(dataPos, probe.alignment);
 
-            byte[] buffer = new byte[4];
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            // only align when alignAmount is not 0 (not already aligned), an entry that is already aligned is left as
+            // is even when it's padded with null bytes
+            if (alignAmount == 0) continue;
 
-            // loop until we stumble upon 0x08074b50
-            byte cur;
-            do {
-                cur = in.readByte();
-                out.write(cur);
+            if (probe.soFile) stats.soEntriesAligned++;
+            else stats.storedEntriesAligned++;
 
-                if (byteBuffer.position() == buffer.length - 1) {
-                    // the buffer is full, so we shift all of it to the left
-                    buffer[0] = buffer[1];
-                    buffer[1] = buffer[2];
-                    buffer[2] = buffer[3];
-                    // then put our byte on the last index
-                    byteBuffer.put(buffer.length - 1, cur);
-                } else {
-                    byteBuffer.put(cur);
-                }
-            } while (byteBuffer.getInt(0) != 0x08074b50);
+            if (alignmentField) {
+                replacePadding(file, probe, shiftAmount, alignments, buffers);
+            } else {
+                if (probe.extraFieldLen + alignAmount > 0xffff)
+                    throw new InvalidZipException("extra field of the local file header at " + probe.offset
+                            + " is too large to be padded with " + alignAmount + " bytes");
+
+                // push it!
+                alignments.add(
+                        alignAmount,
+                        probe.offset + 28,
+                        (short) (probe.extraFieldLen + alignAmount),
+                        probe.fileNameLen + probe.extraFieldLen,
+                        0, 0);
+            }
 
-            // we skip all the data descriptor lol, we don't need it
-            passBytes(in, out, 12);
+            shiftAmount = alignments.totalShift();
+            maxShiftAmount = Math.max(maxShiftAmount, shiftAmount);
+        }
 
-            out.flush();
+        // every entry is shifted by the alignments of the local file headers that come before it, which is worked out
+        // again as the central directory is copied; only the offsets that would no longer fit are looked for here
+        if (centralDir.offset + maxShiftAmount >= CentralDirectory.ZIP64_MAGIC_VALUE) {
+            for (int ei = 0; ei < totalEntries; ei++) {
+                if (centralDir.isZip64LocalHeaderOffset(ei)) continue;
 
-            // todo: zip64
-            // if (zip64) passBytes(in, outStream, 20);
+                long fileOffset = centralDir.localHeaderOffset(ei);
 
-            // next should be a new header
-            header = in.readInt();
+                if (fileOffset + alignments.shiftAt(fileOffset) >= CentralDirectory.ZIP64_MAGIC_VALUE)
+                    throw new InvalidZipException("local file header offset of " + centralDir.fileName(ei)
+                            + " would be shifted past 4GiB, but it doesn't have a Zip64 extra field to hold it");
+            }
         }
 
-        int centralDirectoryPosition = out.bytesWritten();
-        int fileOffsetIndex = 0;
+        // the offsets in the records after the central directory
+        ArrayList<AlignmentPlan.FileOffsetShift> shifts = new ArrayList<>(3);
 
-        // we're at the central directory
-        while (header == 0x02014b50) {
-            out.writeInt(0x02014b50);
-            int fileOffset = fileOffsets.get(fileOffsetIndex);
+        if (shiftAmount != 0) {
+            long shiftedCDOffset = centralDir.offset + shiftAmount;
 
-            passBytes(in, out, 24);
+            if (centralDir.isZip64()) {
+                // the central directory offset in the Zip64 EOCD record, and the offset of the record itself
+                shifts.add(new AlignmentPlan.FileOffsetShift(centralDir.zip64EocdPosition + 48, 8,
+                        shiftedCDOffset));
+                shifts.add(new AlignmentPlan.FileOffsetShift(centralDir.zip64LocatorPosition + 8, 8,
+                        centralDir.zip64EocdPosition + shiftAmount));
+            }
 
-            short fileNameLen = in.readShort();
-            out.writeShort(fileNameLen);
+            // the EOCD record's central directory offset is left as is when it defers to the Zip64 EOCD record
+            if (!centralDir.isZip64() || centralDir.eocdCentralDirOffset != CentralDirectory.ZIP64_MAGIC_VALUE) {
+                if (shiftedCDOffset < CentralDirectory.ZIP64_MAGIC_VALUE) {
+                    shifts.add(new AlignmentPlan.FileOffsetShift(centralDir.eocdPosition + 16, 4, shiftedCDOffset));
+                } else if (centralDir.isZip64()) {
+                    shifts.add(new AlignmentPlan.FileOffsetShift(centralDir.eocdPosition + 16, 4,
+                            CentralDirectory.ZIP64_MAGIC_VALUE));
+                } else {
+                    throw new InvalidZipException("central directory would be shifted past 4GiB, but the zip doesn't "
+                            + "have a Zip64 end-of-central-directory record to hold its offset");
+                }
+            }
+        }
 
-            short extraFieldLen = in.readShort();
-            out.writeShort(extraFieldLen);
+        return new AlignmentPlan(alignment, soFileAlignment, centralDir.fileLength, centralDir.eocdPosition,
+                centralDir.offset, centralDir.size, alignments, shifts, shiftAmount, null);
+    }
 
-            short fileCommentLen = in.readShort();
-            out.writeShort(fileCommentLen);
+    /**
+     * Adds an alignment that replaces the padding at the end of the extra field of the given local file header with an
+     * alignment extra field that aligns its data.
+     *
+     * @param shiftAmount The amount of bytes that the local file header is shifted by
+     */
+    private static void replacePadding(SeekableByteChannel file, LocalHeaderProber.Probe probe, long shiftAmount,
+                                       AlignmentTable alignments, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
 
-            passBytes(in, out, 8);
+        int paddingStart = probe.extraFieldLen;
 
-            // offset of local header
-            in.readInt();
-            out.writeInt(fileOffset);
+        if (probe.extraFieldLen > 0) {
+            byte[] extraField = buffers.block(probe.extraFieldLen);
+            ChannelCopier.readFully(file, ByteBuffer.wrap(extraField, 0, probe.extraFieldLen),
+                    probe.offset + 30 + probe.fileNameLen, buffers.stats);
 
-            passBytes(in, out, fileNameLen);
-            passBytes(in, out, extraFieldLen);
-            passBytes(in, out, fileCommentLen);
+            paddingStart = AlignmentExtraField.paddingStart(extraField, 0, probe.extraFieldLen);
+        }
 
-            out.flush();
-            fileOffsetIndex++;
+        long dataPos = probe.offset + 30 + probe.fileNameLen + paddingStart + shiftAmount;
+        int fieldLength = AlignmentExtraField.length(dataPos, probe.alignment);
 
-            header = in.readInt();
-        }
+        if (paddingStart + fieldLength > 0xffff)
+            throw new InvalidZipException("extra field of the local file header at " + probe.offset
+                    + " is too large to be padded with an alignment extra field of " + fieldLength + " bytes");
 
-        if (header != 0x06054b50)
-            throw new IOException("No end of central directory record header, there is something wrong");
+        alignments.add(
+                fieldLength,
+                probe.offset + 28,
+                (short) (paddingStart + fieldLength),
+                probe.fileNameLen + paddingStart,
+                probe.extraFieldLen - paddingStart,
+                probe.alignment);
+    }
 
-        // end of central directory record
-        out.writeInt(0x06054b50);
-        passBytes(in, out, 12);
+    /**
+     * Creates a probe for the local file header of every entry that the given policy requires to be aligned.
+     */
+    static ArrayList<LocalHeaderProber.Probe> collectProbes(ZipIndex index, AlignmentPolicy policy) {
+        ArrayList<LocalHeaderProber.Probe> probes = new ArrayList<>();
 
-        // offset of where central directory starts
-        in.readInt();
-        out.writeInt(centralDirectoryPosition);
+        for (int ei = 0; ei < index.size(); ei++) {
+            // filenames are matched by the policy without being decoded
+            int required = index.requiredAlignment(ei, policy);
 
-        short commentLen = in.readShort();
-        out.writeShort(commentLen);
+            if (required != 0) {
+                boolean soFile = index.isSoFile(ei);
+                probes.add(new LocalHeaderProber.Probe(ei, index.centralDir.localHeaderOffset(ei), required, soFile));
+            }
+        }
 
-        passBytes(in, out, commentLen);
+        return probes;
     }
 
-    private static void passBytes(RandomAccessFile raf, OutputStream out, long len) throws IOException {
-        byte[] buffer = new byte[8162];
+    /**
+     * @param dataPos Where the data of an entry is going to start
+     * @param alignment The alignment that the data is required to be aligned to
+     * @return The amount of null bytes to pad the extra field with for the data to be aligned
+     */
+    static int padding(long dataPos, int alignment) {
+        int wrongOffset = (int) (dataPos % alignment);
+        return wrongOffset == 0 ? 0 : (alignment - wrongOffset);
+    }
 
-        long left;
-        for (left = len; left > 8162; left -= 8162) {
-            raf.read(buffer);
-            out.write(buffer);
-        }
+    /**
+     * Aligns the zip from the given input stream and outputs it to the given output stream with 4 byte alignment,
+     * without aligning .so files.<br/>
+     * <br/>
+     * Example usage:
+     * <pre>
+     *     FileInputStream zipIn = ...;
+     *     FileOutputStream zipOut = ...;
+     *
+     *     ZipAlign.alignZip(zipIn, zipOut);
+     * </pre>
+     *
+     * @param zipIn The zip input stream
+     * @param zipOut The zip output stream
+     * @deprecated Does not align .so files, see {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int)
+     */
+    @Deprecated
+    public static void alignZip(InputStream zipIn, OutputStream zipOut) throws IOException {
+        alignZip(zipIn, zipOut, 4);
+    }
 
-        if (left != 0) {
-            buffer = new byte[(int) left];
-            raf.read(buffer);
-            out.write(buffer);
+    /**
+     * Aligns the zip from the given input stream and outputs it to the given output stream, without aligning .so
+     * files.<br/>
+     * <br/>
+     * Example usage:
+     * <pre>
+     *     FileInputStream zipIn = ...;
+     *     FileOutputStream zipOut = ...;
+     *
+     *     ZipAlign.alignZip(zipIn, zipOut, 4);
+     * </pre>
+     *
+     * @param zipIn The zip input stream
+     * @param zipOut The zip output stream
+     * @param alignment Alignment in bytes, usually 4
+     * @deprecated Does not align .so files, see {@link ZipAlign#alignZip(InputStream, OutputStream, int, int)}
+     * @see ZipAlign#alignZip(InputStream, OutputStream)
+     */
+    @Deprecated
+    public static void alignZip(InputStream zipIn, OutputStream zipOut, int alignment) throws IOException {
+        try {
+            alignZip(zipIn, zipOut, alignment, 0);
+        } catch (InvalidZipException e) {
+            throw new IOException(e.getMessage(), e);
         }
-
-        out.flush();
     }
 
     /**
-     * Passes a specified length of bytes from an {@link InputStream} to an {@link OutputStream}
-     * @param in The input stream
-     * @param out The output stream
-     * @param len The length of how many bytes to be passed
+     * Aligns uncompressed data of the zip read from the given input stream to the specified byte boundaries and .so
+     * files into the specified page boundaries, and outputs it to the given output stream. This is for zips that can
+     * only be read once from the start to the end (e.g. from a pipe or a socket), use
+     * {@link ZipAlign#alignZip(RandomAccessFile, OutputStream, int, int)} whenever the zip is a file.<br/>
+     * <br/>
+     * The input is read in a single pass through a large window, the data of entries is passed through in blocks and
+     * only entries whose sizes are stored in their data descriptors are searched for the end of their data. An APK
+     * signing block before the central directory is passed as is. A data descriptor without a signature is found by
+     * the record that follows it, when that record is an APK signing block it has to be smaller than the window
+     * (256KiB), otherwise the zip is rejected with an {@link InvalidZipException}.<br/>
+     * <br/>
+     * Example usage:
+     * <pre>
+     *     InputStream zipIn = socket.getInputStream();
+     *     FileOutputStream zipOut = ...;
+     *
+     *     ZipAlign.alignZip(zipIn, zipOut, 4, 16384);
+     * </pre>
+     *
+     * @param zipIn The zip input stream, read up to its end
+     * @param zipOut The zip output stream
+     * @param alignment Alignment in bytes, usually 4
+     * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384 (16KiB) to support Android 15+; set to 0 to disable.
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
      */
-    private static void passBytes(InputStream in, OutputStream out, int len) throws IOException {
-        byte[] data = new byte[len];
-        if (in.read(data) == -1) throw new IOException("Reached EOF when passing bytes");
-        out.write(data);
+    public static void alignZip(InputStream zipIn, OutputStream zipOut, int alignment, int soFileAlignment)
+            throws IOException, InvalidZipException {
+        aligner(alignment, soFileAlignment).alignZip(zipIn, zipOut);
     }
 }
@@ -0,0 +1,713 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A reusable and thread-safe aligner with a fixed configuration. Every thread that uses it gets its own set of scratch
+ * buffers that are kept around for the next alignment, and writes to the output are coalesced into a single buffer
+ * that is only flushed once at the end. Prefer keeping an instance around over calling the static functions of
+ * {@link ZipAlign} when aligning many zips in a long-running process.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     ZipAligner aligner = new ZipAligner.Builder()
+ *             .alignment(4)
+ *             .soFileAlignment(16384)
+ *             .bufferSize(128 * 1024)
+ *             .build();
+ *
+ *     aligner.alignZip(zipFile, zipOut);
+ * </pre>
+ *
+ * @see ZipAligner.Builder
+ */
+public class ZipAligner {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final int alignment;
+    private final int soFileAlignment;
+    private final AlignmentPolicy policy;
+    private final int bufferSize;
+    private final int copyParallelism;
+    private final boolean alignmentExtraField;
+    private final boolean verifyCrc;
+    private final AlignListener listener;
+
+    private final ThreadLocal<AlignBuffers> buffers = new ThreadLocal<AlignBuffers>() {
+        @Override
+        protected AlignBuffers initialValue() {
+            return new AlignBuffers(bufferSize);
+        }
+    };
+
+    private ZipAligner(int alignment, int soFileAlignment, AlignmentPolicy policy, int bufferSize,
+                       int copyParallelism, boolean alignmentExtraField, boolean verifyCrc, AlignListener listener) {
+        this.alignment = alignment;
+        this.soFileAlignment = soFileAlignment;
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        this.copyParallelism = copyParallelism;
+        this.alignmentExtraField = alignmentExtraField;
+        this.verifyCrc = verifyCrc;
+        this.listener = listener;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    public int getSoFileAlignment() {
+        return soFileAlignment;
+    }
+
+    /**
+     * @return The policy that decides what the data of every entry is aligned to, the one of {@link #getAlignment()}
+     * and {@link #getSoFileAlignment()} unless one was given to the builder
+     */
+    public AlignmentPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getCopyParallelism() {
+        return copyParallelism;
+    }
+
+    public boolean usesAlignmentExtraField() {
+        return alignmentExtraField;
+    }
+
+    /**
+     * @return Whether the data of stored entries is verified against their CRC-32s as the zip is copied
+     */
+    public boolean verifiesCrc() {
+        return verifyCrc;
+    }
+
+    /**
+     * @return The listener that is told about every alignment, may be null
+     */
+    public AlignListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Aligns the given zip file and streams the aligned version of it into the given output stream. Unchanged ranges
+     * are transferred straight from the file when the output is a {@link java.io.FileOutputStream}, anything else is
+     * written in blocks of {@link #getBufferSize()} bytes. The output is flushed once done.
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file, only read through positional reads
+     * @param out The output where the aligned version of the given zip will be streamed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or as a
+     *                             {@link CrcMismatchException} once it is written when stored entries are verified
+     *                             and some of them don't match their CRC-32s.
+     *
+     * @see ZipAlign#alignZip(RandomAccessFile, OutputStream, int, int)
+     */
+    public void alignZip(RandomAccessFile file, OutputStream out) throws IOException, InvalidZipException {
+        AlignBuffers buffers = begin(listener);
+        FileChannel channel = file.getChannel();
+
+        ZipIndex index = ZipIndex.read(channel, buffers);
+        AlignmentPlan plan = ZipAlign.analyze(index, alignment, soFileAlignment, policy, alignmentExtraField,
+                buffers);
+
+        // done analyzing! now we're going to stream the aligned zip
+        stream(plan, channel, out, verifier(index, buffers), buffers);
+
+        report(buffers);
+    }
+
+    /**
+     * Aligns the given zip and writes the aligned version of it into the given channel. Copied ranges, patched fields
+     * and padding are collected in a {@link #getBufferSize()} bytes buffer and written together with a single
+     * gathering write whenever the output is a {@link java.nio.channels.GatheringByteChannel}. Unchanged ranges that
+     * don't fit in the buffer are transferred straight from the input when it is a {@link FileChannel}.<br/>
+     * <br/>
+     * When both channels are {@link FileChannel}s and {@link Builder#copyParallelism(int)} is more than 1, large zips
+     * are split into segments that are written concurrently with positional reads and writes instead.
+     *
+     * @param in The zip, only read through positional reads: its position before the call doesn't matter, and it is
+     *           left unchanged when it is a {@link FileChannel}
+     * @param out Where the aligned version of the given zip will be written to, it is not closed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or as a
+     *                             {@link CrcMismatchException} once it is written when stored entries are verified
+     *                             and some of them don't match their CRC-32s.
+     *
+     * @see ZipAlign#alignZip(SeekableByteChannel, WritableByteChannel, int, int)
+     */
+    public void alignZip(SeekableByteChannel in, WritableByteChannel out) throws IOException, InvalidZipException {
+        AlignBuffers buffers = begin(listener);
+
+        ZipIndex index = ZipIndex.read(in, buffers);
+        AlignmentPlan plan = ZipAlign.analyze(index, alignment, soFileAlignment, policy, alignmentExtraField,
+                buffers);
+        apply(plan, in, out, verifier(index, buffers), buffers);
+
+        report(buffers);
+    }
+
+    /**
+     * Analyzes the given zip without writing anything, see {@link #analyze(SeekableByteChannel)}.
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file, only read through positional reads
+     * @return The plan of the alignment
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public AlignmentPlan analyze(RandomAccessFile file) throws IOException, InvalidZipException {
+        return analyze(file.getChannel());
+    }
+
+    /**
+     * Analyzes the given zip without writing anything: figures out where padding needs to be inserted and every
+     * offset that is going to be shifted by it. The plan can then be applied any number of times with
+     * {@link #apply(AlignmentPlan, SeekableByteChannel, WritableByteChannel)}, or serialized to be applied later.
+     *
+     * @param in The zip, only read through positional reads
+     * @return The plan of the alignment, carrying a fingerprint of the zip's central directory
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public AlignmentPlan analyze(SeekableByteChannel in) throws IOException, InvalidZipException {
+        AlignBuffers buffers = begin(null);
+        return analyze(ZipIndex.read(in, buffers), buffers);
+    }
+
+    /**
+     * Analyzes the zip of the given index without writing anything, see {@link #analyze(SeekableByteChannel)}. Its
+     * central directory is not read again.
+     *
+     * @param index The index of the zip, its channel must still be open
+     * @return The plan of the alignment, carrying a fingerprint of the zip's central directory
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public AlignmentPlan analyze(ZipIndex index) throws IOException, InvalidZipException {
+        return analyze(index, begin(null));
+    }
+
+    private AlignmentPlan analyze(ZipIndex index, AlignBuffers buffers) throws IOException, InvalidZipException {
+        AlignmentPlan plan = ZipAlign.analyze(index, alignment, soFileAlignment, policy, alignmentExtraField,
+                buffers);
+        return plan.withFingerprint(CentralDirectory.fingerprint(index.channel, plan.centralDirOffset, buffers));
+    }
+
+    /**
+     * Applies a plan made by {@link #analyze(RandomAccessFile)} to the same zip, see
+     * {@link #apply(AlignmentPlan, SeekableByteChannel, WritableByteChannel)}. When stored entries are verified, the
+     * central directory is read again for them.
+     *
+     * @param plan The plan of the alignment
+     * @param file A {@link RandomAccessFile} reference to the zip file that the plan was made from
+     * @param out The output where the aligned version of the given zip will be streamed, flushed once done
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip is not the one that the plan was made from.
+     */
+    public void apply(AlignmentPlan plan, RandomAccessFile file, OutputStream out)
+            throws IOException, InvalidZipException {
+
+        AlignBuffers buffers = begin(listener);
+        FileChannel channel = file.getChannel();
+
+        verify(plan, channel, buffers);
+        buffers.stats.archiveSize = plan.fileLength;
+        stream(plan, channel, out, verifyCrc ? verifier(ZipIndex.read(channel, buffers), buffers) : null, buffers);
+
+        report(buffers);
+    }
+
+    /**
+     * Applies a plan made by {@link #analyze(SeekableByteChannel)} to the same zip, writing the aligned version of it
+     * into the given channel. The plan is applied as it was made, the alignments of this aligner are not used. Only
+     * the central directory of the zip is read to check that it is still the one that the plan was made from, the
+     * local file headers are not probed again unless stored entries are verified.
+     *
+     * @param plan The plan of the alignment
+     * @param in The zip that the plan was made from, only read through positional reads
+     * @param out Where the aligned version of the given zip will be written to, it is not closed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip is not the one that the plan was made from.
+     */
+    public void apply(AlignmentPlan plan, SeekableByteChannel in, WritableByteChannel out)
+            throws IOException, InvalidZipException {
+
+        AlignBuffers buffers = begin(listener);
+
+        verify(plan, in, buffers);
+        buffers.stats.archiveSize = plan.fileLength;
+        apply(plan, in, out, verifyCrc ? verifier(ZipIndex.read(in, buffers), buffers) : null, buffers);
+
+        report(buffers);
+    }
+
+    /**
+     * Rejects a zip whose length or central directory doesn't match the fingerprint of the plan.
+     */
+    private static void verify(AlignmentPlan plan, SeekableByteChannel in, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
+
+        if (in.size() != plan.fileLength
+                || !Arrays.equals(plan.fingerprint, CentralDirectory.fingerprint(in, plan.centralDirOffset, buffers)))
+            throw new InvalidZipException("The zip doesn't match the alignment plan, it has changed since the plan was "
+                    + "made");
+    }
+
+    /**
+     * Streams the aligned zip into the given output stream, see {@link #alignZip(RandomAccessFile, OutputStream)}.
+     *
+     * @param verifier Verifies the stored entries as they're copied, may be null
+     */
+    private static void stream(AlignmentPlan plan, FileChannel in, OutputStream out, CrcVerifier verifier,
+                               AlignBuffers buffers) throws IOException, InvalidZipException {
+
+        buffers.stats.startPhase();
+
+        CrcVerifier.Feed feed = verifier != null ? verifier.feed() : null;
+        ZipSink output = new CoalescingOutput(out, buffers.output(), buffers.stats, feed);
+
+        try {
+            PlanExecutor.apply(plan, in, output, buffers);
+
+            if (verifier != null) {
+                feed.finish();
+                verifier.finish();
+            }
+        } finally {
+            if (verifier != null) verifier.cancel();
+        }
+
+        buffers.stats.endPhase(AlignStats.Phase.STREAMING);
+    }
+
+    /**
+     * Writes the aligned zip into the given channel, concurrently when both channels are files large enough to be
+     * worth splitting. Every segment that is written concurrently checksums the parts of the stored entries in it,
+     * which are combined once they're all written.
+     *
+     * @param verifier Verifies the stored entries as they're copied, may be null
+     */
+    private void apply(AlignmentPlan plan, SeekableByteChannel in, WritableByteChannel out, CrcVerifier verifier,
+                       AlignBuffers buffers) throws IOException, InvalidZipException {
+
+        buffers.stats.startPhase();
+
+        try {
+            if (copyParallelism > 1 && in instanceof FileChannel && out instanceof FileChannel
+                    && plan.fileLength >= 2 * PlanExecutor.MIN_SEGMENT_SIZE) {
+                PlanExecutor.applyParallel(plan, (FileChannel) in, (FileChannel) out, copyParallelism, verifier,
+                        buffers.stats);
+            } else {
+                CrcVerifier.Feed feed = verifier != null ? verifier.feed() : null;
+                PlanExecutor.apply(plan, in, new GatheringOutput(out, buffers.output(), buffers.stats, feed), buffers);
+
+                if (feed != null) feed.finish();
+            }
+
+            if (verifier != null) verifier.finish();
+        } finally {
+            if (verifier != null) verifier.cancel();
+        }
+
+        buffers.stats.endPhase(AlignStats.Phase.STREAMING);
+    }
+
+    /**
+     * Rejects verifying stored entries in an alignment that only moves some of the zip in place, most of the entries
+     * would never be read.
+     */
+    private void rejectVerification(String alignment) {
+        if (verifyCrc)
+            throw new UnsupportedOperationException(alignment + " doesn't verify the CRC-32s of stored entries, use an "
+                    + "aligner that isn't built with verifyCrc");
+    }
+
+    /**
+     * @return What verifies the stored entries of the zip of the given index as they're copied, or null when this
+     * aligner doesn't verify them
+     */
+    CrcVerifier verifier(ZipIndex index, AlignBuffers buffers) throws IOException, InvalidZipException {
+        return verifyCrc ? CrcVerifier.collect(index, buffers) : null;
+    }
+
+    /**
+     * @param listener Who is going to be told about the phases of what's about to run, may be null
+     * @return The buffers of the calling thread, with their counters cleared
+     */
+    private AlignBuffers begin(AlignListener listener) {
+        AlignBuffers buffers = this.buffers.get();
+        buffers.stats.reset(listener);
+
+        return buffers;
+    }
+
+    /**
+     * Tells the listener and Java Flight Recorder about the alignment that just finished.
+     */
+    private void report(AlignBuffers buffers) {
+        AlignStats stats = buffers.stats.finish();
+        if (listener != null) listener.onAligned(stats);
+    }
+
+    /**
+     * Starts aligning the given zip file into the given output file asynchronously, see
+     * {@link ZipAlign#alignZipAsync(Path, Path, int, int)}.
+     *
+     * @param in The zip file
+     * @param out Where the aligned zip is going to be written to, it is overwritten
+     * @return Completed with the result of the alignment once it's done, a failure is reported in the result
+     */
+    public CompletableFuture<AlignResult> alignZipAsync(Path in, Path out) {
+        return AsyncAligner.align(this, in, out, null);
+    }
+
+    /**
+     * Starts aligning the given zip file into the given output file asynchronously, see
+     * {@link ZipAlign#alignZipAsync(Path, Path, int, int)}.
+     *
+     * @param in The zip file
+     * @param out Where the aligned zip is going to be written to, it is overwritten
+     * @param executor Where the zip is analyzed and where the reads and writes complete, it is also given to the
+     *                 {@link java.nio.channels.AsynchronousFileChannel}s. Unlike on the shared pool, every alignment
+     *                 started on it runs right away, how many of them run at a time is bounded by the caller
+     * @return Completed with the result of the alignment once it's done, a failure is reported in the result
+     */
+    public CompletableFuture<AlignResult> alignZipAsync(Path in, Path out, ExecutorService executor) {
+        return AsyncAligner.align(this, in, out, executor);
+    }
+
+    /**
+     * Aligns the zip read from the given input stream and streams the aligned version of it into the given output
+     * stream, for when the zip can't be seeked through (e.g. it comes from a pipe or a socket). The input is read in
+     * a single pass through a 256KiB window. The output is flushed once done.
+     *
+     * @param in The zip input stream, read up to its end
+     * @param out The output where the aligned version of the given zip will be streamed
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or as a
+     *                             {@link CrcMismatchException} once it is written when stored entries are verified
+     *                             and some of them don't match their CRC-32s.
+     *
+     * @see ZipAlign#alignZip(InputStream, OutputStream, int, int)
+     */
+    public void alignZip(InputStream in, OutputStream out) throws IOException, InvalidZipException {
+        AlignBuffers buffers = begin(listener);
+
+        StreamAligner.align(in, out, policy, alignmentExtraField, verifyCrc, buffers);
+        report(buffers);
+    }
+
+    /**
+     * Aligns the given zip file in-place, see {@link ZipAlign#alignInPlace(FileChannel, Path, int, int)}.
+     *
+     * @param zip The path to the zip file, its journal is stored next to it as {@code <file name>.alignjournal}
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     * @throws UnsupportedOperationException Will be thrown when this aligner verifies stored entries
+     */
+    public void alignInPlace(Path zip) throws IOException, InvalidZipException {
+        rejectVerification("In-place alignment");
+        Path journal = zip.resolveSibling(zip.getFileName() + ".alignjournal");
+
+        try (FileChannel file = FileChannel.open(zip, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            alignInPlace(file, journal);
+        }
+    }
+
+    /**
+     * Aligns the given zip file in-place, see {@link ZipAlign#alignInPlace(FileChannel, Path, int, int)}.
+     *
+     * @param zip The zip file, opened for both reading and writing
+     * @param journal Where the progress of the alignment is going to be recorded, it is deleted once done
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     * @throws UnsupportedOperationException Will be thrown when this aligner verifies stored entries
+     */
+    public void alignInPlace(FileChannel zip, Path journal) throws IOException, InvalidZipException {
+        rejectVerification("In-place alignment");
+        InPlaceAligner.align(zip, journal, alignment, soFileAlignment, policy, begin(null));
+    }
+
+    /**
+     * Adds, replaces and deletes entries of the given aligned zip in-place, see
+     * {@link ZipAlign#update(FileChannel, ZipUpdate, int, int)}.
+     *
+     * @param zip The path to the zip file, a temporary file may be created next to it
+     * @param update The entries to add, replace or delete
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or can't be updated incrementally.
+     * @throws UnsupportedOperationException Will be thrown when this aligner verifies stored entries
+     */
+    public void update(Path zip, ZipUpdate update) throws IOException, InvalidZipException {
+        rejectVerification("An incremental update");
+
+        try (FileChannel file = FileChannel.open(zip, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Path directory = zip.toAbsolutePath().getParent();
+            IncrementalUpdater.update(file, directory, update, policy, alignmentExtraField, begin(null));
+        }
+    }
+
+    /**
+     * Adds, replaces and deletes entries of the given aligned zip in-place, see
+     * {@link ZipAlign#update(FileChannel, ZipUpdate, int, int)}.
+     *
+     * @param zip The zip file, opened for both reading and writing
+     * @param update The entries to add, replace or delete
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid, or can't be updated incrementally.
+     * @throws UnsupportedOperationException Will be thrown when this aligner verifies stored entries
+     */
+    public void update(FileChannel zip, ZipUpdate update) throws IOException, InvalidZipException {
+        rejectVerification("An incremental update");
+        IncrementalUpdater.update(zip, null, update, policy, alignmentExtraField, begin(null));
+    }
+
+    /**
+     * Checks whether the given zip file is aligned, see {@link ZipAlign#check(RandomAccessFile, int, int, boolean)}.
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file.
+     * @param stopAtFirstViolation Stops checking the rest of the entries as soon as one is not aligned
+     * @return A report of every checked entry that is required to be aligned
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public AlignmentReport check(RandomAccessFile file, boolean stopAtFirstViolation)
+            throws IOException, InvalidZipException {
+
+        AlignBuffers buffers = begin(null);
+        return check(ZipIndex.read(file.getChannel(), buffers), stopAtFirstViolation, buffers);
+    }
+
+    /**
+     * Checks whether the zip of the given index is aligned, see
+     * {@link ZipAlign#check(RandomAccessFile, int, int, boolean)}. Its central directory is not read again.
+     *
+     * @param index The index of the zip, its channel must still be open
+     * @param stopAtFirstViolation Stops checking the rest of the entries as soon as one is not aligned
+     * @return A report of every checked entry that is required to be aligned
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public AlignmentReport check(ZipIndex index, boolean stopAtFirstViolation)
+            throws IOException, InvalidZipException {
+        return check(index, stopAtFirstViolation, begin(null));
+    }
+
+    private AlignmentReport check(ZipIndex index, final boolean stopAtFirstViolation, AlignBuffers buffers)
+            throws IOException, InvalidZipException {
+
+        final CentralDirectory centralDir = index.centralDir;
+        ArrayList<LocalHeaderProber.Probe> probes = ZipAlign.collectProbes(index, policy);
+
+        final ArrayList<AlignmentReport.Entry> entries = new ArrayList<>();
+        final boolean[] stoppedEarly = new boolean[1];
+
+        LocalHeaderProber.probe(index.channel, probes, new LocalHeaderProber.Visitor() {
+            @Override
+            public boolean visit(LocalHeaderProber.Probe probe) {
+                AlignmentReport.Entry entry = new AlignmentReport.Entry(centralDir.fileName(probe.entry),
+                        probe.offset, probe.dataOffset(), probe.alignment);
+                entries.add(entry);
+
+                if (stopAtFirstViolation && !entry.isAligned()) {
+                    stoppedEarly[0] = true;
+                    return false;
+                }
+
+                return true;
+            }
+        }, buffers);
+
+        return new AlignmentReport(entries, stoppedEarly[0]);
+    }
+
+    /**
+     * Aligns many zip files concurrently, see {@link ZipAlign#alignAll(Map, int, int, int)}.
+     *
+     * @param jobs Every zip to align, mapped to where its aligned version is going to be written to
+     * @param parallelism The maximum amount of zips that are aligned at the same time
+     * @return The result of every zip, in the iteration order of the given map
+     *
+     * @throws InterruptedException Will be thrown when the calling thread is interrupted while waiting for the batch
+     */
+    public List<AlignResult> alignAll(Map<Path, Path> jobs, int parallelism) throws InterruptedException {
+        return BatchAligner.alignAll(jobs, this, parallelism);
+    }
+
+    @Override
+    public String toString() {
+        return "ZipAligner{" +
+                "alignment=" + alignment +
+                ", soFileAlignment=" + soFileAlignment +
+                ", policy=" + policy +
+                ", bufferSize=" + bufferSize +
+                ", copyParallelism=" + copyParallelism +
+                ", alignmentExtraField=" + alignmentExtraField +
+                ", verifyCrc=" + verifyCrc +
+                ", listener=" + listener +
+                '}';
+    }
+
+    /**
+     * Builds a {@link ZipAligner}, defaults to 4-byte alignment, 16384-byte (16KiB) .so file alignment, a
+     * {@link #DEFAULT_BUFFER_SIZE} bytes buffer and writing from a single thread.
+     */
+    public static class Builder {
+        private int alignment = 4;
+        private int soFileAlignment = 16384;
+        private AlignmentPolicy policy;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private int copyParallelism = 1;
+        private boolean alignmentExtraField;
+        private boolean verifyCrc;
+        private AlignListener listener;
+
+        /**
+         * @param alignment Alignment in bytes, usually 4
+         */
+        public Builder alignment(int alignment) {
+            if (alignment < 1) throw new IllegalArgumentException("alignment must be at least 1: " + alignment);
+
+            this.alignment = alignment;
+            return this;
+        }
+
+        /**
+         * @param soFileAlignment Alignment for .so files in bytes, 4096 (4KiB) in older systems, recommended 16384
+         *                        (16KiB) to support Android 15+; set to 0 to disable.
+         */
+        public Builder soFileAlignment(int soFileAlignment) {
+            if (soFileAlignment < 0)
+                throw new IllegalArgumentException("soFileAlignment must not be negative: " + soFileAlignment);
+
+            this.soFileAlignment = soFileAlignment;
+            return this;
+        }
+
+        /**
+         * @param policy Decides what the data of every entry is aligned to, in place of {@link #alignment(int)} and
+         *               {@link #soFileAlignment(int)} which are then only recorded in the plans this aligner makes;
+         *               null to go back to them. See {@link AlignmentPolicy.Builder}.
+         */
+        public Builder policy(AlignmentPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param bufferSize The size of the buffer that writes are coalesced in, per thread
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 64) throw new IllegalArgumentException("bufferSize must be at least 64: " + bufferSize);
+
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param copyParallelism The amount of threads that write a single zip when aligning a {@link FileChannel}
+         *                        into another, for zips of at least 32MiB; 1 writes everything from the calling thread
+         */
+        public Builder copyParallelism(int copyParallelism) {
+            if (copyParallelism < 1)
+                throw new IllegalArgumentException("copyParallelism must be at least 1: " + copyParallelism);
+
+            this.copyParallelism = copyParallelism;
+            return this;
+        }
+
+        /**
+         * @param alignmentExtraField Whether misaligned entries are padded with an alignment extra field (0xD935) like
+         *                            apksigner does, replacing the null bytes or alignment fields that they're already
+         *                            padded with; instead of having null bytes appended to their extra field. Zips
+         *                            that get aligned again then don't grow every time. Entries moved or added by
+         *                            an update are padded the same way. In-place alignment always appends null
+         *                            bytes.
+         */
+        public Builder alignmentExtraField(boolean alignmentExtraField) {
+            this.alignmentExtraField = alignmentExtraField;
+            return this;
+        }
+
+        /**
+         * @param verifyCrc Whether the data of every stored entry is verified against the CRC-32 that the central
+         *                  directory has for it, as the zip is copied. Entries are checksummed from the bytes that
+         *                  are copied, only ranges transferred between files without passing through memory are read
+         *                  again (the ones larger than 256KiB on a shared pool of worker threads). The aligned zip is
+         *                  still written in full, then a {@link CrcMismatchException} is thrown with every entry that
+         *                  doesn't match. In-place alignments and updates throw an
+         *                  {@link UnsupportedOperationException} instead, they don't copy the whole zip.
+         */
+        public Builder verifyCrc(boolean verifyCrc) {
+            this.verifyCrc = verifyCrc;
+            return this;
+        }
+
+        /**
+         * @param listener Told about the phases and the stats of every alignment, from the thread that aligns the
+         *                 zip; null to not be told about anything
+         */
+        public Builder listener(AlignListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public ZipAligner build() {
+            AlignmentPolicy policy = this.policy;
+            if (policy == null) policy = AlignmentPolicy.standard(alignment, soFileAlignment);
+
+            // the alignment extra field holds the alignment in 2 bytes, the alignments of custom policies are only
+            // known as entries are aligned
+            int maxAlignment = 0;
+            if (policy instanceof StandardAlignmentPolicy) {
+                maxAlignment = ((StandardAlignmentPolicy) policy).maxAlignment();
+            } else if (policy instanceof RuleAlignmentPolicy) {
+                maxAlignment = ((RuleAlignmentPolicy) policy).maxAlignment();
+            }
+
+            if (alignmentExtraField && maxAlignment > 0xffff)
+                throw new IllegalStateException("alignments larger than 65535 can't be written in an alignment extra "
+                        + "field");
+
+            return new ZipAligner(alignment, soFileAlignment, policy, bufferSize, copyParallelism,
+                    alignmentExtraField, verifyCrc, listener);
+        }
+    }
+}
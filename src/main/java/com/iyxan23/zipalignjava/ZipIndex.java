@@ -0,0 +1,366 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The entries of a zip, read from its central directory with a single bulk read and kept as is in memory. Nothing is
+ * decoded up front: filenames are only decoded when they're asked for, the index for looking entries up by their names
+ * is only built on the first lookup, and where the data of an entry starts is only read from its local file header
+ * when it's asked for.<br/>
+ * <br/>
+ * One index can be used for looking entries up, for {@link ZipAligner#check(ZipIndex, boolean) checking} whether the
+ * zip is aligned and for {@link ZipAligner#analyze(ZipIndex) analyzing} it, without reading the central directory
+ * again. The channel it's read from must be kept open for as long as data offsets are asked for, the index never
+ * closes it. An index must only be used by one thread at a time.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     ZipIndex index = ZipIndex.read(channel);
+ *
+ *     ZipIndex.Entry resources = index.find("resources.arsc");
+ *     if (resources != null &amp;&amp; !resources.isAligned(4, 16384)) {
+ *         System.out.println("resources.arsc starts at " + resources.getDataOffset() + ", which isn't aligned");
+ *     }
+ * </pre>
+ */
+public class ZipIndex {
+    private static final byte[] SO_SUFFIX = ".so".getBytes(StandardCharsets.US_ASCII);
+
+    final SeekableByteChannel channel;
+    final CentralDirectory centralDir;
+
+    // where the data of each entry starts, 0 when it hasn't been read yet; allocated on the first read
+    private long[] dataOffsets;
+
+    // an open-addressing hash table of entry indexes + 1 by their filenames, 0 is an empty slot; built on the first
+    // lookup
+    private int[] nameTable;
+
+    private ZipIndex(SeekableByteChannel channel, CentralDirectory centralDir) {
+        this.channel = channel;
+        this.centralDir = centralDir;
+    }
+
+    /**
+     * Reads the central directory of the given zip.
+     *
+     * @param in The zip, only read through positional reads. It must be kept open for data offsets to be read.
+     * @return The index of the zip
+     *
+     * @throws IOException Will be thrown on IO errors
+     * @throws InvalidZipException Will be thrown when the zip given is not valid.
+     */
+    public static ZipIndex read(SeekableByteChannel in) throws IOException, InvalidZipException {
+        return read(in, new AlignBuffers(0));
+    }
+
+    /**
+     * Reads the central directory of the given zip, see {@link #read(SeekableByteChannel)}.
+     *
+     * @param file A {@link RandomAccessFile} reference to the zip file, it must be kept open for data offsets to be
+     *             read
+     */
+    public static ZipIndex read(RandomAccessFile file) throws IOException, InvalidZipException {
+        return read(file.getChannel());
+    }
+
+    /**
+     * @param buffers Where the scratch buffer for the EOCD lookup is taken from, and where the reads are counted in
+     */
+    static ZipIndex read(SeekableByteChannel in, AlignBuffers buffers) throws IOException, InvalidZipException {
+        return new ZipIndex(in, CentralDirectory.read(in, buffers));
+    }
+
+    /**
+     * @return The amount of entries in the central directory
+     */
+    public int size() {
+        return centralDir.totalEntries;
+    }
+
+    /**
+     * @return The length of the zip when the index was read
+     */
+    public long getFileLength() {
+        return centralDir.fileLength;
+    }
+
+    /**
+     * @return The entry at the given index, in the order of the central directory
+     */
+    public Entry getEntry(int index) {
+        if (index < 0 || index >= centralDir.totalEntries)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + centralDir.totalEntries);
+
+        return new Entry(this, index);
+    }
+
+    /**
+     * @return Every entry in the order of the central directory. The list is a read-only view, its elements are made
+     * as they're asked for.
+     */
+    public List<Entry> getEntries() {
+        return new AbstractList<Entry>() {
+            @Override
+            public Entry get(int index) {
+                return getEntry(index);
+            }
+
+            @Override
+            public int size() {
+                return centralDir.totalEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks an entry up by its name, see {@link #find(byte[])}.
+     *
+     * @param name The name of the entry, it's encoded in UTF-8
+     */
+    public Entry find(String name) {
+        return find(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks an entry up by its name as it is stored in the central directory, without decoding the names of other
+     * entries. The first lookup builds a hash table of every name, which takes 8 bytes per entry.
+     *
+     * @param rawName The bytes of the name of the entry
+     * @return The first entry in the central directory with the given name, or null if there's none
+     */
+    public Entry find(byte[] rawName) {
+        int[] table = nameTable();
+        int mask = table.length - 1;
+
+        for (int slot = CentralDirectory.fileNameHash(rawName, 0, rawName.length) & mask; table[slot] != 0;
+             slot = (slot + 1) & mask) {
+
+            int entry = table[slot] - 1;
+            if (centralDir.fileNameEquals(entry, rawName)) return new Entry(this, entry);
+        }
+
+        return null;
+    }
+
+    private int[] nameTable() {
+        if (nameTable != null) return nameTable;
+
+        // at most half full, so that a lookup of a name that isn't there ends soon
+        int entries = centralDir.totalEntries;
+        int capacity = Integer.highestOneBit(Math.max(entries, 1)) << 2;
+
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+
+        // in the order of the central directory, so the first of the entries with the same name is found first
+        for (int entry = 0; entry < entries; entry++) {
+            int slot = centralDir.fileNameHash(entry) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+
+            table[slot] = entry + 1;
+        }
+
+        nameTable = table;
+        return table;
+    }
+
+    /**
+     * @return The alignment that the data of the entry at the given index is required to be aligned to: .so files to
+     * the .so file alignment, the rest of uncompressed entries to the regular alignment; or 0 if it doesn't need to be
+     */
+    int requiredAlignment(int entry, int alignment, int soFileAlignment) {
+        if (soFileAlignment != 0 && isSoFile(entry)) return soFileAlignment;
+        if (centralDir.compressionMethod(entry) == 0) return alignment;
+
+        return 0;
+    }
+
+    /**
+     * @return The alignment that the given policy requires of the entry at the given index, or 0 if it doesn't need to
+     * be aligned
+     */
+    int requiredAlignment(int entry, AlignmentPolicy policy) {
+        return centralDir.requiredAlignment(entry, policy);
+    }
+
+    boolean isSoFile(int entry) {
+        return centralDir.fileNameEndsWith(entry, SO_SUFFIX);
+    }
+
+    /**
+     * Reads the local file header of the entry at the given index for where its data starts, the first time it is
+     * asked for.
+     */
+    long dataOffset(int entry) throws IOException, InvalidZipException {
+        if (dataOffsets == null) dataOffsets = new long[centralDir.totalEntries];
+        if (dataOffsets[entry] != 0) return dataOffsets[entry];
+
+        long offset = centralDir.localHeaderOffset(entry);
+        if (offset + LocalHeaderProber.LOCAL_HEADER_SIZE > channel.size())
+            throw new InvalidZipException("local file header at " + offset + " exceeds the end of the file");
+
+        ByteBuffer header = ByteBuffer.allocate(LocalHeaderProber.LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelCopier.readFully(channel, header, offset);
+
+        if (header.getInt(0) != 0x04034b50)
+            throw new InvalidZipException("assumed local file header at " + offset + " doesn't start with a signature");
+
+        int fileNameLen = header.getShort(26) & 0xffff;
+        int extraFieldLen = header.getShort(28) & 0xffff;
+
+        return dataOffsets[entry] = offset + LocalHeaderProber.LOCAL_HEADER_SIZE + fileNameLen + extraFieldLen;
+    }
+
+    @Override
+    public String toString() {
+        return "ZipIndex{" +
+                "entries=" + centralDir.totalEntries +
+                ", fileLength=" + centralDir.fileLength +
+                '}';
+    }
+
+    /**
+     * An entry of a {@link ZipIndex}, a view of its bytes in the central directory. Its values are read from the bytes
+     * every time they're asked for.
+     */
+    public static class Entry {
+        private final ZipIndex index;
+        private final int entry;
+
+        Entry(ZipIndex index, int entry) {
+            this.index = index;
+            this.entry = entry;
+        }
+
+        /**
+         * @return The position of this entry in the central directory
+         */
+        public int getIndex() {
+            return entry;
+        }
+
+        /**
+         * @return The name of this entry decoded as UTF-8
+         */
+        public String getName() {
+            return index.centralDir.fileName(entry);
+        }
+
+        /**
+         * @return A copy of the name of this entry as it is stored
+         */
+        public byte[] getRawName() {
+            return index.centralDir.rawFileName(entry);
+        }
+
+        /**
+         * @return The compression method of this entry, e.g. 0 for stored and 8 for deflated
+         */
+        public int getCompressionMethod() {
+            return index.centralDir.compressionMethod(entry);
+        }
+
+        /**
+         * @return Whether this entry is stored without compression
+         */
+        public boolean isStored() {
+            return getCompressionMethod() == 0;
+        }
+
+        public long getCrc() {
+            return index.centralDir.crc32(entry);
+        }
+
+        public long getCompressedSize() {
+            return index.centralDir.compressedSize(entry);
+        }
+
+        public long getUncompressedSize() {
+            return index.centralDir.uncompressedSize(entry);
+        }
+
+        /**
+         * @return The offset of the local file header of this entry
+         */
+        public long getLocalHeaderOffset() {
+            return index.centralDir.localHeaderOffset(entry);
+        }
+
+        /**
+         * @return Where the data of this entry starts in the file, read from its local file header the first time
+         *
+         * @throws IOException Will be thrown on IO errors
+         * @throws InvalidZipException Will be thrown when the offset of this entry doesn't point to a local file header
+         */
+        public long getDataOffset() throws IOException, InvalidZipException {
+            return index.dataOffset(entry);
+        }
+
+        /**
+         * @param alignment Alignment in bytes, usually 4
+         * @param soFileAlignment Alignment for .so files in bytes, set to 0 to disable
+         * @return The alignment that the data of this entry is required to be aligned to, or 0 if it doesn't need to
+         * be (it is compressed and it isn't a .so file)
+         */
+        public int getRequiredAlignment(int alignment, int soFileAlignment) {
+            return index.requiredAlignment(entry, alignment, soFileAlignment);
+        }
+
+        /**
+         * @param alignment Alignment in bytes, usually 4
+         * @param soFileAlignment Alignment for .so files in bytes, set to 0 to disable
+         * @return Whether the data of this entry is aligned, always true when it doesn't need to be
+         *
+         * @throws IOException Will be thrown on IO errors
+         * @throws InvalidZipException Will be thrown when the offset of this entry doesn't point to a local file header
+         */
+        public boolean isAligned(int alignment, int soFileAlignment) throws IOException, InvalidZipException {
+            int required = getRequiredAlignment(alignment, soFileAlignment);
+            return required == 0 || getDataOffset() % required == 0;
+        }
+
+        /**
+         * @param policy Decides what the data of every entry is aligned to
+         * @return The alignment that the given policy requires the data of this entry to be aligned to, or 0 if it
+         * doesn't need to be
+         */
+        public int getRequiredAlignment(AlignmentPolicy policy) {
+            return index.requiredAlignment(entry, policy);
+        }
+
+        /**
+         * @param policy Decides what the data of every entry is aligned to
+         * @return Whether the data of this entry is aligned as the given policy requires, always true when it doesn't
+         * need to be
+         *
+         * @throws IOException Will be thrown on IO errors
+         * @throws InvalidZipException Will be thrown when the offset of this entry doesn't point to a local file header
+         */
+        public boolean isAligned(AlignmentPolicy policy) throws IOException, InvalidZipException {
+            int required = getRequiredAlignment(policy);
+            return required == 0 || getDataOffset() % required == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "index=" + entry +
+                    ", name=" + getName() +
+                    ", compressionMethod=" + getCompressionMethod() +
+                    ", localHeaderOffset=" + getLocalHeaderOffset() +
+                    '}';
+        }
+    }
+}
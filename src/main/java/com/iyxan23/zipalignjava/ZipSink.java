@@ -0,0 +1,35 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Where an {@link AlignmentPlan} is applied to: the aligned zip is written as unchanged ranges copied from the source
+ * zip, interleaved with patched little-endian fields and padding.
+ *
+ * @see CoalescingOutput
+ * @see GatheringOutput
+ */
+interface ZipSink {
+    /**
+     * Copies {@code count} bytes starting at {@code position} of the given channel. Reads are positional, the
+     * position that the source channel had before doesn't matter.
+     */
+    void copy(SeekableByteChannel src, long position, long count) throws IOException;
+
+    /**
+     * Writes the lowest {@code width} bytes of the given value in little-endian.
+     */
+    void writeLittleEndian(long value, int width) throws IOException;
+
+    void writeZeros(int amount) throws IOException;
+
+    /**
+     * Writes everything that's still pending.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,165 @@
+// Copyright (C) 2022 Iyxan23, All rights reserved.
+// This file is licensed under the MIT license.
+// Full license text is available on https://opensource.org/licenses/MIT.
+
+package com.iyxan23.zipalignjava;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A set of entries to add, replace or delete in an aligned zip, applied with
+ * {@link ZipAlign#update(java.nio.file.Path, ZipUpdate)}. Entries are compressed as soon as they're put, so that
+ * applying the update only has to write them.<br/>
+ * <br/>
+ * Example:
+ * <pre>
+ *     ZipUpdate update = new ZipUpdate()
+ *             .put("classes.dex", dex, false)
+ *             .put("assets/config.json", config, true)
+ *             .delete("assets/old.bin");
+ *
+ *     ZipAlign.update(Paths.get("app.apk"), update);
+ * </pre>
+ */
+public class ZipUpdate {
+    private final LinkedHashMap<String, NewEntry> puts = new LinkedHashMap<>();
+    private final LinkedHashSet<String> deletes = new LinkedHashSet<>();
+
+    /**
+     * Adds an entry, or replaces the entry with the same name.
+     *
+     * @param name The name of the entry, e.g. {@code lib/arm64-v8a/libfoo.so}
+     * @param data The uncompressed contents of the entry
+     * @param compress Whether the entry is going to be deflated, it is stored and aligned otherwise
+     * @return This update
+     */
+    public ZipUpdate put(String name, byte[] data, boolean compress) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xffff) throw new IllegalArgumentException("Entry name is too long: " + name);
+
+        deletes.remove(name);
+        puts.put(name, new NewEntry(name, nameBytes, data, compress, System.currentTimeMillis()));
+        return this;
+    }
+
+    /**
+     * Deletes the entry with the given name, does nothing if the zip doesn't have it.
+     *
+     * @param name The name of the entry
+     * @return This update
+     */
+    public ZipUpdate delete(String name) {
+        puts.remove(name);
+        deletes.add(name);
+        return this;
+    }
+
+    /**
+     * @return Whether this update doesn't change anything
+     */
+    public boolean isEmpty() {
+        return puts.isEmpty() && deletes.isEmpty();
+    }
+
+    Collection<NewEntry> puts() {
+        return puts.values();
+    }
+
+    NewEntry put(String name) {
+        return puts.get(name);
+    }
+
+    Set<String> deletes() {
+        return deletes;
+    }
+
+    @Override
+    public String toString() {
+        return "ZipUpdate{" +
+                "puts=" + puts.keySet() +
+                ", deletes=" + deletes +
+                '}';
+    }
+
+    /**
+     * An entry ready to be written: its data is already compressed and its CRC-32 is calculated.
+     */
+    static class NewEntry {
+        final String name;
+        final byte[] nameBytes;
+        final int compressionMethod;
+        final int crc;
+        final long uncompressedSize;
+        final byte[] payload;
+        final int dosTime;
+        final int dosDate;
+
+        NewEntry(String name, byte[] nameBytes, byte[] data, boolean compress, long time) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.uncompressedSize = data.length;
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            this.crc = (int) crc.getValue();
+
+            if (compress) {
+                this.compressionMethod = 8;
+                this.payload = deflate(data);
+            } else {
+                this.compressionMethod = 0;
+                this.payload = data.clone();
+            }
+
+            int dosDateTime = dosDateTime(time);
+            this.dosTime = dosDateTime & 0xffff;
+            this.dosDate = dosDateTime >>> 16;
+        }
+
+        /**
+         * @param time The time in milliseconds since the epoch
+         * @return The MS-DOS date in the upper 16 bits and the MS-DOS time in the lower 16 bits, in the local time zone
+         */
+        static int dosDateTime(long time) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+
+            // MS-DOS time has a 2 seconds resolution and starts at 1980
+            int dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5)
+                    | (calendar.get(Calendar.SECOND) >> 1);
+            int dosDate = ((Math.max(calendar.get(Calendar.YEAR), 1980) - 1980) << 9)
+                    | ((calendar.get(Calendar.MONTH) + 1) << 5) | calendar.get(Calendar.DAY_OF_MONTH);
+
+            return dosDate << 16 | dosTime;
+        }
+
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                byte[] block = new byte[8192];
+
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(block);
+                    out.write(block, 0, count);
+                }
+
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}